@@ -4,6 +4,16 @@ public class AudioConfig {
 
     private static final String TAG = AudioConfig.class.getSimpleName();
 
+    // Values of android.media.AudioFormat constants, duplicated so AudioConfig stays plain Java
+    public static final int ENCODING_PCM_16BIT = 2;
+    public static final int ENCODING_PCM_8BIT = 3;
+    public static final int ENCODING_PCM_FLOAT = 4;
+    public static final int ENCODING_PCM_24BIT_PACKED = 21;
+    public static final int ENCODING_PCM_32BIT = 22;
+
+    private static final int CHANNEL_CONFIGURATION_MONO = 2;
+    private static final int CHANNEL_CONFIGURATION_STEREO = 3;
+
     private int mAudioSource;
     private int mSampleRate;
     private int mChannelConfig;
@@ -47,4 +57,34 @@ public class AudioConfig {
     public void setAudioFormat(int audioFormat) {
         mAudioFormat = audioFormat;
     }
+
+    public int getBytesPerSample() {
+        switch (mAudioFormat) {
+            case ENCODING_PCM_8BIT:
+                return 1;
+            case ENCODING_PCM_24BIT_PACKED:
+                return 3;
+            case ENCODING_PCM_FLOAT:
+            case ENCODING_PCM_32BIT:
+                return 4;
+            default:
+                return 2;
+        }
+    }
+
+    /**
+     * Channel count for both CHANNEL_IN_* and CHANNEL_OUT_* masks, every set bit of a mask
+     * is one channel.
+     */
+    public int getChannelCount() {
+        if (mChannelConfig == CHANNEL_CONFIGURATION_MONO)
+            return 1;
+        if (mChannelConfig == CHANNEL_CONFIGURATION_STEREO)
+            return 2;
+        return Math.max(Integer.bitCount(mChannelConfig), 1);
+    }
+
+    public int getFrameSize() {
+        return getBytesPerSample() * getChannelCount();
+    }
 }
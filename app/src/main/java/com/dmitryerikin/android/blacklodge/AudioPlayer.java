@@ -5,17 +5,32 @@ import android.media.AudioManager;
 import android.media.AudioRecord;
 import android.media.AudioTrack;
 import android.media.MediaRecorder;
+import android.os.Build;
 import android.util.Log;
 
+import com.dmitryerikin.android.blacklodge.Buffers.BufferSizeController;
+import com.dmitryerikin.android.blacklodge.Buffers.BufferSizeStore;
+import com.dmitryerikin.android.blacklodge.Codec.BlockFileReader;
+import com.dmitryerikin.android.blacklodge.Codec.BlockPcmSource;
 import com.dmitryerikin.android.blacklodge.Exceptions.AudioRecordException;
+import com.dmitryerikin.android.blacklodge.Metrics.AudioMetrics;
+import com.dmitryerikin.android.blacklodge.Reversal.FrameReversalKernels;
+import com.dmitryerikin.android.blacklodge.Scheduling.AudioFuture;
+import com.dmitryerikin.android.blacklodge.Scheduling.AudioScheduler;
+import com.dmitryerikin.android.blacklodge.Scheduling.SessionState;
+import com.dmitryerikin.android.blacklodge.Streams.ForwardPcmSource;
+import com.dmitryerikin.android.blacklodge.Streams.PcmPrefetcher;
+import com.dmitryerikin.android.blacklodge.Streams.PcmSource;
+import com.dmitryerikin.android.blacklodge.Streams.ReversePcmSource;
+import com.dmitryerikin.android.blacklodge.Streams.SegmentedPcmBuffer;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.ShortBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AudioPlayer {
 
@@ -25,18 +40,43 @@ public class AudioPlayer {
     private static final String MIN_BUFFER_SIZE_ERROR_BAD_VALUE_MESSAGE = "recording parameters are not supported by the hardware, or an invalid parameter was passed";
     private static final String UNINITIALIZED_AUDIO_TRACK_MESSAGE = "AudioRecord has not been initialized";
 
-    private Thread mThread;
+    private static final String DEVICE = Build.MANUFACTURER + " " + Build.MODEL + " " + Build.VERSION.SDK_INT;
+
+    private static final int PREFETCH_BLOCKS = 4;
+    private static final int MAX_BUFFER_FACTOR = 8;
+    private static final int INITIAL_BUFFER_FACTOR = 2;
+    private static final int FALLBACK_BUFFER_MILLIS = 100;
+
+    private AudioScheduler mScheduler;
+    private AudioMetrics mMetrics;
+    private Callable<Long> mPlaybackJob;
 
     private AudioConfig mConfig;
     private AudioTrack mAudioTrack;
 
     private String mFilePath;
-    private File mFile;
+    private volatile File mFile;
+    private volatile SegmentedPcmBuffer mTake;
 
     private int mMinBufferSize;
-    private int mBufferSize;
-    private int mArrayBufferSize;
-    private boolean mShouldContinue;
+    private BufferSizeStore mBufferSizeStore;
+    private String mBufferSizeKey;
+    private BufferSizeController mBufferSizeController;
+    private final SessionState mState = new SessionState(TAG);
+    private volatile boolean mReversed;
+    private volatile long mPrefetchStallCount;
+
+    // frames are counted in the direction of playback, frame 0 is the first one heard
+    private volatile long mRangeStartFrame;
+    private volatile long mRangeEndFrame = Long.MAX_VALUE;
+    private volatile long mPositionFrame;
+    private volatile boolean mPausing;
+    private final AtomicLong mPendingSeek = new AtomicLong(-1L);
+    // where the track started playing, the position while playing is counted from there
+    private volatile boolean mTracking;
+    private volatile long mTrackingStartFrame;
+    private volatile long mTrackingEndFrame;
+    private volatile int mTrackingStartHead;
 
     private Runnable mOnPlayEndListener;
 
@@ -50,6 +90,15 @@ public class AudioPlayer {
     }
 
     public AudioPlayer(AudioConfig config, String filePath) throws AudioRecordException, FileNotFoundException {
+        this(config, filePath, BufferSizeStore.getShared());
+    }
+
+    /**
+     *
+     * @param bufferSizeStore - track buffer sizes tuned in earlier sessions, updated after every play
+     */
+    public AudioPlayer(AudioConfig config, String filePath, BufferSizeStore bufferSizeStore)
+            throws AudioRecordException, FileNotFoundException {
         mConfig = config;
         mFilePath = filePath;
         mFile = new File(mFilePath);
@@ -58,40 +107,153 @@ public class AudioPlayer {
         mMinBufferSize = AudioTrack.getMinBufferSize(mConfig.getSampleRate(),
                 mConfig.getChannelConfig(), mConfig.getAudioFormat());
 
-        if(mMinBufferSize == AudioTrack.ERROR || mMinBufferSize == AudioTrack.ERROR_BAD_VALUE)
-            mMinBufferSize = mConfig.getSampleRate() * 2;
+        if(mMinBufferSize == AudioTrack.ERROR || mMinBufferSize == AudioTrack.ERROR_BAD_VALUE) {
+            Log.w(TAG, "AudioPlayer: " + (mMinBufferSize == AudioTrack.ERROR ? MIN_BUFFER_SIZE_ERROR_MESSAGE
+                    : MIN_BUFFER_SIZE_ERROR_BAD_VALUE_MESSAGE));
+            mMinBufferSize = mConfig.getSampleRate() * mConfig.getFrameSize() * FALLBACK_BUFFER_MILLIS / 1000;
+        }
 
-        mBufferSize = mMinBufferSize;
-        mArrayBufferSize = mBufferSize / 4;
+        mBufferSizeStore = bufferSizeStore;
+        mBufferSizeKey = BufferSizeStore.keyOf(DEVICE, BufferSizeStore.PLAYBACK, mConfig);
+        mBufferSizeController = new BufferSizeController(mConfig.getFrameSize(), mConfig.getSampleRate(),
+                mMinBufferSize, mMinBufferSize * MAX_BUFFER_FACTOR,
+                mBufferSizeStore.get(mBufferSizeKey, mMinBufferSize * INITIAL_BUFFER_FACTOR));
+        Log.d(TAG, "AudioPlayer: tuned buffer size: " + mBufferSizeController.getBufferSize());
 
-        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, mConfig.getSampleRate(), mConfig.getChannelConfig(), mConfig.getAudioFormat(), mBufferSize, AudioTrack.MODE_STREAM);
+        // from Android 7.0 on the buffer can be resized within the capacity while playing
+        int trackBufferSize = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? mBufferSizeController.getMaxBufferSize() : mBufferSizeController.getBufferSize();
+        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, mConfig.getSampleRate(), mConfig.getChannelConfig(), mConfig.getAudioFormat(), trackBufferSize, AudioTrack.MODE_STREAM);
         if (mAudioTrack.getState() == AudioRecord.STATE_UNINITIALIZED)
             throw new AudioRecordException(UNINITIALIZED_AUDIO_TRACK_MESSAGE);
+        applyBufferSize();
+        mScheduler = AudioScheduler.getShared();
+        mMetrics = AudioMetrics.getShared();
     }
 
     public void initThread() {
-        mThread = new Thread(new Runnable() {
+        mPlaybackJob = new Callable<Long>() {
             @Override
-            public void run() {
-                if(mConfig.getAudioFormat() == AudioFormat.ENCODING_PCM_8BIT)
-                    eightBitPcmPlaying();
-                else if (mConfig.getAudioFormat() == AudioFormat.ENCODING_PCM_16BIT)
-                    sixteenBitPcmPlaying();
-
-                Log.d(TAG, "run: Thread is dead");
+            public Long call() throws IOException {
+                try {
+                    return mState.markRunning() ? pcmPlaying() : 0L;
+                } finally {
+                    mState.finish();
+                    Log.d(TAG, "run: playback job is done");
+                }
             }
-        });
+        };
     }
 
-    public void play() {
-        mShouldContinue = true;
+    /**
+     * Starts playback on the audio lane of the shared AudioScheduler at the current
+     * position, or at the start of the range once the range has been played to its end.
+     *
+     * @return future which completes with the number of bytes played
+     * @throws IllegalStateException - if the previous playback has not stopped yet
+     */
+    public AudioFuture<Long> play() {
+        mState.start();
+        mPausing = false;
         initThread();
-        mThread.start();
+        try {
+            return mScheduler.submitAudio("playback", mPlaybackJob);
+        } catch (RejectedExecutionException ree) {
+            mState.finish();
+            throw ree;
+        }
     }
 
+    /**
+     * Stops playback and rewinds to the start of the range.
+     */
     public void stop() {
-        mShouldContinue = false;
-        mThread = null;
+        mPausing = false;
+        if (!mState.requestStop() && !mState.isActive())
+            mPositionFrame = mRangeStartFrame;
+    }
+
+    /**
+     * Stops playback at once and keeps the position, resume() continues from there.
+     */
+    public void pause() {
+        mPausing = true;
+        mState.requestStop();
+    }
+
+    /**
+     * @see #play()
+     */
+    public AudioFuture<Long> resume() {
+        return play();
+    }
+
+    /**
+     * Moves playback to frame. Sources read positionally, so no frame before it is read.
+     * While playing, the track is flushed and continues at frame within one block.
+     *
+     * @param frame - frame in the direction of playback, clamped to the range
+     */
+    public void seek(long frame) {
+        frame = Math.max(Math.min(frame, mRangeEndFrame), mRangeStartFrame);
+        mPositionFrame = frame;
+        if (mState.isActive())
+            mPendingSeek.set(frame);
+    }
+
+    /**
+     * Limits playback to a range of frames, counted in the direction of playback, and moves
+     * the position to its start. Takes effect with the next play() or seek().
+     *
+     * @param startFrame - first frame played
+     * @param endFrame - frame after the last one played, Long.MAX_VALUE for the end
+     */
+    public void setPlaybackRange(long startFrame, long endFrame) {
+        if (startFrame < 0L || endFrame < startFrame)
+            throw new IllegalArgumentException("Invalid frame range " + startFrame + ".." + endFrame);
+        mRangeStartFrame = startFrame;
+        mRangeEndFrame = endFrame;
+        mPositionFrame = startFrame;
+    }
+
+    public long getRangeStartFrame() {
+        return mRangeStartFrame;
+    }
+
+    public long getRangeEndFrame() {
+        return mRangeEndFrame;
+    }
+
+    /**
+     * While playing, the position is the start frame of the playback plus the frames
+     * AudioTrack reports as played since, so it is what is heard, not what was read.
+     *
+     * @return frame in the direction of playback
+     */
+    public long getPositionFrame() {
+        if (!mTracking)
+            return mPositionFrame;
+        long played = (mAudioTrack.getPlaybackHeadPosition() - mTrackingStartHead) & 0xffffffffL;
+        return Math.min(mTrackingStartFrame + played, mTrackingEndFrame);
+    }
+
+    /**
+     * @return number of whole frames of the take or the file
+     */
+    public long getFrameCount() throws IOException {
+        SegmentedPcmBuffer take = mTake;
+        if (take != null)
+            return take.getLength() / take.getFrameSize();
+        if (BlockFileReader.isBlockFile(mFile)) {
+            try (BlockFileReader reader = new BlockFileReader(mFile)) {
+                return reader.getFrameCount();
+            }
+        }
+        return mFile.length() / mConfig.getFrameSize();
+    }
+
+    public SessionState.State getSessionState() {
+        return mState.get();
     }
 
     public void destroy() {
@@ -103,71 +265,221 @@ public class AudioPlayer {
         return mAudioTrack.getPlayState();
     }
 
+    /**
+     * Also clears the range and the position.
+     */
     public void setFile(File file) {
         mFile = file;
+        mTake = null;
+        setPlaybackRange(0L, Long.MAX_VALUE);
+    }
+
+    public SegmentedPcmBuffer getTake() {
+        return mTake;
+    }
+
+    /**
+     * Plays an in-memory take instead of the file until setFile() is called.
+     * Also clears the range and the position.
+     *
+     * @param take - complete take of AudioRecorder or AudioReverser, it is not released
+     */
+    public void setTake(SegmentedPcmBuffer take) {
+        mTake = take;
+        setPlaybackRange(0L, Long.MAX_VALUE);
+    }
+
+    public boolean isReversed() {
+        return mReversed;
+    }
+
+    /**
+     * Moves the position to the start of the range, which is counted from the other end
+     * of the file afterwards.
+     *
+     * @param reversed - if true the file is played from its end towards its start
+     *                 without creating a reversed copy of it
+     */
+    public void setReversed(boolean reversed) {
+        mReversed = reversed;
+        mPositionFrame = mRangeStartFrame;
+    }
+
+    /**
+     * @return number of times the track ran out of data, or -1 below Android 7.0
+     *         where AudioTrack does not report it
+     */
+    public int getUnderrunCount() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+            return mAudioTrack.getUnderrunCount();
+        return -1;
+    }
+
+    /**
+     * @return number of times playback had to wait for the file to be read, summed over all plays
+     */
+    public long getPrefetchStallCount() {
+        return mPrefetchStallCount;
+    }
+
+    /**
+     * @return controller of the track buffer size, tuned while playing
+     */
+    public BufferSizeController getBufferSizeController() {
+        return mBufferSizeController;
     }
 
     public void setOnPlayEndListener(Runnable onPlayEndListener) {
         mOnPlayEndListener = onPlayEndListener;
     }
 
-    private void eightBitPcmPlaying() {
-        Log.d(TAG, "eightBitPcmPlaying: ");
-        byte[] buffer = new byte[mArrayBufferSize];
-        int bytesRead;
-        long totalBytesRead = 0L;
-        mAudioTrack.play();
-        try(FileInputStream fis = new FileInputStream(mFile)) {
-            while (mShouldContinue) {
-                if((bytesRead = fis.read(buffer)) == -1)
-                    break;
-                totalBytesRead += (long) bytesRead;
-                mAudioTrack.write(buffer, 0, buffer.length);
-            }
-            Log.d(TAG, "eightBitPcmPlaying: total bytes read: " + totalBytesRead);
-            Log.d(TAG, "eightBitPcmPlaying: file size in bytes: " + mFile.length());
-            if(mOnPlayEndListener != null)
-                mOnPlayEndListener.run();
-        } catch (FileNotFoundException fnfe) {
-            Log.e(TAG, "run: FileNotFountException while creating FileInputStream", fnfe);
-            fnfe.printStackTrace();
+    /**
+     * An in-memory take comes first. Block-compressed recordings are recognised by their
+     * header, anything else is raw PCM. Playback frames map to the end of the file when
+     * reversed.
+     */
+    private PcmSource openSource(long startFrame, long endFrame, long frameCount) throws IOException {
+        boolean reversed = mReversed;
+        long fileStart = reversed ? frameCount - endFrame : startFrame;
+        long fileEnd = reversed ? frameCount - startFrame : endFrame;
+        SegmentedPcmBuffer take = mTake;
+        if(take != null)
+            return take.openSource(reversed, FrameReversalKernels.forConfig(mConfig), fileStart, fileEnd);
+        if(BlockFileReader.isBlockFile(mFile))
+            return new BlockPcmSource(mFile, reversed, fileStart, fileEnd);
+        if(reversed)
+            return new ReversePcmSource(mFile, FrameReversalKernels.forConfig(mConfig), fileStart, fileEnd);
+        return new ForwardPcmSource(mFile, mConfig.getFrameSize(), fileStart, fileEnd);
+    }
+
+    private void applyBufferSize() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+            mAudioTrack.setBufferSizeInFrames(mBufferSizeController.getBufferSize() / mConfig.getFrameSize());
+    }
+
+    private void storeBufferSize() {
+        try {
+            mBufferSizeStore.put(mBufferSizeKey, mBufferSizeController.getBufferSize());
         } catch (IOException ioe) {
-            Log.e(TAG, "run: IOException while creating FileInputStream", ioe);
-            ioe.printStackTrace();
-        } finally {
-            mAudioTrack.stop();
+            Log.e(TAG, "storeBufferSize: ", ioe);
         }
     }
 
-    private void sixteenBitPcmPlaying() {
-        Log.d(TAG, "sixteenBitPcmPlaying: ");
-        byte[] byteArray = new byte[mArrayBufferSize];
-        short[] shortArray = new short[byteArray.length / 2];
-        ByteBuffer byteBuffer = ByteBuffer.wrap(byteArray);
+    private void startTracking(long startFrame, long endFrame) {
+        mTrackingStartFrame = startFrame;
+        mTrackingEndFrame = endFrame;
+        mTrackingStartHead = mAudioTrack.getPlaybackHeadPosition();
+        mTracking = true;
+    }
+
+    private void closePrefetcher(PcmPrefetcher prefetcher) throws IOException {
+        mPrefetchStallCount += prefetcher.getStallCount();
+        mMetrics.add(AudioMetrics.Counter.PREFETCH_STALLS, prefetcher.getStallCount());
+        prefetcher.close();
+    }
+
+    /**
+     * A PcmPrefetcher keeps PREFETCH_BLOCKS direct buffers read ahead of the track, so a slow
+     * read only shortens the prefetched audio, and each buffer is written to the track as is.
+     * A seek drops the prefetched blocks and the track's buffer and reopens the source at the
+     * new frame. Write latency, prefetch fill, stalls and underruns go to AudioMetrics.
+     *
+     * Underruns and the time between writes go to the BufferSizeController, the track is
+     * resized as it tunes and new sources are read in its chunk size.
+     */
+    private long pcmPlaying() throws IOException {
+        Log.d(TAG, "pcmPlaying: reversed: " + mReversed);
+        ByteBuffer byteBuffer;
         int bytesRead;
         long totalBytesRead = 0L;
+        long writeStart;
+        long writeEnd;
+        long lastWriteEnd = -1L;
+        BufferSizeController controller = mBufferSizeController;
+        int underrunsAtStart = getUnderrunCount();
+        int underruns = underrunsAtStart;
+        PcmPrefetcher prefetcher = null;
+        long frameCount = getFrameCount();
+        long endFrame = Math.min(mRangeEndFrame, frameCount);
+        long startFrame = Math.min(Math.max(mPositionFrame, mRangeStartFrame), endFrame);
+        if (startFrame == endFrame)
+            startFrame = Math.min(mRangeStartFrame, endFrame);
+        mPendingSeek.set(-1L);
         mAudioTrack.play();
-        try(FileInputStream fis = new FileInputStream(mFile)) {
-            while (mShouldContinue) {
-
-                if((bytesRead = fis.read(byteArray)) == -1)
+        startTracking(startFrame, endFrame);
+        try {
+            prefetcher = new PcmPrefetcher(openSource(startFrame, endFrame, frameCount), controller.getChunkSize(),
+                    PREFETCH_BLOCKS, mScheduler.getAudioExecutor());
+            while (mState.isRunning()) {
+                long seekFrame = mPendingSeek.getAndSet(-1L);
+                if (seekFrame >= 0L) {
+                    seekFrame = Math.min(seekFrame, endFrame);
+                    Log.d(TAG, "pcmPlaying: seek to " + seekFrame);
+                    mAudioTrack.pause();
+                    mAudioTrack.flush();
+                    PcmPrefetcher previous = prefetcher;
+                    prefetcher = null;
+                    closePrefetcher(previous);
+                    prefetcher = new PcmPrefetcher(openSource(seekFrame, endFrame, frameCount),
+                            controller.getChunkSize(), PREFETCH_BLOCKS, mScheduler.getAudioExecutor());
+                    mAudioTrack.play();
+                    startTracking(seekFrame, endFrame);
+                    lastWriteEnd = -1L;
+                    underruns = getUnderrunCount();
+                }
+                if ((byteBuffer = prefetcher.take()) == null)
                     break;
+                bytesRead = byteBuffer.remaining();
                 totalBytesRead += (long) bytesRead;
-                ((ShortBuffer) (byteBuffer.order(ByteOrder.nativeOrder()).asShortBuffer().position(0))).get(shortArray);
-                mAudioTrack.write(shortArray, 0, bytesRead / 2);
+                mMetrics.record(AudioMetrics.Distribution.PREFETCH_FILL_PERCENT,
+                        prefetcher.getReadyCount() * 100L / PREFETCH_BLOCKS);
+                writeStart = System.nanoTime();
+                mAudioTrack.write(byteBuffer, bytesRead, AudioTrack.WRITE_BLOCKING);
+                writeEnd = System.nanoTime();
+                mMetrics.record(AudioMetrics.Distribution.TRACK_WRITE_NANOS, writeEnd - writeStart);
+                boolean resized = lastWriteEnd >= 0L && controller.onTransfer(bytesRead, writeEnd - lastWriteEnd);
+                lastWriteEnd = writeEnd;
+                if (underrunsAtStart >= 0 && getUnderrunCount() > underruns) {
+                    underruns = getUnderrunCount();
+                    resized |= controller.onGlitch();
+                }
+                if (resized) {
+                    Log.d(TAG, "pcmPlaying: buffer size: " + controller.getBufferSize());
+                    applyBufferSize();
+                }
+                mMetrics.add(AudioMetrics.Counter.PLAYED_BYTES, bytesRead);
+                prefetcher.recycle(byteBuffer);
             }
-            Log.d(TAG, "sixteenBitPcmPlaying: total bytes read: " + totalBytesRead + " = " + totalBytesRead / 4 + " frames ");
-            Log.d(TAG, "sixteenBitPcmPlaying: file length in bytes: " + mFile.length());
+            mState.requestStop();
+            Log.d(TAG, "pcmPlaying: total bytes read: " + totalBytesRead);
+            Log.d(TAG, "pcmPlaying: file length in bytes: " + mFile.length());
+            Log.d(TAG, "pcmPlaying: prefetch stalls: " + prefetcher.getStallCount()
+                    + ", underruns: " + getUnderrunCount());
             if(mOnPlayEndListener != null)
                 mOnPlayEndListener.run();
+            return totalBytesRead;
         } catch (FileNotFoundException fnfe) {
-            Log.e(TAG, "run: FileNotFountException while creating FileInputStream", fnfe);
-            fnfe.printStackTrace();
+            Log.e(TAG, "run: FileNotFountException while opening PcmSource", fnfe);
+            throw fnfe;
         } catch (IOException ioe) {
-            Log.e(TAG, "run: IOException while creating FileInputStream", ioe);
-            ioe.printStackTrace();
+            Log.e(TAG, "run: IOException while reading PcmSource", ioe);
+            throw ioe;
         } finally {
+            boolean pausing = mPausing;
+            long positionFrame = getPositionFrame();
+            mTracking = false;
+            if (pausing) {
+                // drops what the track holds, so stop() below returns at once
+                mAudioTrack.pause();
+                mAudioTrack.flush();
+            }
             mAudioTrack.stop();
+            mPositionFrame = pausing ? positionFrame : mRangeStartFrame;
+            if(underrunsAtStart >= 0)
+                mMetrics.add(AudioMetrics.Counter.UNDERRUNS, getUnderrunCount() - underrunsAtStart);
+            if(prefetcher != null)
+                closePrefetcher(prefetcher);
+            storeBufferSize();
         }
     }
 }
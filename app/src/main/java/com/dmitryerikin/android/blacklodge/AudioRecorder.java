@@ -3,10 +3,29 @@ package com.dmitryerikin.android.blacklodge;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
+import android.os.Build;
 import android.os.Process;
 import android.util.Log;
 
+import com.dmitryerikin.android.blacklodge.Buffers.BufferSizeController;
+import com.dmitryerikin.android.blacklodge.Buffers.BufferSizeStore;
+import com.dmitryerikin.android.blacklodge.Buffers.DirectBufferPool;
+import com.dmitryerikin.android.blacklodge.Buffers.RingDrainer;
+import com.dmitryerikin.android.blacklodge.Buffers.SpscByteRing;
+import com.dmitryerikin.android.blacklodge.Codec.BlockFileWriter;
+import com.dmitryerikin.android.blacklodge.Dsp.PolyphaseResampler;
+import com.dmitryerikin.android.blacklodge.Dsp.ResamplingByteChannel;
 import com.dmitryerikin.android.blacklodge.Exceptions.AudioRecordException;
+import com.dmitryerikin.android.blacklodge.Metrics.AudioMetrics;
+import com.dmitryerikin.android.blacklodge.Metrics.MeteredByteChannel;
+import com.dmitryerikin.android.blacklodge.Scheduling.AudioFuture;
+import com.dmitryerikin.android.blacklodge.Scheduling.AudioScheduler;
+import com.dmitryerikin.android.blacklodge.Scheduling.SessionState;
+import com.dmitryerikin.android.blacklodge.Streams.JournaledFileChannel;
+import com.dmitryerikin.android.blacklodge.Streams.SegmentedPcmBuffer;
+import com.dmitryerikin.android.blacklodge.Waveform.PeakIndex;
+import com.dmitryerikin.android.blacklodge.Waveform.PeakIndexBuilder;
+import com.dmitryerikin.android.blacklodge.Waveform.PeakIndexingChannel;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -14,16 +33,40 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AudioRecorder {
 
     private static final String TAG = AudioRecorder.class.getSimpleName();
 
+    public static final long DEFAULT_SPILL_THRESHOLD = 16L * 1024L * 1024L;
+    public static final int DEFAULT_LIVE_REVERSE_WINDOW_MILLIS = 400;
+    public static final int VOICE_SAMPLE_RATE = 16000;
+
     private static final String MIN_BUFFER_SIZE_ERROR_MESSAGE = "implementation was unable to query the hardware for its input properties, or the minimum buffer size expressed in bytes";
     private static final String MIN_BUFFER_SIZE_ERROR_BAD_VALUE_MESSAGE = "recording parameters are not supported by the hardware, or an invalid parameter was passed";
     private static final String UNINITIALIZED_AUDIO_RECORD_MESSAGE = "AudioRecord has not been initialized";
 
-    private Thread mThread;
+    private static final String DEVICE = Build.MANUFACTURER + " " + Build.MODEL + " " + Build.VERSION.SDK_INT;
+
+    private static final int RING_SECONDS = 2;
+    private static final int MAX_BUFFER_FACTOR = 16;
+    private static final int INITIAL_BUFFER_FACTOR = 2;
+    private static final int FALLBACK_BUFFER_MILLIS = 100;
+    private static final int WRITE_BATCH_DIVIDER = 4;
+    private static final long WRITE_MAX_DELAY_MILLIS = 250L;
+    private static final int COMPRESSED_BLOCK_MILLIS = 100;
+
+    private AudioScheduler mScheduler;
+    private AudioMetrics mMetrics;
+    private Callable<Long> mCaptureJob;
+    private Callable<Long> mWriterJob;
+    // jobs of the take which have not exited yet, the last one out finishes the session
+    private AtomicInteger mRunningJobs;
 
     private AudioConfig mConfig;
     private AudioRecord mAudioRecord;
@@ -32,9 +75,22 @@ public class AudioRecorder {
     private File mFile;
 
     private int mMinBufferSize;
-    private int mBufferSize;
-    private int mArrayBufferSize;
-    private boolean mShouldContinue;
+    private BufferSizeStore mBufferSizeStore;
+    private String mBufferSizeKey;
+    private BufferSizeController mBufferSizeController;
+    private final SessionState mState = new SessionState(TAG);
+    private volatile boolean mCompressed;
+    private volatile boolean mInMemory;
+    private volatile boolean mJournaled;
+    private long mRecoveredLength = -1L;
+    private volatile long mSpillThreshold = DEFAULT_SPILL_THRESHOLD;
+    private volatile SegmentedPcmBuffer mTake;
+    private volatile int mLiveReverseWindowMillis;
+    private volatile AudioConfig mStorageConfig;
+    private volatile PeakIndexingChannel mPeakIndexingChannel;
+
+    private SpscByteRing mRing;
+    private RingDrainer mRingDrainer;
 
     public static AudioConfig getDefaultAudioConfig() {
         return new AudioConfig(
@@ -45,64 +101,141 @@ public class AudioRecorder {
         );
     }
 
+    public AudioRecorder(AudioConfig config, File file) throws AudioRecordException, FileNotFoundException {
+        this(config, file, BufferSizeStore.getShared());
+    }
+
     /**
      *
      * @param config - AudioConfig object
      * @param file - file where to write
+     * @param bufferSizeStore - read chunk sizes tuned in earlier sessions, updated after every take
      * @throws AudioRecordException - if AudioRecorder has not been initialized
      * @throws FileNotFoundException - if file isn't exist
      */
-
-    public AudioRecorder(AudioConfig config, File file) throws AudioRecordException, FileNotFoundException {
+    public AudioRecorder(AudioConfig config, File file, BufferSizeStore bufferSizeStore)
+            throws AudioRecordException, FileNotFoundException {
         Log.d(TAG, "AudioRecorder: ");
         mConfig = config;
+        mStorageConfig = config;
         mFile = file;
         if (!mFile.exists())
             throw new FileNotFoundException();
+        recoverTake();
 
         mMinBufferSize = AudioRecord.getMinBufferSize(mConfig.getSampleRate(),
                 mConfig.getChannelConfig(), mConfig.getAudioFormat());
 
-        if (mMinBufferSize == AudioRecord.ERROR || mMinBufferSize == AudioRecord.ERROR_BAD_VALUE)
-            mMinBufferSize = mConfig.getSampleRate() * 2;
+        if (mMinBufferSize == AudioRecord.ERROR || mMinBufferSize == AudioRecord.ERROR_BAD_VALUE) {
+            Log.w(TAG, "AudioRecorder: " + (mMinBufferSize == AudioRecord.ERROR ? MIN_BUFFER_SIZE_ERROR_MESSAGE
+                    : MIN_BUFFER_SIZE_ERROR_BAD_VALUE_MESSAGE));
+            mMinBufferSize = mConfig.getSampleRate() * mConfig.getFrameSize() * FALLBACK_BUFFER_MILLIS / 1000;
+        }
 
-        mBufferSize = mMinBufferSize * 10;
-        mArrayBufferSize = mMinBufferSize / 4;
+        mBufferSizeStore = bufferSizeStore;
+        mBufferSizeKey = BufferSizeStore.keyOf(DEVICE, BufferSizeStore.CAPTURE, mConfig);
+        mBufferSizeController = new BufferSizeController(mConfig.getFrameSize(), mConfig.getSampleRate(),
+                mMinBufferSize, mMinBufferSize * MAX_BUFFER_FACTOR,
+                mBufferSizeStore.get(mBufferSizeKey, mMinBufferSize * INITIAL_BUFFER_FACTOR));
+        Log.d(TAG, "AudioRecorder: tuned buffer size: " + mBufferSizeController.getBufferSize());
 
+        // room for the largest tuned size, only the read chunks add latency
+        int recordBufferSize = mBufferSizeController.getMaxBufferSize();
         mAudioRecord = new AudioRecord(mConfig.getAudioSource(), mConfig.getSampleRate(),
-                mConfig.getChannelConfig(), mConfig.getAudioFormat(), mBufferSize);
+                mConfig.getChannelConfig(), mConfig.getAudioFormat(), recordBufferSize);
         if (mAudioRecord.getState() == AudioRecord.STATE_UNINITIALIZED)
             throw new AudioRecordException(UNINITIALIZED_AUDIO_RECORD_MESSAGE);
+
+        mRing = new SpscByteRing(Math.max(mConfig.getSampleRate() * mConfig.getFrameSize() * RING_SECONDS,
+                recordBufferSize));
+        mRingDrainer = new RingDrainer(mRing, mRing.capacity() / WRITE_BATCH_DIVIDER,
+                TimeUnit.MILLISECONDS.toNanos(WRITE_MAX_DELAY_MILLIS));
+        mScheduler = AudioScheduler.getShared();
+        mMetrics = AudioMetrics.getShared();
     }
 
     public void initThread() {
         Log.d(TAG, "initThread: ");
-        mThread = new Thread(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        android.os.Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
-                        if(mConfig.getAudioFormat() == AudioFormat.ENCODING_PCM_8BIT)
-                            eightBitPcmRecording();
-                        else if (mConfig.getAudioFormat() == AudioFormat.ENCODING_PCM_16BIT)
-                            sixteenBitPcmRecording();
-                        Log.d(TAG, "run: end of thread");
-                    }
+        final AtomicInteger runningJobs = new AtomicInteger(2);
+        mRunningJobs = runningJobs;
+        mCaptureJob = new Callable<Long>() {
+            @Override
+            public Long call() {
+                android.os.Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+                try {
+                    return mState.markRunning() ? pcmRecording() : 0L;
+                } finally {
+                    mState.requestStop();
+                    mRingDrainer.finish();
+                    Log.d(TAG, "run: end of capture job");
+                    jobExited(runningJobs);
                 }
-        );
+            }
+        };
+        mWriterJob = new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                try {
+                    return writeRecording();
+                } finally {
+                    // a writer which failed early leaves nobody draining the ring
+                    mState.requestStop();
+                    Log.d(TAG, "run: end of writer job");
+                    jobExited(runningJobs);
+                }
+            }
+        };
+    }
+
+    /**
+     * Frees the recorder for the next take once both the capture and the writer job are
+     * out, so a new take never resets the ring under a capture job still running.
+     */
+    private void jobExited(AtomicInteger runningJobs) {
+        if (runningJobs.decrementAndGet() == 0)
+            mState.finish();
     }
 
-    public void record() {
+    /**
+     * Starts capture and the writer on the audio lane of the shared AudioScheduler.
+     * The session stops capturing on stop() and stops once the writer has drained the ring.
+     *
+     * @return future of the writer, it completes with the number of bytes written once
+     *         the take is stopped and everything captured is on disk
+     * @throws IllegalStateException - if the previous take is still being written
+     */
+    public AudioFuture<Long> record() {
         Log.d(TAG, "record: ");
-        mShouldContinue = true;
+        mState.start();
+        mRing.reset();
+        mRingDrainer.reset();
         initThread();
-        mThread.start();
+        AudioFuture<Long> writerFuture;
+        try {
+            writerFuture = mScheduler.submitAudio("writer", mWriterJob);
+        } catch (RejectedExecutionException ree) {
+            mState.finish();
+            throw ree;
+        }
+        try {
+            mScheduler.submitAudio("capture", mCaptureJob);
+        } catch (RejectedExecutionException ree) {
+            // the writer drains what there is and frees the recorder
+            mState.requestStop();
+            mRingDrainer.finish();
+            jobExited(mRunningJobs);
+            throw ree;
+        }
+        return writerFuture;
     }
 
     public void stop() {
         Log.d(TAG, "stop: ");
-        mShouldContinue = false;
-        mThread = null;
+        mState.requestStop();
+    }
+
+    public SessionState.State getSessionState() {
+        return mState.get();
     }
 
     public void destroy() {
@@ -116,58 +249,337 @@ public class AudioRecorder {
         return mAudioRecord.getRecordingState();
     }
 
-    private void eightBitPcmRecording() {
-        Log.d(TAG, "eightBitPcmRecording: ");
-        byte[] buffer = new byte[mArrayBufferSize / 2];
+    public boolean isCompressed() {
+        return mCompressed;
+    }
+
+    /**
+     * Takes effect with the next record().
+     *
+     * @param compressed - if true the take is written as IMA ADPCM blocks with a block index,
+     *                   about a quarter of the raw size, instead of raw PCM
+     * @throws IllegalArgumentException - if the recording format is not 16-bit PCM
+     */
+    public void setCompressed(boolean compressed) {
+        if (compressed && mConfig.getBytesPerSample() != 2)
+            throw new IllegalArgumentException("Only 16-bit PCM can be compressed");
+        mCompressed = compressed;
+    }
+
+    /**
+     * @return format of the stored take, the one to play and reverse it with
+     */
+    public AudioConfig getStorageConfig() {
+        return mStorageConfig;
+    }
+
+    /**
+     * Stores takes at another rate or in mono while capture keeps running in the recording
+     * format, VOICE_SAMPLE_RATE in mono is plenty for speech. Conversion runs on the writer
+     * thread. Takes effect with the next record().
+     *
+     * @param sampleRate - sample rate of the stored take in Hz
+     * @param mono - if true the channels are mixed down to one
+     * @throws IllegalArgumentException - if the format changes and the recording format
+     *                                    is not 16-bit PCM
+     */
+    public void setStorageFormat(int sampleRate, boolean mono) {
+        int channelConfig = mono ? AudioFormat.CHANNEL_IN_MONO : mConfig.getChannelConfig();
+        AudioConfig storageConfig = new AudioConfig(mConfig.getAudioSource(), sampleRate, channelConfig,
+                mConfig.getAudioFormat());
+        if (sampleRate != mConfig.getSampleRate() || storageConfig.getChannelCount() != mConfig.getChannelCount()) {
+            if (mConfig.getBytesPerSample() != 2)
+                throw new IllegalArgumentException("Only 16-bit PCM can be resampled");
+            // fails early on rates without a small common divisor
+            new PolyphaseResampler(mConfig.getSampleRate(), sampleRate, mConfig.getChannelCount(), mono);
+        }
+        mStorageConfig = storageConfig;
+    }
+
+    public boolean isJournaled() {
+        return mJournaled;
+    }
+
+    /**
+     * Takes effect with the next record(). Applies to raw takes written to the file,
+     * in-memory and compressed takes are not journaled.
+     *
+     * @param journaled - if true the take is synced to disk about once a second with a
+     *                  checkpoint of its length, so a crash loses at most the last second
+     */
+    public void setJournaled(boolean journaled) {
+        mJournaled = journaled;
+    }
+
+    /**
+     * @return length in bytes the take cut short by a crash was truncated to when this
+     *         recorder was created, -1 if the last take was complete
+     */
+    public long getRecoveredLength() {
+        return mRecoveredLength;
+    }
+
+    public boolean isInMemory() {
+        return mInMemory;
+    }
+
+    /**
+     * Takes effect with the next record(). Compressed takes are always written to the file.
+     *
+     * @param inMemory - if true the take is kept in off-heap memory, see getTake(), and goes
+     *                 to the file only once it grows past the spill threshold
+     */
+    public void setInMemory(boolean inMemory) {
+        mInMemory = inMemory;
+    }
+
+    public long getSpillThreshold() {
+        return mSpillThreshold;
+    }
+
+    /**
+     *
+     * @param spillThreshold - size in bytes above which an in-memory take moves to the file
+     */
+    public void setSpillThreshold(long spillThreshold) {
+        mSpillThreshold = spillThreshold;
+    }
+
+    /**
+     * The take is released by the next in-memory record(), so it must not be played or
+     * reversed any more once the next take starts.
+     *
+     * @return last in-memory take, complete once the future of record() is done,
+     *         or null if the last take was written to the file
+     */
+    public SegmentedPcmBuffer getTake() {
+        return mTake;
+    }
+
+    /**
+     * @return length of the reversed windows of live monitoring in milliseconds, 0 if it is off
+     */
+    public int getLiveReverseWindowMillis() {
+        return mLiveReverseWindowMillis;
+    }
+
+    /**
+     * Plays the take reversed in windows while it is being recorded, each window as soon as
+     * it has been captured. Takes effect with the next record().
+     *
+     * @param windowMillis - length of a reversed window, which is also the delay before it
+     *                     is heard, 0 turns monitoring off
+     * @throws IllegalArgumentException - if windowMillis is negative or the recording format
+     *                                    is not 16-bit PCM
+     */
+    public void setLiveReverseWindowMillis(int windowMillis) {
+        if (windowMillis < 0)
+            throw new IllegalArgumentException("windowMillis must not be negative: " + windowMillis);
+        if (windowMillis > 0 && mConfig.getBytesPerSample() != 2)
+            throw new IllegalArgumentException("Only 16-bit PCM can be monitored");
+        mLiveReverseWindowMillis = windowMillis;
+    }
+
+    /**
+     * The index is also written next to the file, see PeakIndex.fileFor(), except for an
+     * in-memory take which did not spill to the file.
+     *
+     * @return waveform index of the last take, null until it is complete
+     *         or if the take is not 16-bit PCM
+     */
+    public PeakIndex getPeakIndex() {
+        PeakIndexingChannel channel = mPeakIndexingChannel;
+        return channel != null ? channel.getIndex() : null;
+    }
+
+    /**
+     * @return number of captured chunks dropped because the writer thread fell behind
+     */
+    public long getOverrunCount() {
+        return mRing.getOverrunCount();
+    }
+
+    /**
+     * @return the largest amount of captured data in bytes that waited for the writer thread
+     */
+    public int getRingHighWaterMark() {
+        return mRing.getHighWaterMark();
+    }
+
+    public int getRingCapacity() {
+        return mRing.capacity();
+    }
+
+    /**
+     * @return controller of the read chunk size, tuned while recording
+     */
+    public BufferSizeController getBufferSizeController() {
+        return mBufferSizeController;
+    }
+
+    /**
+     * AudioRecord fills a direct buffer in native byte order, the buffer is copied into the
+     * ring in bulk, so there is no per-sample work and no copy through the Java heap.
+     * Only the bytes actually read are passed on. Read latency, ring fill and overruns go
+     * to AudioMetrics. With live reverse on, every chunk also goes to the monitor before
+     * the ring takes it.
+     *
+     * The read size follows the BufferSizeController, which sees the time between reads.
+     * The tuned size is stored when the take ends.
+     */
+    private long pcmRecording() {
+        Log.d(TAG, "pcmRecording: ");
+        BufferSizeController controller = mBufferSizeController;
+        DirectBufferPool pool = DirectBufferPool.getShared();
+        ByteBuffer byteBuffer = pool.acquire(controller.getMaxChunkSize()).order(ByteOrder.nativeOrder());
+        int readSize;
         int bytesRead;
         long totalBytesRead = 0L;
-        mAudioRecord.startRecording();
-        try (FileOutputStream fos = new FileOutputStream(mFile)) {
-            while(mShouldContinue) {
-                bytesRead = mAudioRecord.read(buffer, 0, buffer.length);
+        long readStart;
+        long readEnd;
+        long lastReadEnd = -1L;
+        int ringCapacity = mRing.capacity();
+        LiveReverseMonitor monitor = null;
+        try {
+            int windowMillis = mLiveReverseWindowMillis;
+            if (windowMillis > 0) {
+                try {
+                    monitor = new LiveReverseMonitor(mConfig, windowMillis, byteBuffer);
+                    monitor.start();
+                } catch (AudioRecordException are) {
+                    Log.e(TAG, "pcmRecording: live reverse is off", are);
+                }
+            }
+            mAudioRecord.startRecording();
+            while (mState.isRunning()) {
+                byteBuffer.clear();
+                readSize = controller.getChunkSize();
+                readStart = System.nanoTime();
+                bytesRead = mAudioRecord.read(byteBuffer, readSize);
+                readEnd = System.nanoTime();
+                mMetrics.record(AudioMetrics.Distribution.CAPTURE_READ_NANOS, readEnd - readStart);
+                if (bytesRead <= 0)
+                    continue;
+                // the first read waits for the recording to start
+                if (lastReadEnd >= 0L && controller.onTransfer(bytesRead, readEnd - lastReadEnd))
+                    Log.d(TAG, "pcmRecording: read size: " + controller.getChunkSize());
+                lastReadEnd = readEnd;
                 totalBytesRead += (long) bytesRead;
-                fos.write(buffer);
+                mMetrics.add(AudioMetrics.Counter.CAPTURED_BYTES, bytesRead);
+                byteBuffer.limit(bytesRead);
+                if (monitor != null)
+                    monitor.write(bytesRead);
+                if (!mRing.offer(byteBuffer))
+                    mMetrics.increment(AudioMetrics.Counter.OVERRUNS);
+                mMetrics.record(AudioMetrics.Distribution.RING_FILL_PERCENT,
+                        (long) mRing.size() * 100L / ringCapacity);
             }
-            Log.d(TAG, "eightBitPcmRecording: total bytes read: " + totalBytesRead);
-            Log.d(TAG, "eightBitPcmRecording: file length in bytes: " + mFile.length());
-        } catch (FileNotFoundException fnfe) {
-            Log.e(TAG, "FileNotFoundException while create FileOutputStream");
-            fnfe.printStackTrace();
-        } catch (IOException ioe) {
-            Log.e(TAG, "IOException while creating FileOutputStream");
-            ioe.printStackTrace();
+            Log.d(TAG, "pcmRecording: total bytes read: " + totalBytesRead);
+            return totalBytesRead;
         } finally {
             mAudioRecord.stop();
+            if (monitor != null)
+                monitor.release();
+            pool.release(byteBuffer);
+            storeBufferSize();
         }
     }
 
-    private void sixteenBitPcmRecording() {
-        Log.d(TAG, "sixteenBitPcmRecording: ");
-        short[] shortArray = new short[mArrayBufferSize];
-        ByteBuffer byteBuffer = ByteBuffer.allocate(shortArray.length * 2);
-        int shortsRead;
-        long totalShortsRead = 0L;
-        mAudioRecord.startRecording();
-        try (FileOutputStream fos = new FileOutputStream(mFile)) {
-            while (mShouldContinue) {
-                shortsRead = mAudioRecord.read(shortArray, 0, shortArray.length);
-                totalShortsRead += (long) shortsRead;
-                byteBuffer.clear();
-                for(short s : shortArray) {
-                    byteBuffer.putShort(s);
-                }
-                fos.write(byteBuffer.order(ByteOrder.nativeOrder()).array());
-            }
-            Log.d(TAG, "sixteenBitPcmRecording: total bytes read: " + totalShortsRead * 2);
-            Log.d(TAG, "sixteenBitPcmRecording: file length in bytes: " + mFile.length());
+    /**
+     * Truncates a journaled take cut short by a crash to its last checkpoint.
+     */
+    private void recoverTake() {
+        try {
+            mRecoveredLength = JournaledFileChannel.recover(mFile);
+            if (mRecoveredLength >= 0L)
+                Log.w(TAG, "recoverTake: interrupted take truncated to " + mRecoveredLength + " bytes");
+        } catch (IOException ioe) {
+            Log.e(TAG, "recoverTake: ", ioe);
+        }
+    }
+
+    private void storeBufferSize() {
+        try {
+            mBufferSizeStore.put(mBufferSizeKey, mBufferSizeController.getBufferSize());
+        } catch (IOException ioe) {
+            Log.e(TAG, "storeBufferSize: ", ioe);
+        }
+    }
+
+    private long writeRecording() throws IOException {
+        Log.d(TAG, "writeRecording: compressed: " + mCompressed + ", in memory: " + mInMemory);
+        long totalBytesWritten;
+        try (WritableByteChannel channel = openChannel()) {
+            totalBytesWritten = mRingDrainer.drainUntilFinished(channel);
+            Log.d(TAG, "writeRecording: total bytes written: " + totalBytesWritten);
+            if (mTake != null)
+                Log.d(TAG, "writeRecording: in memory: " + !mTake.isSpilled());
+            Log.d(TAG, "writeRecording: file length in bytes: " + mFile.length());
+            Log.d(TAG, "writeRecording: overruns: " + mRing.getOverrunCount()
+                    + ", ring high-water mark: " + mRing.getHighWaterMark() + " of " + mRing.capacity());
         } catch (FileNotFoundException fnfe) {
             Log.e(TAG, "FileNotFoundException while create FileOutputStream");
-            fnfe.printStackTrace();
+            throw fnfe;
         } catch (IOException ioe) {
-            Log.e(TAG, "IOException while creating FileOutputStream");
-            ioe.printStackTrace();
-        } finally {
-            mAudioRecord.stop();
+            Log.e(TAG, "IOException while writing FileOutputStream");
+            throw ioe;
+        }
+        writeSpilledPeakIndex();
+        return totalBytesWritten;
+    }
+
+    /**
+     * An in-memory take only has its index written next to the file once it spilled there,
+     * the file is complete by the time the channel is closed.
+     */
+    private void writeSpilledPeakIndex() throws IOException {
+        SegmentedPcmBuffer take = mTake;
+        PeakIndexingChannel channel = mPeakIndexingChannel;
+        if (take == null || !take.isSpilled() || channel == null)
+            return;
+        channel.getIndex().write(PeakIndex.fileFor(mFile));
+    }
+
+    /**
+     * Closing the channel closes the file or ends the in-memory take and writes the waveform
+     * index, an in-memory take keeps it in memory, see writeSpilledPeakIndex(). Writes are
+     * timed and counted in the recording format, before resampling, indexing and compression.
+     */
+    private WritableByteChannel openChannel() throws IOException {
+        WritableByteChannel channel;
+        AudioConfig storageConfig = mStorageConfig;
+        SegmentedPcmBuffer previousTake = mTake;
+        mTake = null;
+        if (previousTake != null)
+            previousTake.release();
+        File indexFile = PeakIndex.fileFor(mFile);
+        if (mInMemory && !mCompressed) {
+            // the file still holds an older take unless this one spills, its index must go
+            indexFile.delete();
+            indexFile = null;
+            mTake = new SegmentedPcmBuffer(storageConfig.getFrameSize(), mSpillThreshold, mFile);
+            channel = mTake;
+        } else if (!mCompressed && mJournaled) {
+            channel = new JournaledFileChannel(mFile);
+        } else if (!mCompressed) {
+            channel = new FileOutputStream(mFile).getChannel();
+        } else {
+            int framesPerBlock = storageConfig.getSampleRate() * COMPRESSED_BLOCK_MILLIS / 1000;
+            channel = new BlockFileWriter(mFile, storageConfig.getSampleRate(), storageConfig.getChannelCount(),
+                    framesPerBlock, ByteOrder.nativeOrder());
+        }
+        mPeakIndexingChannel = null;
+        if (storageConfig.getBytesPerSample() == 2) {
+            mPeakIndexingChannel = new PeakIndexingChannel(channel,
+                    new PeakIndexBuilder(storageConfig.getChannelCount()), indexFile);
+            channel = mPeakIndexingChannel;
+        }
+        if (storageConfig.getSampleRate() != mConfig.getSampleRate()
+                || storageConfig.getChannelCount() != mConfig.getChannelCount()) {
+            channel = new ResamplingByteChannel(channel, new PolyphaseResampler(mConfig.getSampleRate(),
+                    storageConfig.getSampleRate(), mConfig.getChannelCount(), storageConfig.getChannelCount() == 1));
         }
+        return new MeteredByteChannel(channel, mMetrics,
+                AudioMetrics.Distribution.DISK_WRITE_NANOS, AudioMetrics.Counter.WRITTEN_BYTES);
     }
 }
@@ -1,110 +1,370 @@
 package com.dmitryerikin.android.blacklodge;
 
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.os.Looper;
 import android.util.Log;
 
+import com.dmitryerikin.android.blacklodge.Cache.ContentFingerprint;
+import com.dmitryerikin.android.blacklodge.Cache.ReversalCache;
+import com.dmitryerikin.android.blacklodge.Codec.BlockFileReader;
+import com.dmitryerikin.android.blacklodge.Codec.BlockFileReverser;
+import com.dmitryerikin.android.blacklodge.Dsp.DspPipeline;
+import com.dmitryerikin.android.blacklodge.Dsp.PcmStage;
+import com.dmitryerikin.android.blacklodge.Exceptions.ReversalCancelledException;
+import com.dmitryerikin.android.blacklodge.Metrics.AudioMetrics;
+import com.dmitryerikin.android.blacklodge.Reversal.FrameReversalKernels;
+import com.dmitryerikin.android.blacklodge.Reversal.ParallelReversalEngine;
+import com.dmitryerikin.android.blacklodge.Reversal.ReversalProgress;
+import com.dmitryerikin.android.blacklodge.Scheduling.AudioFuture;
+import com.dmitryerikin.android.blacklodge.Scheduling.AudioScheduler;
+import com.dmitryerikin.android.blacklodge.Scheduling.SessionState;
+import com.dmitryerikin.android.blacklodge.Streams.PcmSource;
+import com.dmitryerikin.android.blacklodge.Streams.SegmentedPcmBuffer;
+import com.dmitryerikin.android.blacklodge.Waveform.PeakIndex;
+
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class AudioReverser {
 
     private static final String TAG = AudioReverser.class.getSimpleName();
 
-    private Thread mThread;
-    private File mOriginalFile;
-    private File mReversedFile;
-    private AudioConfig mConfig;
+    private static final long PROGRESS_INTERVAL_MILLIS = 100L;
+
+    private AudioScheduler mScheduler;
+    private AudioMetrics mMetrics;
+    private volatile File mOriginalFile;
+    private volatile File mReversedFile;
+    private volatile AudioConfig mConfig;
+    private volatile ParallelReversalEngine mEngine;
+    private BlockFileReverser mBlockFileReverser;
+    private volatile ReversalCache mCache;
+    private volatile File mReversedOutput;
 
-    private ArrayList<OnCompletionListener> mOnCompletionListenerArrayList;
+    private final SessionState mState = new SessionState(TAG);
+    private volatile ReversalProgress mProgress;
+
+    private List<OnCompletionListener> mOnCompletionListenerArrayList;
+    private List<OnProgressListener> mOnProgressListenerArrayList;
 
     public AudioReverser(File originalFile, File reversedFile, AudioConfig config) {
         Log.d(TAG, "AudioReverser: ");
         mOriginalFile = originalFile;
         mReversedFile = reversedFile;
         mConfig = config;
-        mOnCompletionListenerArrayList = new ArrayList<>();
+        mReversedOutput = reversedFile;
+        mEngine = new ParallelReversalEngine(FrameReversalKernels.forConfig(mConfig),
+                Runtime.getRuntime().availableProcessors());
+        mBlockFileReverser = new BlockFileReverser();
+        mScheduler = AudioScheduler.getShared();
+        mMetrics = AudioMetrics.getShared();
+        mOnCompletionListenerArrayList = new CopyOnWriteArrayList<>();
+        mOnProgressListenerArrayList = new CopyOnWriteArrayList<>();
     }
 
-    public void reverse() {
+    /**
+     * Reverses the original file on the background lane of the shared AudioScheduler.
+     * Files, config, parallelism and cache are taken as they are at the call, changing them
+     * afterwards only affects the next reversal. With a cache set, an original file
+     * reversed before is not reversed again, see getReversedOutput().
+     *
+     * @return future which completes with the number of bytes of the reversed output
+     * @throws IllegalStateException - if the previous reversal has not stopped yet
+     */
+    public AudioFuture<Long> reverse() {
         Log.d(TAG, "reverse: ");
-        if(mConfig.getAudioFormat() == AudioFormat.ENCODING_PCM_16BIT) {
-            mThread = new Thread(new Runnable() {
+        mState.start();
+        final File originalFile = mOriginalFile;
+        final File reversedFile = mReversedFile;
+        final ParallelReversalEngine engine = mEngine;
+        final AudioConfig config = mConfig;
+        final ReversalCache cache = mCache;
+        final ReversalProgress progress = newProgress();
+        return submit(progress, new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                return reversePCM(engine, cache, config, originalFile, reversedFile, progress);
+            }
+        });
+    }
+
+    /**
+     * Runs stages over the original file into the reversed file in one pass, see DspPipeline.
+     * The stages decide whether the output is reversed at all, a ReverseStage among them
+     * reverses it. The peak index of the original is used if it is up to date, otherwise the
+     * original is scanned first. The cache is not used, the output depends on the stages.
+     *
+     * @return future which completes with the number of bytes of the output
+     * @throws IllegalStateException - if the previous reversal has not stopped yet
+     */
+    public AudioFuture<Long> process(final PcmStage... stages) {
+        Log.d(TAG, "process: " + stages.length + " stages");
+        mState.start();
+        final File originalFile = mOriginalFile;
+        final File reversedFile = mReversedFile;
+        final AudioConfig config = mConfig;
+        final ReversalProgress progress = newProgress();
+        return submit(progress, new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                return processPCM(stages, config, originalFile, reversedFile, progress);
+            }
+        });
+    }
+
+    /**
+     * Reverses an in-memory take of AudioRecorder into a new in-memory take, without disk
+     * I/O unless the take has spilled. The reversed take spills to the reversed file past
+     * the same threshold.
+     *
+     * @param take - complete take, it is neither changed nor released
+     * @return future which completes with the reversed take, the caller releases it
+     * @throws IllegalStateException - if the previous reversal has not stopped yet
+     */
+    public AudioFuture<SegmentedPcmBuffer> reverse(final SegmentedPcmBuffer take) {
+        Log.d(TAG, "reverse: take");
+        mState.start();
+        final File reversedFile = mReversedFile;
+        final ReversalProgress progress = newProgress();
+        return submit(progress, new Callable<SegmentedPcmBuffer>() {
+            @Override
+            public SegmentedPcmBuffer call() throws IOException {
+                return reverseTake(take, reversedFile, progress);
+            }
+        });
+    }
+
+    /**
+     * Stops the running reversal within one block and deletes its partial output.
+     */
+    public void cancel() {
+        Log.d(TAG, "cancel: ");
+        mState.requestStop();
+        ReversalProgress progress = mProgress;
+        if (progress != null)
+            progress.cancel();
+    }
+
+    /**
+     * Cancels the running reversal and shuts down the threads of the engine.
+     */
+    public void destroy() {
+        cancel();
+        mEngine.close();
+    }
+
+    public SessionState.State getSessionState() {
+        return mState.get();
+    }
+
+    private ReversalProgress newProgress() {
+        return new ReversalProgress(new ReversalProgress.Listener() {
+            @Override
+            public void onProgress(long bytesProcessed, long totalBytes, long bytesPerSecond) {
+                for (OnProgressListener listener : mOnProgressListenerArrayList)
+                    listener.onProgress(bytesProcessed, totalBytes, bytesPerSecond);
+            }
+        }, PROGRESS_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Runs job on the background lane as the session started by the caller. The session
+     * is finished by the job, or by the listener if the future was cancelled before the
+     * job began, whichever claims started first.
+     */
+    private <T> AudioFuture<T> submit(final ReversalProgress progress, final Callable<T> job) {
+        mProgress = progress;
+        final AtomicBoolean started = new AtomicBoolean();
+        AudioFuture<T> future;
+        try {
+            future = mScheduler.submitBackground("reverse", new Callable<T>() {
                 @Override
-                public void run() {
-                    Looper.prepare();
-                    reverse16bitStereoPCM(mOriginalFile, mReversedFile);
-                    Log.d(TAG, "run: end");
+                public T call() throws Exception {
+                    // cancelled while queued, the listener finished the session
+                    if (!started.compareAndSet(false, true))
+                        return null;
+                    try {
+                        if (!mState.markRunning())
+                            progress.cancel();
+                        return job.call();
+                    } finally {
+                        mState.finish();
+                        Log.d(TAG, "run: end");
+                    }
                 }
             });
-            mThread.start();
+        } catch (RejectedExecutionException ree) {
+            mState.finish();
+            throw ree;
         }
+        future.addListener(new AudioFuture.Listener<T>() {
+            @Override
+            public void onDone(AudioFuture<T> done) {
+                if (!done.isCancelled())
+                    return;
+                progress.cancel();
+                if (started.compareAndSet(false, true)) {
+                    mState.finish();
+                    Log.d(TAG, "submit: cancelled before it started");
+                }
+            }
+        });
+        return future;
     }
 
-    private synchronized void reverse16bitStereoPCM(File originalFile, File reversedFile) {
-        Log.d(TAG, "reverse16bitStereoPCM: ");
-        try (RandomAccessFile raf = new RandomAccessFile(originalFile, "r");
-             FileOutputStream fos = new FileOutputStream(reversedFile)) {
-            int bufferSize = AudioRecord.getMinBufferSize(mConfig.getSampleRate(),
-                    mConfig.getChannelConfig(), mConfig.getAudioFormat());
-            int bytesRead;
-            int totalBytesRead = 0;
-            if ((long) bufferSize > raf.length()) {
-                bufferSize = (int) raf.length();
-            }
-            long rafPosition = raf.length();
-            byte[] buffer = new byte[bufferSize];
-            do {
-                rafPosition -= (long) bufferSize;
-                try {
-                    raf.seek(rafPosition);
-                } catch (IOException ioe) {
-                    buffer = new byte[Math.abs((int) rafPosition) + bufferSize];
-                    rafPosition = 0;
-                    raf.seek(rafPosition);
+    private SegmentedPcmBuffer reverseTake(SegmentedPcmBuffer take, File reversedFile, ReversalProgress progress)
+            throws IOException {
+        int frameSize = take.getFrameSize();
+        SegmentedPcmBuffer reversed = new SegmentedPcmBuffer(frameSize, take.getSpillThreshold(), reversedFile);
+        try (PcmSource source = take.openSource(true, FrameReversalKernels.forFrameSize(frameSize))) {
+            long start = System.nanoTime();
+            long bytesWritten = reversed.transferFrom(source, take.getLength() - take.getLength() % frameSize,
+                    progress);
+            reversed.close();
+            recordReversal(bytesWritten, System.nanoTime() - start);
+            Log.d(TAG, "reverseTake: bytesWritten: " + bytesWritten + ", spilled: " + reversed.isSpilled());
+            return reversed;
+        } catch (IOException ioe) {
+            reversed.close();
+            reversed.release();
+            if (reversed.isSpilled())
+                reversedFile.delete();
+            if (ioe instanceof ReversalCancelledException)
+                Log.d(TAG, "reverseTake: " + ioe.getMessage());
+            else
+                Log.e(TAG, "reverseTake: ", ioe);
+            throw ioe;
+        } finally {
+            for (OnCompletionListener listener : mOnCompletionListenerArrayList)
+                listener.onComplete();
+        }
+    }
+
+    private long reversePCM(ParallelReversalEngine engine, ReversalCache cache, AudioConfig config,
+                            File originalFile, File reversedFile, ReversalProgress progress) throws IOException {
+        Log.d(TAG, "reversePCM: ");
+        try {
+            ContentFingerprint fingerprint = null;
+            if (cache != null) {
+                fingerprint = ContentFingerprint.of(originalFile, config);
+                File cached = cache.get(fingerprint);
+                if (cached != null) {
+                    Log.d(TAG, "reversePCM: cache hit: " + fingerprint);
+                    progress.start(cached.length());
+                    progress.advance(cached.length());
+                    progress.finish();
+                    writeReversedPeakIndex(originalFile, reversedFile);
+                    mReversedOutput = cached;
+                    return cached.length();
                 }
-                bytesRead = raf.read(buffer);
-                totalBytesRead += bytesRead;
-                reverseArray16BitStereoPcm(buffer);
-                fos.write(buffer);
-            } while (rafPosition != 0);
-            Log.d(TAG, "reverse16bitStereoPCM: totalBytesRead:" + totalBytesRead);
-            Log.d(TAG, "reverse16bitStereoPCM: " + mOriginalFile.getName() + " size in bytes: " + mOriginalFile.length());
-            Log.d(TAG, "reverse16bitStereoPCM: " + mReversedFile.getName() + " size in bytes: " + mOriginalFile.length());
+            }
+            long bytesWritten;
+            long start = System.nanoTime();
+            if (BlockFileReader.isBlockFile(originalFile))
+                bytesWritten = mBlockFileReverser.reverse(originalFile, reversedFile, progress);
+            else
+                bytesWritten = engine.reverse(originalFile, reversedFile, progress);
+            recordReversal(bytesWritten, System.nanoTime() - start);
+            Log.d(TAG, "reversePCM: bytesWritten:" + bytesWritten);
+            Log.d(TAG, "reversePCM: " + originalFile.getName() + " size in bytes: " + originalFile.length());
+            Log.d(TAG, "reversePCM: " + reversedFile.getName() + " size in bytes: " + reversedFile.length());
+            writeReversedPeakIndex(originalFile, reversedFile);
+            mReversedOutput = fingerprint != null ? store(cache, fingerprint, reversedFile) : reversedFile;
+            return bytesWritten;
+        } catch (ReversalCancelledException rce) {
+            Log.d(TAG, "reversePCM: " + rce.getMessage());
+            throw rce;
         } catch (FileNotFoundException fnfe) {
-            Log.e(TAG, "reverse16bitStereoPCM: ", fnfe);
+            Log.e(TAG, "reversePCM: ", fnfe);
+            throw fnfe;
         } catch (IOException ioe) {
-            Log.e(TAG, "reverse16bitStereoPCM: ", ioe);
+            Log.e(TAG, "reversePCM: ", ioe);
+            throw ioe;
+        } finally {
+            for(OnCompletionListener listener : mOnCompletionListenerArrayList)
+                listener.onComplete();
+            Log.d(TAG, "reversePCM: end");
         }
+    }
 
-        for(OnCompletionListener listener : mOnCompletionListenerArrayList)
-            listener.onComplete();
-        Log.d(TAG, "reverse16bitStereoPCM: end");
+    private long processPCM(PcmStage[] stages, AudioConfig config, File originalFile, File reversedFile,
+                            ReversalProgress progress) throws IOException {
+        Log.d(TAG, "processPCM: ");
+        try {
+            int channelCount = config.getChannelCount();
+            if (BlockFileReader.isBlockFile(originalFile)) {
+                try (BlockFileReader reader = new BlockFileReader(originalFile)) {
+                    channelCount = reader.getChannelCount();
+                }
+            }
+            File originalIndex = PeakIndex.fileFor(originalFile);
+            PeakIndex statistics;
+            if (originalIndex.isFile() && originalIndex.lastModified() >= originalFile.lastModified())
+                statistics = PeakIndex.read(originalIndex);
+            else
+                statistics = DspPipeline.scan(originalFile, channelCount);
+            long start = System.nanoTime();
+            long bytesWritten = new DspPipeline(channelCount, stages)
+                    .run(originalFile, statistics, reversedFile, progress);
+            recordReversal(bytesWritten, System.nanoTime() - start);
+            Log.d(TAG, "processPCM: bytesWritten:" + bytesWritten);
+            // trimmed or reversed or not, the index of the original no longer fits
+            PeakIndex.fileFor(reversedFile).delete();
+            mReversedOutput = reversedFile;
+            return bytesWritten;
+        } catch (ReversalCancelledException rce) {
+            Log.d(TAG, "processPCM: " + rce.getMessage());
+            throw rce;
+        } catch (IOException ioe) {
+            Log.e(TAG, "processPCM: ", ioe);
+            throw ioe;
+        } finally {
+            for(OnCompletionListener listener : mOnCompletionListenerArrayList)
+                listener.onComplete();
+            Log.d(TAG, "processPCM: end");
+        }
     }
 
-    private void reverseArray16BitStereoPcm(byte[] array) {
-        Log.d(TAG, "reverseArray16BitStereoPcm: ");
-        if(array.length == 0)
+    /**
+     * Derives the waveform index of the reversal from the one of the original, if it has
+     * one, and writes it next to the reversed file even if the reversal went to the cache.
+     */
+    private void writeReversedPeakIndex(File originalFile, File reversedFile) {
+        File originalIndex = PeakIndex.fileFor(originalFile);
+        File reversedIndex = PeakIndex.fileFor(reversedFile);
+        if (!originalIndex.isFile() || originalIndex.lastModified() < originalFile.lastModified()) {
+            reversedIndex.delete();
             return;
-        byte temp;
-        int originalPos;
-        int reversedPos;
-        for (int i = 0; i < array.length / 2; i += 4) {
-            for (int j = 0; j < 4; j++) {
-                originalPos = i + j;
-                reversedPos = array.length - i + j - 4;
-                temp = array[originalPos];
-                array[originalPos] = array[reversedPos];
-                array[reversedPos] = temp;
-            }
+        }
+        try {
+            PeakIndex.read(originalIndex).reversed().write(reversedIndex);
+        } catch (IOException ioe) {
+            Log.e(TAG, "writeReversedPeakIndex: ", ioe);
+            reversedIndex.delete();
         }
     }
 
+    private File store(ReversalCache cache, ContentFingerprint fingerprint, File reversedFile) {
+        try {
+            return cache.put(fingerprint, reversedFile);
+        } catch (IOException ioe) {
+            Log.e(TAG, "store: reversal stays uncached", ioe);
+            return reversedFile;
+        }
+    }
+
+    private void recordReversal(long bytes, long nanos) {
+        mMetrics.add(AudioMetrics.Counter.REVERSED_BYTES, bytes);
+        mMetrics.add(AudioMetrics.Counter.REVERSE_NANOS, nanos);
+        if (nanos > 0L)
+            mMetrics.record(AudioMetrics.Distribution.REVERSE_KILOBYTES_PER_SECOND,
+                    (long) (bytes * 1e9 / 1024 / nanos));
+    }
+
     public File getOriginalFile() {
         return mOriginalFile;
     }
@@ -121,12 +381,58 @@ public class AudioReverser {
         mReversedFile = reversedFile;
     }
 
+    /**
+     * The reversed file is moved into the cache when there is one, so play this file
+     * instead of the reversed file. A later reversal may evict it from the cache.
+     *
+     * The waveform index of the reversal is always next to the reversed file, see
+     * PeakIndex.fileFor(getReversedFile()).
+     *
+     * @return file holding the last reversal of the original file, the reversed file
+     *         or an entry of the cache
+     */
+    public File getReversedOutput() {
+        return mReversedOutput;
+    }
+
+    public ReversalCache getCache() {
+        return mCache;
+    }
+
+    /**
+     *
+     * @param cache - cache of reversed files shared by reversers, null disables caching
+     */
+    public void setCache(ReversalCache cache) {
+        mCache = cache;
+    }
+
     public AudioConfig getConfig() {
         return mConfig;
     }
 
     public void setConfig(AudioConfig config) {
         mConfig = config;
+        replaceEngine(new ParallelReversalEngine(FrameReversalKernels.forConfig(mConfig), mEngine.getParallelism()));
+    }
+
+    public int getParallelism() {
+        return mEngine.getParallelism();
+    }
+
+    /**
+     *
+     * @param parallelism - number of threads reversing segments of a file, 1 disables parallel mode
+     */
+    public void setParallelism(int parallelism) {
+        replaceEngine(new ParallelReversalEngine(FrameReversalKernels.forConfig(mConfig), parallelism));
+    }
+
+    // a reversal still running on the old engine finishes, its pool only stops taking new work
+    private void replaceEngine(ParallelReversalEngine engine) {
+        ParallelReversalEngine old = mEngine;
+        mEngine = engine;
+        old.close();
     }
 
     public void removeOnCompletionListener(OnCompletionListener onCompletionListener) {
@@ -137,7 +443,24 @@ public class AudioReverser {
         mOnCompletionListenerArrayList.add(onCompletionListener);
     }
 
+    public void removeOnProgressListener(OnProgressListener onProgressListener) {
+        mOnProgressListenerArrayList.remove(onProgressListener);
+    }
+
+    /**
+     *
+     * @param onProgressListener - called on a reversing thread at most ten times a second
+     *                           and once more when the reversal ends
+     */
+    public void addOnProgressListener(OnProgressListener onProgressListener) {
+        mOnProgressListenerArrayList.add(onProgressListener);
+    }
+
     public interface OnCompletionListener {
         void onComplete();
     }
+
+    public interface OnProgressListener {
+        void onProgress(long bytesProcessed, long totalBytes, long bytesPerSecond);
+    }
 }
@@ -0,0 +1,135 @@
+package com.dmitryerikin.android.blacklodge.Batch;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Outcome of a batch: one result per input in input order, plus totals. The aggregate
+ * throughput is measured over the wall time of the whole batch, so it shows what the
+ * concurrency bought, while the throughput of a file only covers its own reversal.
+ */
+public class BatchReport {
+
+    private static final double MEGABYTE = 1024.0 * 1024.0;
+
+    private final List<FileResult> mResults;
+    private final long mWallNanos;
+
+    BatchReport(List<FileResult> results, long wallNanos) {
+        mResults = Collections.unmodifiableList(results);
+        mWallNanos = wallNanos;
+    }
+
+    public List<FileResult> getResults() {
+        return mResults;
+    }
+
+    public long getWallNanos() {
+        return mWallNanos;
+    }
+
+    public int getSucceededCount() {
+        int count = 0;
+        for (FileResult result : mResults)
+            if (result.isSucceeded())
+                count++;
+        return count;
+    }
+
+    public int getFailedCount() {
+        return mResults.size() - getSucceededCount();
+    }
+
+    /**
+     * @return bytes written by all succeeded reversals
+     */
+    public long getTotalBytes() {
+        long bytes = 0L;
+        for (FileResult result : mResults)
+            if (result.isSucceeded())
+                bytes += result.getBytes();
+        return bytes;
+    }
+
+    public double getBytesPerSecond() {
+        return mWallNanos <= 0L ? 0.0 : getTotalBytes() * 1e9 / mWallNanos;
+    }
+
+    /**
+     * @return a line per file and a summary line, sizes in MB and rates in MB/s
+     */
+    public String format() {
+        StringBuilder builder = new StringBuilder();
+        for (FileResult result : mResults) {
+            if (result.isSucceeded())
+                builder.append(String.format(Locale.US, "ok     %10.2f MB %9.2f MB/s %8d ms  %s%n",
+                        result.getBytes() / MEGABYTE, result.getBytesPerSecond() / MEGABYTE,
+                        result.getNanos() / 1000000L, result.getInput().getPath()));
+            else
+                builder.append(String.format(Locale.US, "failed %s: %s%n",
+                        result.getInput().getPath(), result.getError()));
+        }
+        builder.append(String.format(Locale.US, "%d of %d files reversed, %.2f MB in %d ms, %.2f MB/s%n",
+                getSucceededCount(), mResults.size(), getTotalBytes() / MEGABYTE,
+                mWallNanos / 1000000L, getBytesPerSecond() / MEGABYTE));
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+
+    public static class FileResult {
+
+        private final File mInput;
+        private final File mOutput;
+        private final long mBytes;
+        private final long mNanos;
+        private final String mError;
+
+        FileResult(File input, File output, long bytes, long nanos, String error) {
+            mInput = input;
+            mOutput = output;
+            mBytes = bytes;
+            mNanos = nanos;
+            mError = error;
+        }
+
+        public File getInput() {
+            return mInput;
+        }
+
+        public File getOutput() {
+            return mOutput;
+        }
+
+        /**
+         * @return bytes written to the output, 0 if the reversal failed
+         */
+        public long getBytes() {
+            return mBytes;
+        }
+
+        public long getNanos() {
+            return mNanos;
+        }
+
+        /**
+         * @return message of the failure, null if the file was reversed
+         */
+        public String getError() {
+            return mError;
+        }
+
+        public boolean isSucceeded() {
+            return mError == null;
+        }
+
+        public double getBytesPerSecond() {
+            return mNanos <= 0L ? 0.0 : mBytes * 1e9 / mNanos;
+        }
+    }
+}
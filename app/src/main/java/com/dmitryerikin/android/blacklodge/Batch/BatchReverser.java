@@ -0,0 +1,201 @@
+package com.dmitryerikin.android.blacklodge.Batch;
+
+import com.dmitryerikin.android.blacklodge.AudioConfig;
+import com.dmitryerikin.android.blacklodge.Codec.BlockFileReader;
+import com.dmitryerikin.android.blacklodge.Codec.BlockFileReverser;
+import com.dmitryerikin.android.blacklodge.Reversal.FrameReversalKernels;
+import com.dmitryerikin.android.blacklodge.Reversal.MappedReversalEngine;
+import com.dmitryerikin.android.blacklodge.Reversal.ReversalProgress;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Reverses many recordings without the app, for reprocessing archived takes on a desktop
+ * or a server. Raw PCM files are described by one AudioConfig, block-compressed files
+ * carry their own format. Every output gets the name of its input in the output directory.
+ *
+ * A fixed number of workers takes the files one by one, every worker reverses its file
+ * sequentially, so concurrency is across files. All workers draw on one IoBudget.
+ * A failed file is recorded in the report and does not stop the batch.
+ */
+public class BatchReverser {
+
+    // windows are the unit of budgeting, small ones keep the throttling smooth
+    private static final long WINDOW_SIZE = 1024L * 1024L;
+
+    private final int mConcurrency;
+    private final IoBudget mBudget;
+    private final MappedReversalEngine mEngine;
+    private final BlockFileReverser mBlockFileReverser;
+
+    private volatile boolean mCancelled;
+    private volatile AtomicReferenceArray<ReversalProgress> mRunning;
+
+    /**
+     *
+     * @param config - format of the raw PCM inputs
+     * @param concurrency - number of files reversed at once
+     * @param budget - disk throughput shared by all workers
+     */
+    public BatchReverser(AudioConfig config, int concurrency, IoBudget budget) {
+        if (concurrency <= 0)
+            throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+        mConcurrency = concurrency;
+        mBudget = budget;
+        mEngine = new MappedReversalEngine(FrameReversalKernels.forConfig(config), WINDOW_SIZE);
+        mBlockFileReverser = new BlockFileReverser();
+    }
+
+    /**
+     * @return regular, not hidden files of directory sorted by name
+     * @throws FileNotFoundException - if directory is not a directory
+     */
+    public static List<File> listInputs(File directory) throws FileNotFoundException {
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new FileNotFoundException("Not a directory: " + directory);
+        Arrays.sort(files);
+        List<File> inputs = new ArrayList<>();
+        for (File file : files)
+            if (file.isFile() && !file.isHidden())
+                inputs.add(file);
+        return inputs;
+    }
+
+    public int getConcurrency() {
+        return mConcurrency;
+    }
+
+    /**
+     * Reverses inputs into outputDirectory and waits until all of them are done.
+     *
+     * @return report with a result for every input
+     * @throws IOException - if outputDirectory can't be created
+     * @throws IllegalArgumentException - if an output would overwrite its input or
+     *                                    two inputs have the same name
+     */
+    public BatchReport reverse(final List<File> inputs, final File outputDirectory)
+            throws IOException, InterruptedException {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs())
+            throw new IOException("Can't create output directory " + outputDirectory);
+        Set<String> names = new HashSet<>();
+        for (File input : inputs) {
+            if (!names.add(input.getName()))
+                throw new IllegalArgumentException("Two inputs are named " + input.getName());
+            if (outputOf(input, outputDirectory).getCanonicalFile().equals(input.getCanonicalFile()))
+                throw new IllegalArgumentException("Output would overwrite input " + input);
+        }
+
+        mCancelled = false;
+        final AtomicReferenceArray<ReversalProgress> running = new AtomicReferenceArray<>(mConcurrency);
+        mRunning = running;
+        final BatchReport.FileResult[] results = new BatchReport.FileResult[inputs.size()];
+        final AtomicInteger nextInput = new AtomicInteger();
+        long start = System.nanoTime();
+
+        Thread[] workers = new Thread[Math.min(mConcurrency, inputs.size())];
+        for (int i = 0; i < workers.length; i++) {
+            final int slot = i;
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int index;
+                    while (!mCancelled && (index = nextInput.getAndIncrement()) < results.length) {
+                        ReversalProgress progress = new BudgetedProgress(mBudget);
+                        running.set(slot, progress);
+                        if (mCancelled)
+                            progress.cancel();
+                        results[index] = reverseOne(inputs.get(index), outputDirectory, progress);
+                        running.set(slot, null);
+                    }
+                }
+            }, "batch-" + (i + 1));
+            workers[i].start();
+        }
+        try {
+            for (Thread worker : workers)
+                worker.join();
+        } catch (InterruptedException ie) {
+            cancel();
+            for (Thread worker : workers)
+                worker.join();
+            throw ie;
+        }
+
+        List<BatchReport.FileResult> resultList = new ArrayList<>(results.length);
+        for (int i = 0; i < results.length; i++)
+            resultList.add(results[i] != null ? results[i]
+                    : new BatchReport.FileResult(inputs.get(i), outputOf(inputs.get(i), outputDirectory),
+                    0L, 0L, "Batch cancelled"));
+        return new BatchReport(resultList, System.nanoTime() - start);
+    }
+
+    /**
+     * Stops the running reversals within one window and skips the files not started yet.
+     */
+    public void cancel() {
+        mCancelled = true;
+        AtomicReferenceArray<ReversalProgress> running = mRunning;
+        if (running == null)
+            return;
+        for (int i = 0; i < running.length(); i++) {
+            ReversalProgress progress = running.get(i);
+            if (progress != null)
+                progress.cancel();
+        }
+    }
+
+    private BatchReport.FileResult reverseOne(File input, File outputDirectory, ReversalProgress progress) {
+        File output = outputOf(input, outputDirectory);
+        long start = System.nanoTime();
+        try {
+            long bytes;
+            if (BlockFileReader.isBlockFile(input))
+                bytes = mBlockFileReverser.reverse(input, output, progress);
+            else
+                bytes = mEngine.reverse(input, output, progress);
+            return new BatchReport.FileResult(input, output, bytes, System.nanoTime() - start, null);
+        } catch (IOException | RuntimeException e) {
+            output.delete();
+            String error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            return new BatchReport.FileResult(input, output, 0L, System.nanoTime() - start, error);
+        }
+    }
+
+    private static File outputOf(File input, File outputDirectory) {
+        return new File(outputDirectory, input.getName());
+    }
+
+    /**
+     * Charges every reversed window to the budget before the engine moves on to the next.
+     */
+    private static class BudgetedProgress extends ReversalProgress {
+
+        private final IoBudget mBudget;
+
+        BudgetedProgress(IoBudget budget) {
+            mBudget = budget;
+        }
+
+        @Override
+        public void advance(long bytes) {
+            super.advance(bytes);
+            try {
+                // the window was read and written
+                mBudget.acquire(2L * bytes);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                cancel();
+            }
+        }
+    }
+}
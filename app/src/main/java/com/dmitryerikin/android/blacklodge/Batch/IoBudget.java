@@ -0,0 +1,70 @@
+package com.dmitryerikin.android.blacklodge.Batch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk throughput shared by all workers of a batch. Every worker reserves the bytes it is
+ * about to move and sleeps until the budget allows them, so the workers together never
+ * exceed the rate by more than one burst. Reservations are a compare-and-set on the time
+ * at which the budget is free again, there is no lock and no thread hands out permits.
+ */
+public class IoBudget {
+
+    public static final long DEFAULT_BURST_MILLIS = 250L;
+
+    private final long mBytesPerSecond;
+    private final long mBurstNanos;
+    private final AtomicLong mFreeAtNanos = new AtomicLong(System.nanoTime());
+
+    /**
+     * @return budget which never makes a worker wait
+     */
+    public static IoBudget unlimited() {
+        return new IoBudget(0L, 0L);
+    }
+
+    public IoBudget(long bytesPerSecond) {
+        this(bytesPerSecond, DEFAULT_BURST_MILLIS);
+    }
+
+    /**
+     *
+     * @param bytesPerSecond - rate shared by all workers, 0 or less for no limit
+     * @param burstMillis - how far workers may run ahead of the rate after being idle
+     */
+    public IoBudget(long bytesPerSecond, long burstMillis) {
+        mBytesPerSecond = bytesPerSecond;
+        mBurstNanos = TimeUnit.MILLISECONDS.toNanos(burstMillis);
+    }
+
+    public boolean isUnlimited() {
+        return mBytesPerSecond <= 0L;
+    }
+
+    public long getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    /**
+     * Reserves bytes and waits until they fit into the budget.
+     *
+     * @throws InterruptedException - if interrupted while waiting, the reservation is kept
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        if (isUnlimited() || bytes <= 0L)
+            return;
+        long cost = (long) (bytes * 1e9 / mBytesPerSecond);
+        long now;
+        long freeAt;
+        long reservedUntil;
+        do {
+            now = System.nanoTime();
+            freeAt = mFreeAtNanos.get();
+            reservedUntil = Math.max(freeAt, now) + cost;
+        } while (!mFreeAtNanos.compareAndSet(freeAt, reservedUntil));
+        long waitNanos = reservedUntil - now - mBurstNanos;
+        if (waitNanos > 0L)
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+}
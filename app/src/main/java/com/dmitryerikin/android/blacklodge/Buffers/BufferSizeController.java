@@ -0,0 +1,143 @@
+package com.dmitryerikin.android.blacklodge.Buffers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunes the buffer of an AudioRecord or AudioTrack, and the chunks it is read or written
+ * in, towards the smallest size which does not glitch. A glitch, or a transfer arriving
+ * later than the buffer lasts, doubles the size. Every STABLE_SECONDS of clean audio the
+ * size shrinks by a quarter, but never back to a size which glitched before.
+ *
+ * Sizes are in bytes and whole frames, within the bounds given. Transfers and glitches
+ * are reported by the one thread running the audio loop, sizes may be read from any thread.
+ */
+public class BufferSizeController {
+
+    public static final int CHUNKS_PER_BUFFER = 4;
+    public static final int STABLE_SECONDS = 10;
+
+    private final int mFrameSize;
+    private final int mSampleRate;
+    private final int mMinBufferSize;
+    private final int mMaxBufferSize;
+
+    private volatile int mBufferSize;
+    private volatile long mGlitchCount;
+    // largest size that glitched, shrinking stops above it
+    private int mGlitchedSize;
+    private long mCleanFrames;
+
+    /**
+     *
+     * @param frameSize - size of one frame in bytes
+     * @param sampleRate - frames per second
+     * @param minBufferSize - smallest buffer size, usually the minimum of the platform
+     * @param maxBufferSize - largest buffer size
+     * @param initialBufferSize - size to start from, a tuned size of an earlier session,
+     *                          clamped to the bounds
+     */
+    public BufferSizeController(int frameSize, int sampleRate, int minBufferSize, int maxBufferSize,
+                                int initialBufferSize) {
+        if (frameSize <= 0 || sampleRate <= 0)
+            throw new IllegalArgumentException("frameSize and sampleRate must be positive");
+        mFrameSize = frameSize;
+        mSampleRate = sampleRate;
+        mMinBufferSize = Math.max(wholeFrames(minBufferSize), CHUNKS_PER_BUFFER * frameSize);
+        mMaxBufferSize = Math.max(wholeFrames(maxBufferSize), mMinBufferSize);
+        mBufferSize = clamp(wholeFrames(initialBufferSize));
+    }
+
+    public int getMinBufferSize() {
+        return mMinBufferSize;
+    }
+
+    public int getMaxBufferSize() {
+        return mMaxBufferSize;
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * @return size of one read or write, a quarter of the buffer in whole frames
+     */
+    public int getChunkSize() {
+        return chunkOf(mBufferSize);
+    }
+
+    /**
+     * @return size of the largest chunk the bounds allow, the one to allocate for
+     */
+    public int getMaxChunkSize() {
+        return chunkOf(mMaxBufferSize);
+    }
+
+    /**
+     * @return how long the current buffer lasts in nanoseconds
+     */
+    public long getBufferNanos() {
+        return framesToNanos(mBufferSize / mFrameSize);
+    }
+
+    /**
+     * @return number of glitches reported or detected so far
+     */
+    public long getGlitchCount() {
+        return mGlitchCount;
+    }
+
+    /**
+     * Reports a completed read or write. A period longer than the buffer lasts means the
+     * buffer would have overflowed or run dry and counts as a glitch.
+     *
+     * @param bytes - bytes read or written
+     * @param periodNanos - time since the previous transfer completed
+     * @return true if the buffer size changed
+     */
+    public boolean onTransfer(int bytes, long periodNanos) {
+        if (periodNanos > getBufferNanos())
+            return onGlitch();
+        mCleanFrames += bytes / mFrameSize;
+        if (mCleanFrames < (long) STABLE_SECONDS * mSampleRate)
+            return false;
+        mCleanFrames = 0L;
+        int smaller = clamp(wholeFrames(mBufferSize - mBufferSize / 4));
+        if (smaller >= mBufferSize || smaller <= mGlitchedSize)
+            return false;
+        mBufferSize = smaller;
+        return true;
+    }
+
+    /**
+     * Reports an overrun or underrun seen by the platform.
+     *
+     * @return true if the buffer size changed
+     */
+    public boolean onGlitch() {
+        mGlitchCount++;
+        mCleanFrames = 0L;
+        mGlitchedSize = Math.max(mGlitchedSize, mBufferSize);
+        int larger = clamp(wholeFrames((int) Math.min(2L * mBufferSize, Integer.MAX_VALUE)));
+        if (larger == mBufferSize)
+            return false;
+        mBufferSize = larger;
+        return true;
+    }
+
+    private int chunkOf(int bufferSize) {
+        return Math.max(wholeFrames(bufferSize / CHUNKS_PER_BUFFER), mFrameSize);
+    }
+
+    private long framesToNanos(long frames) {
+        return frames * TimeUnit.SECONDS.toNanos(1L) / mSampleRate;
+    }
+
+    private int wholeFrames(int size) {
+        return size - size % mFrameSize;
+    }
+
+    private int clamp(int size) {
+        return Math.min(Math.max(size, mMinBufferSize), mMaxBufferSize);
+    }
+}
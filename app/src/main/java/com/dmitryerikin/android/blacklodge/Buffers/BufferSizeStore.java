@@ -0,0 +1,99 @@
+package com.dmitryerikin.android.blacklodge.Buffers;
+
+import com.dmitryerikin.android.blacklodge.AudioConfig;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Buffer sizes tuned by BufferSizeController, kept per device, direction and AudioConfig so
+ * the next session starts where the last one ended. The sizes are a small properties file,
+ * rewritten through a temporary file on every change so a crash leaves the old one.
+ *
+ * The shared store only keeps sizes in memory, for the lifetime of the process.
+ * All methods may be called from any thread.
+ */
+public class BufferSizeStore {
+
+    public static final String CAPTURE = "capture";
+    public static final String PLAYBACK = "playback";
+
+    private final File mFile;
+    private final Properties mSizes = new Properties();
+
+    public static BufferSizeStore getShared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    /**
+     * Reads the sizes stored in file, a missing or unreadable file is an empty store.
+     *
+     * @param file - file the sizes are kept in, null to keep them in memory only
+     */
+    public BufferSizeStore(File file) {
+        mFile = file;
+        if (file == null || !file.isFile())
+            return;
+        try (InputStream in = new FileInputStream(file)) {
+            mSizes.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            mSizes.clear();
+        }
+    }
+
+    /**
+     * @param device - names the device, its model and OS version
+     * @param direction - CAPTURE or PLAYBACK
+     * @return key of the buffer size for config on device
+     */
+    public static String keyOf(String device, String direction, AudioConfig config) {
+        return device + "/" + direction + "/" + config.getSampleRate() + "/" + config.getChannelConfig()
+                + "/" + config.getAudioFormat() + "/" + config.getAudioSource();
+    }
+
+    /**
+     * @return size stored under key, or defaultSize if there is none
+     */
+    public synchronized int get(String key, int defaultSize) {
+        String value = mSizes.getProperty(key);
+        if (value == null)
+            return defaultSize;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException nfe) {
+            return defaultSize;
+        }
+    }
+
+    /**
+     * Stores size under key, the file is only written if the size changed.
+     *
+     * @throws IOException - if the file can't be written, the size is kept in memory anyway
+     */
+    public synchronized void put(String key, int size) throws IOException {
+        String value = Integer.toString(size);
+        if (value.equals(mSizes.setProperty(key, value)) || mFile == null)
+            return;
+        File temporary = new File(mFile.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temporary)) {
+            mSizes.store(out, null);
+        }
+        if (!temporary.renameTo(mFile)) {
+            temporary.delete();
+            throw new IOException("Can't replace " + mFile);
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    private static class SharedHolder {
+        static final BufferSizeStore INSTANCE = new BufferSizeStore(null);
+    }
+}
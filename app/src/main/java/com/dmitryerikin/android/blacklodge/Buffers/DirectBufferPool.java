@@ -0,0 +1,130 @@
+package com.dmitryerikin.android.blacklodge.Buffers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pool of reusable direct buffers grouped in power-of-two size classes. Every class keeps
+ * a fixed number of free buffers in an array of slots, so acquiring and releasing a pooled
+ * buffer takes no locks and allocates nothing. Requests larger than the biggest class are
+ * served with unpooled buffers.
+ */
+public class DirectBufferPool {
+
+    public static final int MIN_CLASS_SIZE = 4 * 1024;
+    public static final int MAX_CLASS_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_SLOTS_PER_CLASS = 8;
+
+    private static final int MIN_CLASS_SHIFT = Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+
+    private final AtomicReferenceArray<ByteBuffer>[] mClasses;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mOutstandingCount = new AtomicLong();
+
+    /**
+     * @return pool shared by AudioRecorder, AudioPlayer and AudioReverser
+     */
+    public static DirectBufferPool getShared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public DirectBufferPool(int slotsPerClass) {
+        int classCount = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE) - MIN_CLASS_SHIFT + 1;
+        mClasses = new AtomicReferenceArray[classCount];
+        for (int i = 0; i < classCount; i++)
+            mClasses[i] = new AtomicReferenceArray<>(slotsPerClass);
+    }
+
+    /**
+     * Leases a direct buffer in native byte order with position 0 and limit set to size.
+     * Its capacity may be larger than size. The buffer must be given back with release().
+     */
+    public ByteBuffer acquire(int size) {
+        mOutstandingCount.incrementAndGet();
+        int sizeClass = classOf(size);
+        if (sizeClass < 0) {
+            mMissCount.incrementAndGet();
+            return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+
+        AtomicReferenceArray<ByteBuffer> slots = mClasses[sizeClass];
+        for (int i = 0; i < slots.length(); i++) {
+            ByteBuffer buffer = slots.get(i);
+            if (buffer != null && slots.compareAndSet(i, buffer, null)) {
+                mHitCount.incrementAndGet();
+                buffer.clear().limit(size);
+                // the last leaser may have changed the order
+                buffer.order(ByteOrder.nativeOrder());
+                return buffer;
+            }
+        }
+        mMissCount.incrementAndGet();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MIN_CLASS_SIZE << sizeClass).order(ByteOrder.nativeOrder());
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Gives a leased buffer back. Buffers of a full class and unpooled buffers are dropped.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null)
+            return;
+        mOutstandingCount.decrementAndGet();
+        int sizeClass = classOf(buffer.capacity());
+        if (sizeClass < 0 || MIN_CLASS_SIZE << sizeClass != buffer.capacity() || !buffer.isDirect())
+            return;
+
+        AtomicReferenceArray<ByteBuffer> slots = mClasses[sizeClass];
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) == null && slots.compareAndSet(i, null, buffer))
+                return;
+        }
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * @return number of buffers acquired and not released yet
+     */
+    public long getOutstandingCount() {
+        return mOutstandingCount.get();
+    }
+
+    /**
+     * @return capacity in bytes of the free buffers kept by the pool
+     */
+    public long getPooledBytes() {
+        long pooledBytes = 0L;
+        for (int sizeClass = 0; sizeClass < mClasses.length; sizeClass++) {
+            for (int i = 0; i < mClasses[sizeClass].length(); i++) {
+                if (mClasses[sizeClass].get(i) != null)
+                    pooledBytes += MIN_CLASS_SIZE << sizeClass;
+            }
+        }
+        return pooledBytes;
+    }
+
+    private static class SharedHolder {
+        static final DirectBufferPool INSTANCE = new DirectBufferPool(DEFAULT_SLOTS_PER_CLASS);
+    }
+
+    private static int classOf(int size) {
+        if (size > MAX_CLASS_SIZE)
+            return -1;
+        if (size <= MIN_CLASS_SIZE)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_CLASS_SHIFT;
+    }
+}
@@ -0,0 +1,67 @@
+package com.dmitryerikin.android.blacklodge.Buffers;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Consumer loop of a SpscByteRing. Data is written out in batches of at least batchSize
+ * bytes, or earlier once it has waited maxDelayNanos in the ring. The producer is never
+ * signalled, the drainer parks for short intervals while the ring fills up.
+ */
+public class RingDrainer {
+
+    private static final long PARK_NANOS = 2_000_000L;
+
+    private final SpscByteRing mRing;
+    private final int mBatchSize;
+    private final long mMaxDelayNanos;
+    private volatile boolean mFinished;
+
+    public RingDrainer(SpscByteRing ring, int batchSize, long maxDelayNanos) {
+        mRing = ring;
+        mBatchSize = Math.min(batchSize, ring.capacity());
+        mMaxDelayNanos = maxDelayNanos;
+    }
+
+    /**
+     * Drains the ring into channel until finish() has been called and the ring is empty.
+     *
+     * @return number of bytes written
+     */
+    public long drainUntilFinished(WritableByteChannel channel) throws IOException {
+        long totalBytesWritten = 0L;
+        long pendingSince = 0L;
+        while (true) {
+            // read the flag before the size, anything offered before finish() is then visible
+            boolean finished = mFinished;
+            int size = mRing.size();
+            if (size == 0) {
+                if (finished)
+                    return totalBytesWritten;
+                pendingSince = 0L;
+            } else {
+                long now = System.nanoTime();
+                if (pendingSince == 0L)
+                    pendingSince = now;
+                if (finished || size >= mBatchSize || now - pendingSince >= mMaxDelayNanos) {
+                    totalBytesWritten += mRing.drainTo(channel, size);
+                    pendingSince = 0L;
+                    continue;
+                }
+            }
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /**
+     * Called by the producer after its last offer.
+     */
+    public void finish() {
+        mFinished = true;
+    }
+
+    public void reset() {
+        mFinished = false;
+    }
+}
@@ -0,0 +1,141 @@
+package com.dmitryerikin.android.blacklodge.Buffers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated lock-free byte ring for exactly one producer thread and one consumer thread.
+ * The producer never blocks: a chunk that doesn't fit is dropped as a whole and counted as
+ * an overrun. The consumer drains the ring straight into a channel.
+ */
+public class SpscByteRing {
+
+    private final ByteBuffer mProducerView;
+    private final ByteBuffer mConsumerView;
+    private final int mCapacity;
+    private final int mMask;
+
+    // total bytes ever read and written, indices are positions & mMask
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+
+    private final AtomicLong mOverrunCount = new AtomicLong();
+    private final AtomicLong mOverrunBytes = new AtomicLong();
+    private volatile int mHighWaterMark;
+
+    /**
+     *
+     * @param capacity - ring size in bytes, rounded up to a power of two
+     */
+    public SpscByteRing(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30))
+            throw new IllegalArgumentException("capacity out of range: " + capacity);
+        int powerOfTwo = Integer.highestOneBit(capacity);
+        mCapacity = powerOfTwo == capacity ? capacity : powerOfTwo << 1;
+        mMask = mCapacity - 1;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(mCapacity);
+        mProducerView = buffer.duplicate();
+        mConsumerView = buffer.duplicate();
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    public int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    public boolean isEmpty() {
+        return mTail.get() == mHead.get();
+    }
+
+    /**
+     * Producer side. Copies all remaining bytes of src into the ring and advances its position,
+     * or copies nothing and counts an overrun when there is not enough free space.
+     *
+     * @return true if src has been copied
+     */
+    public boolean offer(ByteBuffer src) {
+        int length = src.remaining();
+        long tail = mTail.get();
+        int size = (int) (tail - mHead.get());
+        if (length > mCapacity - size) {
+            mOverrunCount.incrementAndGet();
+            mOverrunBytes.addAndGet(length);
+            return false;
+        }
+
+        int index = (int) (tail & mMask);
+        int firstLength = Math.min(length, mCapacity - index);
+        int srcLimit = src.limit();
+        src.limit(src.position() + firstLength);
+        mProducerView.limit(index + firstLength).position(index);
+        mProducerView.put(src);
+        src.limit(srcLimit);
+        if (firstLength < length) {
+            mProducerView.limit(length - firstLength).position(0);
+            mProducerView.put(src);
+        }
+
+        mTail.lazySet(tail + length);
+        if (size + length > mHighWaterMark)
+            mHighWaterMark = size + length;
+        return true;
+    }
+
+    /**
+     * Consumer side. Writes up to maxBytes of buffered data into channel.
+     *
+     * @return number of bytes written
+     */
+    public int drainTo(WritableByteChannel channel, int maxBytes) throws IOException {
+        long head = mHead.get();
+        int length = (int) Math.min(mTail.get() - head, maxBytes);
+        if (length <= 0)
+            return 0;
+
+        int index = (int) (head & mMask);
+        int firstLength = Math.min(length, mCapacity - index);
+        mConsumerView.limit(index + firstLength).position(index);
+        while (mConsumerView.hasRemaining())
+            channel.write(mConsumerView);
+        if (firstLength < length) {
+            mConsumerView.limit(length - firstLength).position(0);
+            while (mConsumerView.hasRemaining())
+                channel.write(mConsumerView);
+        }
+
+        mHead.lazySet(head + length);
+        return length;
+    }
+
+    public long getOverrunCount() {
+        return mOverrunCount.get();
+    }
+
+    public long getOverrunBytes() {
+        return mOverrunBytes.get();
+    }
+
+    /**
+     * @return the largest number of bytes the ring has held since creation or the last reset
+     */
+    public int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    /**
+     * Empties the ring and its counters. Must not be called while the producer or the
+     * consumer is running.
+     */
+    public void reset() {
+        mHead.set(0L);
+        mTail.set(0L);
+        mOverrunCount.set(0L);
+        mOverrunBytes.set(0L);
+        mHighWaterMark = 0;
+    }
+}
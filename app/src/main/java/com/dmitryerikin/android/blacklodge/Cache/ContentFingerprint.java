@@ -0,0 +1,103 @@
+package com.dmitryerikin.android.blacklodge.Cache;
+
+import com.dmitryerikin.android.blacklodge.AudioConfig;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Cheap identity of a recording and the format it is read with: size, modification time,
+ * the AudioConfig and a hash of a few blocks spread over the file, the first and the last
+ * among them. Computing it reads at most SAMPLE_BLOCKS * SAMPLE_BLOCK_SIZE bytes however
+ * long the recording is.
+ *
+ * Different fingerprints mean different content. Equal ones may miss an edit which keeps
+ * the size, lands within the same modification time tick and touches no sampled block,
+ * which the recorder never does since every take rewrites the file.
+ */
+public final class ContentFingerprint {
+
+    static final int SAMPLE_BLOCKS = 16;
+    static final int SAMPLE_BLOCK_SIZE = 4096;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long mLength;
+    private final long mHash;
+
+    private ContentFingerprint(long length, long hash) {
+        mLength = length;
+        mHash = hash;
+    }
+
+    /**
+     * @throws java.io.FileNotFoundException - if file can't be opened
+     */
+    public static ContentFingerprint of(File file, AudioConfig config) throws IOException {
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            long length = channel.size();
+            long hash = FNV_OFFSET_BASIS;
+            hash = mix(hash, length);
+            hash = mix(hash, file.lastModified());
+            hash = mix(hash, config.getSampleRate());
+            hash = mix(hash, config.getChannelConfig());
+            hash = mix(hash, config.getAudioFormat());
+
+            ByteBuffer block = ByteBuffer.allocate(SAMPLE_BLOCK_SIZE);
+            long lastBlock = Math.max(length - SAMPLE_BLOCK_SIZE, 0L);
+            long previous = -1L;
+            for (int i = 0; i < SAMPLE_BLOCKS; i++) {
+                long position = lastBlock * i / (SAMPLE_BLOCKS - 1);
+                // short files give the same block several times
+                if (position == previous)
+                    continue;
+                previous = position;
+                block.clear();
+                while (block.hasRemaining() && channel.read(block, position + block.position()) > 0) {
+                }
+                for (int j = 0; j < block.position(); j++)
+                    hash = (hash ^ (block.get(j) & 0xff)) * FNV_PRIME;
+            }
+            return new ContentFingerprint(length, hash);
+        }
+    }
+
+    public long getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return string usable as a file name, equal for equal fingerprints
+     */
+    public String getKey() {
+        return String.format("%016x-%x", mHash, mLength);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ContentFingerprint))
+            return false;
+        ContentFingerprint other = (ContentFingerprint) o;
+        return mLength == other.mLength && mHash == other.mHash;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (mHash ^ (mHash >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+
+    private static long mix(long hash, long value) {
+        for (int shift = 0; shift < 64; shift += 8)
+            hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+        return hash;
+    }
+}
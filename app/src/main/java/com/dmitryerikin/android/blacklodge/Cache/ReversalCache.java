@@ -0,0 +1,165 @@
+package com.dmitryerikin.android.blacklodge.Cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reversed recordings kept on disk under their source's ContentFingerprint, so reversing
+ * a recording again is a lookup instead of a pass over the file. The least recently used
+ * entries are deleted once the entries take more than the disk budget.
+ *
+ * Recency is kept in the modification times of the entries, so the order survives
+ * restarts. All methods may be called from any thread.
+ */
+public class ReversalCache {
+
+    private static final String SUFFIX = ".pcm";
+
+    private final File mDirectory;
+    private final long mBudgetBytes;
+    // lengths of the entries by key, in access order, the eldest is the least recently used
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSizeBytes;
+
+    /**
+     * Picks up the entries already in directory and trims them to the budget.
+     *
+     * @param directory - directory owned by the cache, created if needed
+     * @param budgetBytes - total size of the entries the cache keeps
+     * @throws IOException - if directory can't be created
+     */
+    public ReversalCache(File directory, long budgetBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create cache directory " + directory);
+        mDirectory = directory;
+        mBudgetBytes = budgetBytes;
+
+        File[] files = directory.listFiles();
+        if (files == null)
+            files = new File[0];
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && name.endsWith(SUFFIX)) {
+                mEntries.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+                mSizeBytes += file.length();
+            } else if (name.endsWith(SUFFIX + ".tmp")) {
+                // left by a put() that did not finish
+                file.delete();
+            }
+        }
+        evict();
+    }
+
+    /**
+     * @return reversed recording stored for fingerprint, or null if there is none
+     */
+    public synchronized File get(ContentFingerprint fingerprint) {
+        String key = fingerprint.getKey();
+        if (mEntries.get(key) == null)
+            return null;
+        File entry = entryFile(key);
+        if (!entry.isFile()) {
+            remove(key);
+            return null;
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /**
+     * Moves reversed into the cache, copying it only if it is on another file system,
+     * and evicts the least recently used entries over the budget. A file larger than
+     * the whole budget is left where it is.
+     *
+     * @param reversed - reversal of the recording with fingerprint, it belongs to the cache
+     *                 afterwards unless it is returned
+     * @return file now holding the reversal
+     */
+    public synchronized File put(ContentFingerprint fingerprint, File reversed) throws IOException {
+        long length = reversed.length();
+        if (length > mBudgetBytes)
+            return reversed;
+        String key = fingerprint.getKey();
+        File entry = entryFile(key);
+        remove(key);
+        if (!reversed.renameTo(entry)) {
+            File temporary = new File(mDirectory, key + SUFFIX + ".tmp");
+            copy(reversed, temporary);
+            if (!temporary.renameTo(entry)) {
+                temporary.delete();
+                throw new IOException("Can't store " + entry);
+            }
+            reversed.delete();
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        mEntries.put(key, length);
+        mSizeBytes += length;
+        evict();
+        return entry;
+    }
+
+    public synchronized void clear() {
+        for (String key : mEntries.keySet())
+            entryFile(key).delete();
+        mEntries.clear();
+        mSizeBytes = 0L;
+    }
+
+    public synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    public synchronized long getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    private File entryFile(String key) {
+        return new File(mDirectory, key + SUFFIX);
+    }
+
+    private void remove(String key) {
+        Long length = mEntries.remove(key);
+        if (length != null) {
+            mSizeBytes -= length;
+            entryFile(key).delete();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> eldest = mEntries.entrySet().iterator();
+        while (mSizeBytes > mBudgetBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            mSizeBytes -= entry.getValue();
+            entryFile(entry.getKey()).delete();
+            eldest.remove();
+        }
+    }
+
+    private static void copy(File source, File target) throws IOException {
+        try (FileChannel in = new FileInputStream(source).getChannel();
+             FileChannel out = new FileOutputStream(target).getChannel()) {
+            long position = 0L;
+            long size = in.size();
+            while (position < size)
+                position += in.transferTo(position, size - position, out);
+        }
+    }
+}
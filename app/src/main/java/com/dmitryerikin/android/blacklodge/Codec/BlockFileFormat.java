@@ -0,0 +1,30 @@
+package com.dmitryerikin.android.blacklodge.Codec;
+
+/**
+ * Layout of a block-compressed recording, all numbers are little-endian.
+ *
+ * <pre>
+ * header  magic int, version short, codec short, sample rate int, channels short,
+ *         bytes per sample short, frames per block int, reserved up to HEADER_SIZE
+ * block   frames int, encoded length int, encoded data      (repeated)
+ * index   block offset long, block frames int                (one entry per block)
+ * footer  index offset long, frame count long, block count int, magic int
+ * </pre>
+ *
+ * Every block carries its own length, so the index of a file whose recording was cut
+ * short can be rebuilt by walking the blocks.
+ */
+class BlockFileFormat {
+
+    static final int HEADER_MAGIC = 0x4b4c4c42;
+    static final int FOOTER_MAGIC = 0x58444e49;
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+    static final int BLOCK_HEADER_SIZE = 8;
+    static final int INDEX_ENTRY_SIZE = 12;
+    static final int FOOTER_SIZE = 24;
+
+    private BlockFileFormat() {
+    }
+}
@@ -0,0 +1,228 @@
+package com.dmitryerikin.android.blacklodge.Codec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Random access to the blocks of a file written by BlockFileWriter. The block index is
+ * loaded once on open, if the footer is missing because the recording was interrupted,
+ * the index is rebuilt from the complete blocks at the start of the file.
+ *
+ * Blocks are decoded independently of each other and may be read in any order.
+ * Not thread-safe, every reading thread needs its own reader.
+ */
+public class BlockFileReader implements Closeable {
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final ImaAdpcmCodec mCodec;
+
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mFramesPerBlock;
+
+    private long[] mBlockOffsets;
+    private int[] mBlockFrames;
+    private int mBlockCount;
+    private long mFrameCount;
+    private boolean mRecovered;
+
+    private final ByteBuffer mEncodedBlock;
+
+    /**
+     * @return true if the file starts with the header of a block-compressed recording
+     */
+    public static boolean isBlockFile(File file) {
+        if (!file.isFile() || file.length() < BlockFileFormat.HEADER_SIZE)
+            return false;
+        try (FileInputStream fis = new FileInputStream(file)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            FileChannel channel = fis.getChannel();
+            while (magic.hasRemaining())
+                if (channel.read(magic) == -1)
+                    return false;
+            return magic.getInt(0) == BlockFileFormat.HEADER_MAGIC;
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    public BlockFileReader(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+        try {
+            ByteBuffer header = readFully(0L, BlockFileFormat.HEADER_SIZE);
+            if (header.getInt() != BlockFileFormat.HEADER_MAGIC)
+                throw new IOException(file.getName() + " is not a block-compressed recording");
+            int version = header.getShort();
+            int codec = header.getShort();
+            if (version != BlockFileFormat.VERSION || codec != ImaAdpcmCodec.ID)
+                throw new IOException("Unsupported version " + version + " or codec " + codec);
+            mSampleRate = header.getInt();
+            mChannelCount = header.getShort();
+            header.getShort();
+            mFramesPerBlock = header.getInt();
+            if (mChannelCount <= 0 || mFramesPerBlock <= 0)
+                throw new IOException("Corrupted header of " + file.getName());
+
+            mCodec = new ImaAdpcmCodec(mChannelCount);
+            mEncodedBlock = ByteBuffer.allocate(BlockFileFormat.BLOCK_HEADER_SIZE
+                    + mCodec.getEncodedSize(mFramesPerBlock)).order(ByteOrder.LITTLE_ENDIAN);
+            if (!readIndex())
+                rebuildIndex();
+        } catch (IOException ioe) {
+            mFile.close();
+            throw ioe;
+        }
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * @return size in bytes of a decoded frame
+     */
+    public int getFrameSize() {
+        return mCodec.getFrameSize();
+    }
+
+    public int getFramesPerBlock() {
+        return mFramesPerBlock;
+    }
+
+    public int getBlockCount() {
+        return mBlockCount;
+    }
+
+    public int getBlockFrames(int block) {
+        checkBlock(block);
+        return mBlockFrames[block];
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return true if the file had no valid footer and its index was rebuilt on open
+     */
+    public boolean isRecovered() {
+        return mRecovered;
+    }
+
+    /**
+     * Decodes a block into dst at its position in the byte order of dst and advances
+     * the position.
+     *
+     * @return number of PCM bytes written
+     */
+    public int readBlock(int block, ByteBuffer dst) throws IOException {
+        checkBlock(block);
+        int frames = mBlockFrames[block];
+        if (dst.remaining() < frames * getFrameSize())
+            throw new IllegalArgumentException("Block " + block + " needs " + frames * getFrameSize() + " bytes");
+
+        int encodedSize = mCodec.getEncodedSize(frames);
+        mEncodedBlock.clear().limit(BlockFileFormat.BLOCK_HEADER_SIZE + encodedSize);
+        readFully(mBlockOffsets[block], mEncodedBlock);
+        if (mEncodedBlock.getInt() != frames || mEncodedBlock.getInt() != encodedSize)
+            throw new IOException("Block " + block + " does not match the index");
+        return mCodec.decode(mEncodedBlock, frames, dst);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+    private boolean readIndex() throws IOException {
+        long size = mChannel.size();
+        if (size < BlockFileFormat.HEADER_SIZE + BlockFileFormat.FOOTER_SIZE)
+            return false;
+        ByteBuffer footer = readFully(size - BlockFileFormat.FOOTER_SIZE, BlockFileFormat.FOOTER_SIZE);
+        long indexOffset = footer.getLong();
+        long frameCount = footer.getLong();
+        int blockCount = footer.getInt();
+        if (footer.getInt() != BlockFileFormat.FOOTER_MAGIC || blockCount < 0
+                || indexOffset + (long) blockCount * BlockFileFormat.INDEX_ENTRY_SIZE
+                        != size - BlockFileFormat.FOOTER_SIZE)
+            return false;
+
+        ByteBuffer index = readFully(indexOffset, blockCount * BlockFileFormat.INDEX_ENTRY_SIZE);
+        mBlockOffsets = new long[blockCount];
+        mBlockFrames = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            mBlockOffsets[i] = index.getLong();
+            mBlockFrames[i] = index.getInt();
+            if (mBlockFrames[i] <= 0 || mBlockFrames[i] > mFramesPerBlock)
+                throw new IOException("Corrupted index entry " + i);
+        }
+        mBlockCount = blockCount;
+        mFrameCount = frameCount;
+        return true;
+    }
+
+    /**
+     * Walks the blocks from the header on and keeps every block that is complete.
+     */
+    private void rebuildIndex() throws IOException {
+        long size = mChannel.size();
+        mBlockOffsets = new long[64];
+        mBlockFrames = new int[64];
+        mBlockCount = 0;
+        mFrameCount = 0L;
+        ByteBuffer blockHeader = ByteBuffer.allocate(BlockFileFormat.BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long offset = BlockFileFormat.HEADER_SIZE;
+        while (offset + BlockFileFormat.BLOCK_HEADER_SIZE <= size) {
+            blockHeader.clear();
+            readFully(offset, blockHeader);
+            int frames = blockHeader.getInt();
+            int encodedSize = blockHeader.getInt();
+            if (frames <= 0 || frames > mFramesPerBlock || encodedSize != mCodec.getEncodedSize(frames)
+                    || offset + BlockFileFormat.BLOCK_HEADER_SIZE + encodedSize > size)
+                break;
+            if (mBlockCount == mBlockOffsets.length) {
+                mBlockOffsets = Arrays.copyOf(mBlockOffsets, mBlockCount * 2);
+                mBlockFrames = Arrays.copyOf(mBlockFrames, mBlockCount * 2);
+            }
+            mBlockOffsets[mBlockCount] = offset;
+            mBlockFrames[mBlockCount] = frames;
+            mBlockCount++;
+            mFrameCount += frames;
+            offset += BlockFileFormat.BLOCK_HEADER_SIZE + encodedSize;
+        }
+        mRecovered = true;
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(position, buffer);
+        return buffer;
+    }
+
+    private void readFully(long position, ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer, position + buffer.position() - start) == -1)
+                throw new IOException("Unexpected end of file at " + (position + buffer.position() - start));
+        }
+        buffer.position(start);
+    }
+
+    private void checkBlock(int block) {
+        if (block < 0 || block >= mBlockCount)
+            throw new IndexOutOfBoundsException("Block " + block + " of " + mBlockCount);
+    }
+}
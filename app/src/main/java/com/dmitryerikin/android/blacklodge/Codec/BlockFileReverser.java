@@ -0,0 +1,67 @@
+package com.dmitryerikin.android.blacklodge.Codec;
+
+import com.dmitryerikin.android.blacklodge.Buffers.DirectBufferPool;
+import com.dmitryerikin.android.blacklodge.Exceptions.ReversalCancelledException;
+import com.dmitryerikin.android.blacklodge.Reversal.ReversalProgress;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes a reversed copy of a block-compressed recording in the same format. Source blocks
+ * are decoded from the last to the first, so memory use stays at one block whatever the
+ * length of the recording. Re-encoding adds the small error of one more ADPCM pass.
+ */
+public class BlockFileReverser {
+
+    /**
+     * @return number of PCM bytes written to target
+     */
+    public long reverse(File source, File target) throws IOException {
+        return reverse(source, target, new ReversalProgress());
+    }
+
+    /**
+     * Same as reverse(File, File), reports the decoded size of every block to progress and
+     * checks for cancellation before decoding the next one.
+     *
+     * @throws ReversalCancelledException - if progress was cancelled, target is deleted
+     */
+    public long reverse(File source, File target, ReversalProgress progress) throws IOException {
+        try {
+            return reverseBlocks(source, target, progress);
+        } catch (ReversalCancelledException rce) {
+            target.delete();
+            throw rce;
+        }
+    }
+
+    private long reverseBlocks(File source, File target, ReversalProgress progress) throws IOException {
+        DirectBufferPool pool = DirectBufferPool.getShared();
+        try (BlockPcmSource reversed = new BlockPcmSource(source, true)) {
+            BlockFileReader reader = reversed.getReader();
+            int blockSize = reader.getFramesPerBlock() * reader.getFrameSize();
+            ByteBuffer block = pool.acquire(blockSize);
+            long totalBytesWritten = 0L;
+            progress.start(reader.getFrameCount() * reader.getFrameSize());
+            try (BlockFileWriter writer = new BlockFileWriter(target, reader.getSampleRate(),
+                    reader.getChannelCount(), reader.getFramesPerBlock(), ByteOrder.nativeOrder())) {
+                while (true) {
+                    progress.checkCancelled();
+                    if (reversed.read((ByteBuffer) block.clear().limit(blockSize)) == -1)
+                        break;
+                    block.flip();
+                    int bytesWritten = writer.write(block);
+                    totalBytesWritten += bytesWritten;
+                    progress.advance(bytesWritten);
+                }
+            } finally {
+                pool.release(block);
+            }
+            progress.finish();
+            return totalBytesWritten;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.dmitryerikin.android.blacklodge.Codec;
+
+import com.dmitryerikin.android.blacklodge.Buffers.DirectBufferPool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Channel which takes raw 16-bit PCM, cuts it into blocks of a fixed number of frames,
+ * encodes every block with IMA ADPCM and appends it to a file. The block index and the
+ * footer are written on close. Incoming data does not need to be aligned to frames,
+ * an incomplete frame left over on close is dropped.
+ *
+ * Not thread-safe, the writer is meant to be owned by a single writing thread.
+ */
+public class BlockFileWriter implements WritableByteChannel {
+
+    private final FileOutputStream mStream;
+    private final FileChannel mChannel;
+    private final ImaAdpcmCodec mCodec;
+    private final int mFrameSize;
+    private final int mFramesPerBlock;
+
+    private final ByteBuffer mPcmBlock;
+    private final ByteBuffer mEncodedBlock;
+
+    private long[] mBlockOffsets = new long[64];
+    private int[] mBlockFrames = new int[64];
+    private int mBlockCount;
+    private long mFrameCount;
+    private long mPosition;
+    private boolean mOpen = true;
+
+    /**
+     *
+     * @param file - file where to write, its content is replaced
+     * @param sampleRate - sample rate stored in the header
+     * @param channelCount - number of interleaved channels
+     * @param framesPerBlock - number of frames in every block but the last one
+     * @param pcmOrder - byte order of the incoming samples
+     */
+    public BlockFileWriter(File file, int sampleRate, int channelCount, int framesPerBlock,
+                           ByteOrder pcmOrder) throws IOException {
+        if (framesPerBlock <= 0)
+            throw new IllegalArgumentException("Frames per block must be positive: " + framesPerBlock);
+        mCodec = new ImaAdpcmCodec(channelCount);
+        mFrameSize = mCodec.getFrameSize();
+        mFramesPerBlock = framesPerBlock;
+
+        mStream = new FileOutputStream(file);
+        mChannel = mStream.getChannel();
+
+        DirectBufferPool pool = DirectBufferPool.getShared();
+        mPcmBlock = pool.acquire(framesPerBlock * mFrameSize).order(pcmOrder);
+        mEncodedBlock = pool.acquire(BlockFileFormat.BLOCK_HEADER_SIZE + mCodec.getEncodedSize(framesPerBlock))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            writeHeader(sampleRate, channelCount);
+        } catch (IOException ioe) {
+            close();
+            throw ioe;
+        }
+    }
+
+    public int getFramesPerBlock() {
+        return mFramesPerBlock;
+    }
+
+    /**
+     * @return number of frames encoded so far
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return number of bytes written to the file so far
+     */
+    public long getEncodedLength() {
+        return mPosition;
+    }
+
+    /**
+     * Consumes all of src, every completed block is encoded and written right away.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!mOpen)
+            throw new ClosedChannelException();
+        int length = src.remaining();
+        while (src.hasRemaining()) {
+            int chunk = Math.min(src.remaining(), mPcmBlock.remaining());
+            int limit = src.limit();
+            src.limit(src.position() + chunk);
+            mPcmBlock.put(src);
+            src.limit(limit);
+            if (!mPcmBlock.hasRemaining())
+                writeBlock();
+        }
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    /**
+     * Writes the last incomplete block, the index and the footer, then closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!mOpen)
+            return;
+        mOpen = false;
+        DirectBufferPool pool = DirectBufferPool.getShared();
+        try {
+            if (mPosition >= BlockFileFormat.HEADER_SIZE) {
+                writeBlock();
+                writeIndex();
+            }
+        } finally {
+            pool.release(mPcmBlock);
+            pool.release(mEncodedBlock);
+            mStream.close();
+        }
+    }
+
+    private void writeHeader(int sampleRate, int channelCount) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(BlockFileFormat.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(BlockFileFormat.HEADER_MAGIC)
+                .putShort((short) BlockFileFormat.VERSION)
+                .putShort((short) ImaAdpcmCodec.ID)
+                .putInt(sampleRate)
+                .putShort((short) channelCount)
+                .putShort((short) 2)
+                .putInt(mFramesPerBlock);
+        header.clear();
+        writeFully(header);
+    }
+
+    private void writeBlock() throws IOException {
+        int frames = mPcmBlock.position() / mFrameSize;
+        if (frames == 0)
+            return;
+        mPcmBlock.flip();
+        mEncodedBlock.clear();
+        mEncodedBlock.putInt(frames);
+        mEncodedBlock.putInt(mCodec.getEncodedSize(frames));
+        mCodec.encode(mPcmBlock, frames, mEncodedBlock);
+        mEncodedBlock.flip();
+        mPcmBlock.clear().limit(mFramesPerBlock * mFrameSize);
+
+        if (mBlockCount == mBlockOffsets.length) {
+            mBlockOffsets = Arrays.copyOf(mBlockOffsets, mBlockCount * 2);
+            mBlockFrames = Arrays.copyOf(mBlockFrames, mBlockCount * 2);
+        }
+        mBlockOffsets[mBlockCount] = mPosition;
+        mBlockFrames[mBlockCount] = frames;
+        mBlockCount++;
+        mFrameCount += frames;
+        writeFully(mEncodedBlock);
+    }
+
+    private void writeIndex() throws IOException {
+        long indexOffset = mPosition;
+        ByteBuffer index = ByteBuffer.allocate(mBlockCount * BlockFileFormat.INDEX_ENTRY_SIZE
+                + BlockFileFormat.FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < mBlockCount; i++)
+            index.putLong(mBlockOffsets[i]).putInt(mBlockFrames[i]);
+        index.putLong(indexOffset)
+                .putLong(mFrameCount)
+                .putInt(mBlockCount)
+                .putInt(BlockFileFormat.FOOTER_MAGIC);
+        index.flip();
+        writeFully(index);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            mPosition += mChannel.write(buffer);
+    }
+}
@@ -0,0 +1,101 @@
+package com.dmitryerikin.android.blacklodge.Codec;
+
+import com.dmitryerikin.android.blacklodge.Buffers.DirectBufferPool;
+import com.dmitryerikin.android.blacklodge.Reversal.FrameReversalKernel;
+import com.dmitryerikin.android.blacklodge.Reversal.FrameReversalKernels;
+import com.dmitryerikin.android.blacklodge.Streams.PcmSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes a block-compressed recording, or a range of its frames, into PCM in native byte
+ * order, forwards or backwards. Played backwards, the blocks are decoded from the last to
+ * the first and the frames of every block are reversed in place, so no reversed copy is
+ * needed. A range starts with the block holding its first frame, found through the block
+ * index, so no block before it is decoded.
+ */
+public class BlockPcmSource implements PcmSource {
+
+    private final BlockFileReader mReader;
+    private final FrameReversalKernel mKernel;
+    private final boolean mReversed;
+    private final int mFrameSize;
+    private final ByteBuffer mBlock;
+    private final long mStartFrame;
+    private final long mEndFrame;
+    private int mNextBlock;
+
+    public BlockPcmSource(File file, boolean reversed) throws IOException {
+        this(file, reversed, 0L, Long.MAX_VALUE);
+    }
+
+    /**
+     *
+     * @param startFrame - first frame of the range in the file
+     * @param endFrame - frame after the range in the file, clamped to the end of the file
+     */
+    public BlockPcmSource(File file, boolean reversed, long startFrame, long endFrame) throws IOException {
+        if (startFrame < 0L || endFrame < startFrame)
+            throw new IllegalArgumentException("Invalid frame range " + startFrame + ".." + endFrame);
+        mReader = new BlockFileReader(file);
+        mFrameSize = mReader.getFrameSize();
+        mKernel = FrameReversalKernels.forFrameSize(mFrameSize);
+        mReversed = reversed;
+        mEndFrame = Math.min(endFrame, mReader.getFrameCount());
+        mStartFrame = Math.min(startFrame, mEndFrame);
+        int framesPerBlock = mReader.getFramesPerBlock();
+        if (mStartFrame == mEndFrame)
+            mNextBlock = -1;
+        else
+            mNextBlock = (int) ((reversed ? mEndFrame - 1 : mStartFrame) / framesPerBlock);
+        mBlock = DirectBufferPool.getShared().acquire(framesPerBlock * mFrameSize);
+        mBlock.limit(0);
+    }
+
+    public BlockFileReader getReader() {
+        return mReader;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!mBlock.hasRemaining() && !decodeNextBlock())
+            return -1;
+        int length = Math.min(dst.remaining() - dst.remaining() % mFrameSize, mBlock.remaining());
+        if (length == 0)
+            return 0;
+        int limit = mBlock.limit();
+        mBlock.limit(mBlock.position() + length);
+        dst.put(mBlock);
+        mBlock.limit(limit);
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        DirectBufferPool.getShared().release(mBlock);
+        mReader.close();
+    }
+
+    private boolean decodeNextBlock() throws IOException {
+        if (mNextBlock < 0 || mNextBlock >= mReader.getBlockCount())
+            return false;
+        long blockStart = (long) mNextBlock * mReader.getFramesPerBlock();
+        if (blockStart >= mEndFrame || blockStart + mReader.getBlockFrames(mNextBlock) <= mStartFrame)
+            return false;
+        mBlock.clear();
+        int length = mReader.readBlock(mNextBlock, mBlock);
+        // only the frames of the block within the range
+        int from = (int) (Math.max(mStartFrame - blockStart, 0L) * mFrameSize);
+        int to = (int) Math.min((mEndFrame - blockStart) * mFrameSize, length);
+        mBlock.limit(to).position(from);
+        if (mReversed) {
+            mKernel.reverse(mBlock, from, to - from);
+            mNextBlock--;
+        } else {
+            mNextBlock++;
+        }
+        return true;
+    }
+}
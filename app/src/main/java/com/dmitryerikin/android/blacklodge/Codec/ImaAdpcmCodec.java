@@ -0,0 +1,236 @@
+package com.dmitryerikin.android.blacklodge.Codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * IMA ADPCM codec for interleaved 16-bit PCM, 4 bits per sample.
+ *
+ * Every block is self-contained: it starts with a header per channel holding the first
+ * sample of the channel verbatim and the step index, followed by one nibble for each of
+ * the remaining samples in interleaved order, two nibbles per byte, low nibble first.
+ * So blocks can be decoded in any order. Only the encoder carries its step indexes from
+ * one block to the next, which keeps the start of a block from overshooting. The first
+ * block of a stream starts from a step that matches its first sample difference instead
+ * of the smallest step, so loud takes do not start with an audible ramp.
+ *
+ * PCM samples are read and written in the byte order of the given buffers.
+ */
+public class ImaAdpcmCodec {
+
+    public static final int ID = 1;
+
+    private static final int CHANNEL_HEADER_SIZE = 4;
+
+    private static final int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8,
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17,
+            19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118,
+            130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796,
+            876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+            5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    private final int mChannelCount;
+    private final int[] mEncoderIndex;
+    private final int[] mPredictor;
+    private final int[] mIndex;
+    private boolean mPrimed;
+
+    /**
+     *
+     * @param channelCount - number of interleaved channels
+     */
+    public ImaAdpcmCodec(int channelCount) {
+        if (channelCount <= 0)
+            throw new IllegalArgumentException("Channel count must be positive: " + channelCount);
+        mChannelCount = channelCount;
+        mEncoderIndex = new int[channelCount];
+        mPredictor = new int[channelCount];
+        mIndex = new int[channelCount];
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public int getFrameSize() {
+        return mChannelCount * 2;
+    }
+
+    /**
+     * @return size in bytes of an encoded block of the given number of frames
+     */
+    public int getEncodedSize(int frames) {
+        if (frames == 0)
+            return 0;
+        return mChannelCount * CHANNEL_HEADER_SIZE + ((frames - 1) * mChannelCount + 1) / 2;
+    }
+
+    /**
+     * Forgets the step indexes carried between blocks, call it before a new stream.
+     */
+    public void reset() {
+        for (int c = 0; c < mChannelCount; c++)
+            mEncoderIndex[c] = 0;
+        mPrimed = false;
+    }
+
+    /**
+     * Encodes frames starting at the position of pcm into dst, advancing both positions.
+     *
+     * @return number of bytes written to dst
+     */
+    public int encode(ByteBuffer pcm, int frames, ByteBuffer dst) {
+        int encodedSize = getEncodedSize(frames);
+        if (pcm.remaining() < frames * getFrameSize() || dst.remaining() < encodedSize)
+            throw new IndexOutOfBoundsException("Not enough room for " + frames + " frames");
+        if (frames == 0)
+            return 0;
+
+        int in = pcm.position();
+        int out = dst.position();
+        if (!mPrimed) {
+            primeEncoder(pcm, in, frames);
+            mPrimed = true;
+        }
+        for (int c = 0; c < mChannelCount; c++) {
+            short sample = pcm.getShort(in);
+            in += 2;
+            mPredictor[c] = sample;
+            mIndex[c] = mEncoderIndex[c];
+            dst.put(out, (byte) sample);
+            dst.put(out + 1, (byte) (sample >> 8));
+            dst.put(out + 2, (byte) mIndex[c]);
+            dst.put(out + 3, (byte) 0);
+            out += CHANNEL_HEADER_SIZE;
+        }
+
+        int samples = (frames - 1) * mChannelCount;
+        int packed = 0;
+        for (int i = 0, c = 0; i < samples; i++) {
+            int nibble = encodeSample(c, pcm.getShort(in));
+            in += 2;
+            if ((i & 1) == 0) {
+                packed = nibble;
+            } else {
+                dst.put(out++, (byte) (packed | nibble << 4));
+            }
+            if (++c == mChannelCount)
+                c = 0;
+        }
+        if ((samples & 1) != 0)
+            dst.put(out++, (byte) packed);
+
+        System.arraycopy(mIndex, 0, mEncoderIndex, 0, mChannelCount);
+        pcm.position(in);
+        dst.position(out);
+        return encodedSize;
+    }
+
+    /**
+     * Decodes a block of frames starting at the position of src into pcm, advancing both
+     * positions.
+     *
+     * @return number of bytes written to pcm
+     */
+    public int decode(ByteBuffer src, int frames, ByteBuffer pcm) {
+        int pcmSize = frames * getFrameSize();
+        if (src.remaining() < getEncodedSize(frames) || pcm.remaining() < pcmSize)
+            throw new IndexOutOfBoundsException("Not enough room for " + frames + " frames");
+        if (frames == 0)
+            return 0;
+
+        int in = src.position();
+        int out = pcm.position();
+        for (int c = 0; c < mChannelCount; c++) {
+            short sample = (short) ((src.get(in) & 0xff) | src.get(in + 1) << 8);
+            int index = src.get(in + 2) & 0xff;
+            mPredictor[c] = sample;
+            mIndex[c] = index > 88 ? 88 : index;
+            pcm.putShort(out, sample);
+            out += 2;
+            in += CHANNEL_HEADER_SIZE;
+        }
+
+        int samples = (frames - 1) * mChannelCount;
+        int packed = 0;
+        for (int i = 0, c = 0; i < samples; i++) {
+            int nibble;
+            if ((i & 1) == 0) {
+                packed = src.get(in++);
+                nibble = packed & 0x0f;
+            } else {
+                nibble = packed >> 4 & 0x0f;
+            }
+            pcm.putShort(out, (short) decodeSample(c, nibble));
+            out += 2;
+            if (++c == mChannelCount)
+                c = 0;
+        }
+
+        src.position(in);
+        pcm.position(out);
+        return pcmSize;
+    }
+
+    private void primeEncoder(ByteBuffer pcm, int position, int frames) {
+        if (frames < 2)
+            return;
+        for (int c = 0; c < mChannelCount; c++) {
+            int delta = Math.abs(pcm.getShort(position + (mChannelCount + c) * 2) - pcm.getShort(position + c * 2));
+            int index = 0;
+            while (index < STEP_TABLE.length - 1 && STEP_TABLE[index] < delta)
+                index++;
+            mEncoderIndex[c] = index;
+        }
+    }
+
+    private int encodeSample(int channel, int sample) {
+        int step = STEP_TABLE[mIndex[channel]];
+        int diff = sample - mPredictor[channel];
+        int nibble = 0;
+        if (diff < 0) {
+            nibble = 8;
+            diff = -diff;
+        }
+        if (diff >= step) {
+            nibble |= 4;
+            diff -= step;
+        }
+        if (diff >= step >> 1) {
+            nibble |= 2;
+            diff -= step >> 1;
+        }
+        if (diff >= step >> 2)
+            nibble |= 1;
+        decodeSample(channel, nibble);
+        return nibble;
+    }
+
+    private int decodeSample(int channel, int nibble) {
+        int index = mIndex[channel];
+        int step = STEP_TABLE[index];
+        int delta = step >> 3;
+        if ((nibble & 4) != 0)
+            delta += step;
+        if ((nibble & 2) != 0)
+            delta += step >> 1;
+        if ((nibble & 1) != 0)
+            delta += step >> 2;
+
+        int predictor = mPredictor[channel] + ((nibble & 8) != 0 ? -delta : delta);
+        predictor = predictor < Short.MIN_VALUE ? Short.MIN_VALUE : predictor > Short.MAX_VALUE ? Short.MAX_VALUE : predictor;
+        index += INDEX_TABLE[nibble];
+        mIndex[channel] = index < 0 ? 0 : index > 88 ? 88 : index;
+        mPredictor[channel] = predictor;
+        return predictor;
+    }
+}
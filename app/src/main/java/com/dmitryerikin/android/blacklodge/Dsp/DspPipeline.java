@@ -0,0 +1,169 @@
+package com.dmitryerikin.android.blacklodge.Dsp;
+
+import com.dmitryerikin.android.blacklodge.Buffers.DirectBufferPool;
+import com.dmitryerikin.android.blacklodge.Codec.BlockFileReader;
+import com.dmitryerikin.android.blacklodge.Codec.BlockPcmSource;
+import com.dmitryerikin.android.blacklodge.Reversal.FrameReversalKernels;
+import com.dmitryerikin.android.blacklodge.Reversal.ReversalProgress;
+import com.dmitryerikin.android.blacklodge.Streams.ForwardPcmSource;
+import com.dmitryerikin.android.blacklodge.Streams.PcmSource;
+import com.dmitryerikin.android.blacklodge.Streams.ReversePcmSource;
+import com.dmitryerikin.android.blacklodge.Waveform.PeakIndex;
+import com.dmitryerikin.android.blacklodge.Waveform.PeakIndexBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Runs a chain of stages over a 16-bit recording, raw PCM in native byte order or
+ * block-compressed, in a single pass: every block is read once, goes through all stages
+ * in place and is written once. Stages which need to know the whole recording, like
+ * normalizing or trimming, look at a peak index instead of reading it, either the one
+ * written while recording or one made by scan().
+ *
+ * Reversals only change which frames are read in which direction, the pass never reads a
+ * frame outside the final range.
+ */
+public class DspPipeline {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private final int mChannelCount;
+    private final int mFrameSize;
+    private final int mBlockSize;
+    private final PcmStage[] mStages;
+
+    private volatile long mBytesRead;
+    private volatile long mBytesWritten;
+
+    public DspPipeline(int channelCount, PcmStage... stages) {
+        this(channelCount, DEFAULT_BLOCK_SIZE, stages);
+    }
+
+    /**
+     *
+     * @param channelCount - number of interleaved 16-bit channels
+     * @param blockSize - size of the block going through the stages, rounded down to whole frames
+     * @param stages - stages in the order they are applied
+     */
+    public DspPipeline(int channelCount, int blockSize, PcmStage... stages) {
+        if (channelCount <= 0)
+            throw new IllegalArgumentException("channelCount must be positive: " + channelCount);
+        mChannelCount = channelCount;
+        mFrameSize = 2 * channelCount;
+        mBlockSize = Math.max(blockSize - blockSize % mFrameSize, mFrameSize);
+        mStages = stages.clone();
+    }
+
+    /**
+     * Reads input once to index its peaks, for recordings which have no index.
+     */
+    public static PeakIndex scan(File input, int channelCount) throws IOException {
+        PeakIndexBuilder builder = new PeakIndexBuilder(channelCount);
+        DirectBufferPool pool = DirectBufferPool.getShared();
+        ByteBuffer block = pool.acquire(DEFAULT_BLOCK_SIZE);
+        try (PcmSource source = BlockFileReader.isBlockFile(input) ? new BlockPcmSource(input, false)
+                : new ForwardPcmSource(input, 2 * channelCount)) {
+            while (true) {
+                block.clear();
+                if (source.read(block) == -1)
+                    break;
+                block.flip();
+                builder.update(block);
+            }
+        } finally {
+            pool.release(block);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return bytes read from the input by the last pass
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * @return bytes written to the output by the last pass
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * Prepares the stages and runs the pass, checking for cancellation before every block.
+     * A failed or cancelled pass deletes output.
+     *
+     * @param statistics - peak index of input
+     * @param output - raw PCM file which is overwritten
+     * @return number of bytes written
+     */
+    public long run(File input, PeakIndex statistics, File output, ReversalProgress progress) throws IOException {
+        PassPlan plan = new PassPlan(mChannelCount, statistics.getFrameCount());
+        long[] stageStart = new long[mStages.length];
+        long[] stageEnd = new long[mStages.length];
+        boolean[] stageReversed = new boolean[mStages.length];
+        for (int i = 0; i < mStages.length; i++) {
+            mStages[i].prepare(statistics, plan);
+            stageStart[i] = plan.getStartFrame();
+            stageEnd[i] = plan.getEndFrame();
+            stageReversed[i] = plan.isReversed();
+        }
+        boolean reversed = plan.isReversed();
+
+        mBytesRead = 0L;
+        mBytesWritten = 0L;
+        DirectBufferPool pool = DirectBufferPool.getShared();
+        ByteBuffer block = pool.acquire(mBlockSize);
+        ShortBuffer samples = block.asShortBuffer();
+        long outputFrame = 0L;
+        boolean done = false;
+        try (PcmSource source = openSource(input, plan);
+             FileChannel out = new FileOutputStream(output).getChannel()) {
+            progress.start(plan.getFrameCount() * mFrameSize);
+            while (true) {
+                progress.checkCancelled();
+                block.clear().limit(mBlockSize);
+                int bytesRead = source.read(block);
+                if (bytesRead == -1)
+                    break;
+                mBytesRead += bytesRead;
+                int frames = bytesRead / mFrameSize;
+                // file frame of the first frame of the block
+                long fileFrame = reversed ? plan.getEndFrame() - 1 - outputFrame : plan.getStartFrame() + outputFrame;
+                for (int i = 0; i < mStages.length; i++) {
+                    long frame = stageReversed[i] ? stageEnd[i] - 1 - fileFrame : fileFrame - stageStart[i];
+                    samples.limit(frames * mChannelCount).position(0);
+                    mStages[i].process(samples, frame, stageReversed[i] != reversed);
+                }
+                block.flip();
+                while (block.hasRemaining())
+                    out.write(block);
+                mBytesWritten += bytesRead;
+                outputFrame += frames;
+                progress.advance(bytesRead);
+            }
+            progress.finish();
+            done = true;
+            return mBytesWritten;
+        } finally {
+            pool.release(block);
+            if (!done)
+                output.delete();
+        }
+    }
+
+    private PcmSource openSource(File input, PassPlan plan) throws IOException {
+        if (BlockFileReader.isBlockFile(input))
+            return new BlockPcmSource(input, plan.isReversed(), plan.getStartFrame(), plan.getEndFrame());
+        if (plan.isReversed())
+            return new ReversePcmSource(input, FrameReversalKernels.forFrameSize(mFrameSize),
+                    plan.getStartFrame(), plan.getEndFrame());
+        return new ForwardPcmSource(input, mFrameSize, plan.getStartFrame(), plan.getEndFrame());
+    }
+}
@@ -0,0 +1,55 @@
+package com.dmitryerikin.android.blacklodge.Dsp;
+
+import com.dmitryerikin.android.blacklodge.Waveform.PeakIndex;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Fades the start of the output in and its end out linearly. Blocks away from both
+ * edges are passed through untouched.
+ */
+public class FadeStage implements PcmStage {
+
+    private final long mFadeInFrames;
+    private final long mFadeOutFrames;
+    private int mChannelCount;
+    private long mFrameCount;
+
+    /**
+     *
+     * @param fadeInFrames - frames rising from silence at the start
+     * @param fadeOutFrames - frames falling to silence at the end
+     */
+    public FadeStage(long fadeInFrames, long fadeOutFrames) {
+        mFadeInFrames = fadeInFrames;
+        mFadeOutFrames = fadeOutFrames;
+    }
+
+    @Override
+    public void prepare(PeakIndex statistics, PassPlan plan) {
+        mChannelCount = plan.getChannelCount();
+        mFrameCount = plan.getFrameCount();
+    }
+
+    @Override
+    public void process(ShortBuffer samples, long frame, boolean backwards) {
+        int frames = samples.remaining() / mChannelCount;
+        long first = backwards ? frame - frames + 1 : frame;
+        long last = backwards ? frame : frame + frames - 1;
+        if (first >= mFadeInFrames && last < mFrameCount - mFadeOutFrames)
+            return;
+        for (int i = 0; i < frames; i++) {
+            long position = backwards ? frame - i : frame + i;
+            float gain = 1f;
+            if (position < mFadeInFrames)
+                gain = (position + 0.5f) / mFadeInFrames;
+            if (mFrameCount - position <= mFadeOutFrames)
+                gain = Math.min(gain, (mFrameCount - position - 0.5f) / mFadeOutFrames);
+            if (gain >= 1f)
+                continue;
+            int sample = samples.position() + i * mChannelCount;
+            for (int c = 0; c < mChannelCount; c++)
+                samples.put(sample + c, (short) Math.round(samples.get(sample + c) * gain));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.dmitryerikin.android.blacklodge.Dsp;
+
+import com.dmitryerikin.android.blacklodge.Waveform.PeakIndex;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Multiplies every sample by a fixed gain, or by the gain which brings the loudest
+ * sample of the range read to a target peak.
+ */
+public class GainStage implements PcmStage {
+
+    private final float mFixedGain;
+    private final int mTargetPeak;
+    private float mGain = 1f;
+
+    public GainStage(float gain) {
+        mFixedGain = gain;
+        mTargetPeak = -1;
+    }
+
+    private GainStage(int targetPeak) {
+        mFixedGain = 1f;
+        mTargetPeak = targetPeak;
+    }
+
+    /**
+     * @param targetPeak - magnitude the loudest sample is scaled to, at most Short.MAX_VALUE
+     */
+    public static GainStage normalizing(int targetPeak) {
+        if (targetPeak <= 0 || targetPeak > Short.MAX_VALUE)
+            throw new IllegalArgumentException("targetPeak must be within 1.." + Short.MAX_VALUE);
+        return new GainStage(targetPeak);
+    }
+
+    /**
+     * @return gain of the last pass, known after prepare()
+     */
+    public float getGain() {
+        return mGain;
+    }
+
+    @Override
+    public void prepare(PeakIndex statistics, PassPlan plan) {
+        if (mTargetPeak < 0) {
+            mGain = mFixedGain;
+            return;
+        }
+        short[] min = new short[1];
+        short[] max = new short[1];
+        statistics.getPeaks(plan.getStartFrame(), plan.getEndFrame(), min, max);
+        int peak = Math.max(-min[0], max[0]);
+        mGain = peak > 0 ? (float) mTargetPeak / peak : 1f;
+    }
+
+    @Override
+    public void process(ShortBuffer samples, long frame, boolean backwards) {
+        if (mGain == 1f)
+            return;
+        for (int i = samples.position(); i < samples.limit(); i++) {
+            int value = Math.round(samples.get(i) * mGain);
+            samples.put(i, (short) Math.max(Math.min(value, Short.MAX_VALUE), Short.MIN_VALUE));
+        }
+    }
+}
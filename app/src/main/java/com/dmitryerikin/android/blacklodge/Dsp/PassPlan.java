@@ -0,0 +1,56 @@
+package com.dmitryerikin.android.blacklodge.Dsp;
+
+/**
+ * Frames of the input a DspPipeline pass reads and the direction it reads them in.
+ * Stages adjust it in prepare().
+ */
+public class PassPlan {
+
+    private final int mChannelCount;
+    private long mStartFrame;
+    private long mEndFrame;
+    private boolean mReversed;
+
+    PassPlan(int channelCount, long frameCount) {
+        mChannelCount = channelCount;
+        mEndFrame = frameCount;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * @return first frame read, in the order of the input file
+     */
+    public long getStartFrame() {
+        return mStartFrame;
+    }
+
+    /**
+     * @return frame after the last one read, in the order of the input file
+     */
+    public long getEndFrame() {
+        return mEndFrame;
+    }
+
+    public long getFrameCount() {
+        return mEndFrame - mStartFrame;
+    }
+
+    /**
+     * Narrows the range to the frames from startFrame to endFrame within it.
+     */
+    public void narrow(long startFrame, long endFrame) {
+        mStartFrame = Math.max(mStartFrame, startFrame);
+        mEndFrame = Math.max(Math.min(mEndFrame, endFrame), mStartFrame);
+    }
+
+    public boolean isReversed() {
+        return mReversed;
+    }
+
+    public void reverse() {
+        mReversed = !mReversed;
+    }
+}
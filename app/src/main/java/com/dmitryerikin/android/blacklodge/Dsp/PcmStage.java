@@ -0,0 +1,30 @@
+package com.dmitryerikin.android.blacklodge.Dsp;
+
+import com.dmitryerikin.android.blacklodge.Waveform.PeakIndex;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Step of a DspPipeline. All stages of a pipeline run in one pass over the recording:
+ * before the pass every stage may change what is read, afterwards every block read goes
+ * through the stages in order, in place.
+ */
+public interface PcmStage {
+
+    /**
+     * Called in pipeline order before the pass.
+     *
+     * @param statistics - peaks of the whole input, in the order of the input file
+     * @param plan - what the pass reads, as left by the stages before this one
+     */
+    void prepare(PeakIndex statistics, PassPlan plan);
+
+    /**
+     * Changes samples from their position to their limit in place, 16-bit interleaved.
+     *
+     * @param frame - frame of the first sample counted the way this stage saw the output in
+     *              prepare(), a later reversal does not change it
+     * @param backwards - if true the frames of samples count down from frame
+     */
+    void process(ShortBuffer samples, long frame, boolean backwards);
+}
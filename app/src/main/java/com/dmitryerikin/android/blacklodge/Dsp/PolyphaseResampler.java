@@ -0,0 +1,224 @@
+package com.dmitryerikin.android.blacklodge.Dsp;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Streaming sample rate converter for 16-bit PCM with optional downmix to mono, for
+ * storing takes at a lower rate than the hardware captures at.
+ *
+ * The rates are related as upFactor / downFactor after dividing by their greatest common
+ * divisor. A Blackman windowed sinc low-pass is designed once for the upsampled rate and
+ * split into upFactor phases, every output sample is the dot product of one phase with the
+ * last tapsPerPhase input frames, so the upsampled signal is never produced. Downmix happens
+ * before filtering, so mono output costs one filter per frame whatever the input channels.
+ *
+ * Tables and history are allocated up front, process() allocates nothing.
+ */
+public class PolyphaseResampler {
+
+    /** Zero crossings of the sinc on each side of its centre, sets the transition width */
+    public static final int DEFAULT_ZERO_CROSSINGS = 24;
+
+    static final int MAX_PHASES = 1024;
+
+    // passband edge as a share of the lower of the two Nyquist frequencies
+    private static final double ROLLOFF = 0.9;
+
+    private final int mInputRate;
+    private final int mOutputRate;
+    private final int mInputChannels;
+    private final int mOutputChannels;
+    private final int mUpFactor;
+    private final int mDownFactor;
+    private final int mTapsPerPhase;
+
+    // coefficients of phase p are at p * tapsPerPhase, in the order of the history
+    private final float[] mTable;
+    // every output channel has 2 * tapsPerPhase floats, each frame is written twice
+    // so the last tapsPerPhase frames are always contiguous
+    private final float[] mHistory;
+    private int mHistoryPosition;
+
+    private int mPhase;
+    // frames the next output frame still waits for
+    private int mFramesToSkip;
+
+    public PolyphaseResampler(int inputRate, int outputRate, int inputChannels, boolean downmix) {
+        this(inputRate, outputRate, inputChannels, downmix, DEFAULT_ZERO_CROSSINGS);
+    }
+
+    /**
+     *
+     * @param inputRate - sample rate of the input in Hz
+     * @param outputRate - sample rate of the output in Hz
+     * @param inputChannels - number of interleaved input channels
+     * @param downmix - if true the channels are averaged into one output channel
+     * @param zeroCrossings - half length of the filter in periods of the lower rate
+     * @throws IllegalArgumentException - if the rates need more than MAX_PHASES phases
+     */
+    public PolyphaseResampler(int inputRate, int outputRate, int inputChannels, boolean downmix,
+                              int zeroCrossings) {
+        if (inputRate <= 0 || outputRate <= 0 || inputChannels <= 0 || zeroCrossings <= 0)
+            throw new IllegalArgumentException("Rates, channels and zero crossings must be positive");
+        int divisor = gcd(inputRate, outputRate);
+        mUpFactor = outputRate / divisor;
+        mDownFactor = inputRate / divisor;
+        if (mUpFactor > MAX_PHASES)
+            throw new IllegalArgumentException("Can't convert " + inputRate + " Hz to " + outputRate
+                    + " Hz with at most " + MAX_PHASES + " phases");
+        mInputRate = inputRate;
+        mOutputRate = outputRate;
+        mInputChannels = inputChannels;
+        mOutputChannels = downmix ? 1 : inputChannels;
+
+        // the filter spans zeroCrossings periods of the lower rate on each side, in input frames
+        mTapsPerPhase = 2 * (int) Math.ceil(zeroCrossings * Math.max(1.0, (double) mDownFactor / mUpFactor));
+        mTable = design(mUpFactor, mDownFactor, mTapsPerPhase);
+        mHistory = new float[2 * mTapsPerPhase * mOutputChannels];
+    }
+
+    public int getInputRate() {
+        return mInputRate;
+    }
+
+    public int getOutputRate() {
+        return mOutputRate;
+    }
+
+    public int getOutputChannels() {
+        return mOutputChannels;
+    }
+
+    public int getTapsPerPhase() {
+        return mTapsPerPhase;
+    }
+
+    /**
+     * @return delay of the filter in input frames
+     */
+    public int getLatencyFrames() {
+        return mTapsPerPhase / 2;
+    }
+
+    /**
+     * @return room dst needs in process() for inputSamples samples of input
+     */
+    public int getMaxOutputSamples(int inputSamples) {
+        long inputFrames = inputSamples / mInputChannels;
+        return (int) ((inputFrames * mUpFactor / mDownFactor + 1) * mOutputChannels);
+    }
+
+    /**
+     * Consumes all whole frames of src and appends the output frames that became ready to dst.
+     *
+     * @return number of samples appended to dst
+     * @throws java.nio.BufferOverflowException - if dst has less room than getMaxOutputSamples()
+     */
+    public int process(ShortBuffer src, ShortBuffer dst) {
+        int start = dst.position();
+        int frames = src.remaining() / mInputChannels;
+        int taps = mTapsPerPhase;
+        for (int frame = 0; frame < frames; frame++) {
+            push(src);
+            if (mFramesToSkip > 0) {
+                mFramesToSkip--;
+                continue;
+            }
+            // every output frame due at this input frame, several when upsampling
+            while (true) {
+                int coefficients = mPhase * taps;
+                for (int c = 0; c < mOutputChannels; c++) {
+                    int window = c * 2 * taps + mHistoryPosition + 1;
+                    float sum = 0f;
+                    for (int j = 0; j < taps; j++)
+                        sum += mTable[coefficients + j] * mHistory[window + j];
+                    dst.put(clip(sum));
+                }
+                mPhase += mDownFactor;
+                if (mPhase >= mUpFactor) {
+                    mFramesToSkip = mPhase / mUpFactor - 1;
+                    mPhase %= mUpFactor;
+                    break;
+                }
+            }
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * Forgets all input, the output continues as if preceded by silence.
+     */
+    public void reset() {
+        Arrays.fill(mHistory, 0f);
+        mHistoryPosition = 0;
+        mPhase = 0;
+        mFramesToSkip = 0;
+    }
+
+    private void push(ShortBuffer src) {
+        int taps = mTapsPerPhase;
+        mHistoryPosition = mHistoryPosition + 1 == taps ? 0 : mHistoryPosition + 1;
+        if (mOutputChannels == 1 && mInputChannels > 1) {
+            float sum = 0f;
+            for (int c = 0; c < mInputChannels; c++)
+                sum += src.get();
+            sum /= mInputChannels;
+            mHistory[mHistoryPosition] = sum;
+            mHistory[mHistoryPosition + taps] = sum;
+            return;
+        }
+        for (int c = 0; c < mInputChannels; c++) {
+            float sample = src.get();
+            int channel = c * 2 * taps;
+            mHistory[channel + mHistoryPosition] = sample;
+            mHistory[channel + mHistoryPosition + taps] = sample;
+        }
+    }
+
+    private static short clip(float sample) {
+        int rounded = Math.round(sample);
+        if (rounded > Short.MAX_VALUE)
+            return Short.MAX_VALUE;
+        if (rounded < Short.MIN_VALUE)
+            return Short.MIN_VALUE;
+        return (short) rounded;
+    }
+
+    /**
+     * Windowed sinc of upFactor * taps coefficients split into upFactor phases, each phase
+     * normalized to unity gain at DC.
+     */
+    private static float[] design(int upFactor, int downFactor, int taps) {
+        int length = upFactor * taps;
+        double cutoff = ROLLOFF * 0.5 / Math.max(upFactor, downFactor);
+        double centre = (length - 1) / 2.0;
+        double[] filter = new double[length];
+        for (int k = 0; k < length; k++) {
+            double x = k - centre;
+            double sinc = x == 0.0 ? 2.0 * cutoff : Math.sin(2.0 * Math.PI * cutoff * x) / (Math.PI * x);
+            double window = 0.42 - 0.5 * Math.cos(2.0 * Math.PI * k / (length - 1))
+                    + 0.08 * Math.cos(4.0 * Math.PI * k / (length - 1));
+            filter[k] = sinc * window;
+        }
+        float[] table = new float[length];
+        for (int phase = 0; phase < upFactor; phase++) {
+            double sum = 0.0;
+            for (int j = 0; j < taps; j++)
+                sum += filter[phase + upFactor * j];
+            // tap j weighs the frame j frames before the newest, the history runs oldest first
+            for (int j = 0; j < taps; j++)
+                table[phase * taps + taps - 1 - j] = (float) (filter[phase + upFactor * j] / sum);
+        }
+        return table;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
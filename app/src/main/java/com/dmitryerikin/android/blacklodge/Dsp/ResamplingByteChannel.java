@@ -0,0 +1,92 @@
+package com.dmitryerikin.android.blacklodge.Dsp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Channel which resamples the 16-bit PCM written to it before passing it to the wrapped
+ * channel, both in native byte order. Writes may split frames anywhere, the incomplete
+ * frame waits for the next write. Closing it closes the wrapped channel.
+ *
+ * Writes are copied through buffers allocated up front, so they allocate nothing.
+ */
+public class ResamplingByteChannel implements WritableByteChannel {
+
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+    private final WritableByteChannel mChannel;
+    private final PolyphaseResampler mResampler;
+    private final ByteBuffer mInputBytes;
+    private final ShortBuffer mInput;
+    private final ByteBuffer mOutputBytes;
+    private final ShortBuffer mOutput;
+
+    public ResamplingByteChannel(WritableByteChannel channel, PolyphaseResampler resampler) {
+        this(channel, resampler, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     *
+     * @param channel - channel receiving the resampled PCM
+     * @param resampler - resampler used by this channel only
+     * @param chunkSize - bytes resampled at once
+     */
+    public ResamplingByteChannel(WritableByteChannel channel, PolyphaseResampler resampler, int chunkSize) {
+        mChannel = channel;
+        mResampler = resampler;
+        mInputBytes = ByteBuffer.allocateDirect(chunkSize).order(ByteOrder.nativeOrder());
+        mInput = mInputBytes.asShortBuffer();
+        mOutputBytes = ByteBuffer.allocateDirect(resampler.getMaxOutputSamples(chunkSize / 2) * 2)
+                .order(ByteOrder.nativeOrder());
+        mOutput = mOutputBytes.asShortBuffer();
+    }
+
+    public PolyphaseResampler getResampler() {
+        return mResampler;
+    }
+
+    /**
+     * Consumes all remaining bytes of src.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int length = src.remaining();
+        int srcLimit = src.limit();
+        while (src.hasRemaining()) {
+            src.limit(src.position() + Math.min(src.remaining(), mInputBytes.remaining()));
+            mInputBytes.put(src);
+            src.limit(srcLimit);
+            resample();
+        }
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mChannel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    /**
+     * Resamples the whole frames collected so far and keeps the rest for the next write.
+     */
+    private void resample() throws IOException {
+        mInput.limit(mInputBytes.position() / 2).position(0);
+        mOutput.clear();
+        int samples = mResampler.process(mInput, mOutput);
+        mInputBytes.flip().position(mInput.position() * 2);
+        mInputBytes.compact();
+        if (samples == 0)
+            return;
+        mOutputBytes.limit(samples * 2).position(0);
+        while (mOutputBytes.hasRemaining())
+            mChannel.write(mOutputBytes);
+    }
+}
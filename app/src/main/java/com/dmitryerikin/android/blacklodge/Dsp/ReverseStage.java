@@ -0,0 +1,21 @@
+package com.dmitryerikin.android.blacklodge.Dsp;
+
+import com.dmitryerikin.android.blacklodge.Waveform.PeakIndex;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Reverses the output. The pass reads the range backwards and reverses the frames of every
+ * block as it is read, so reversal adds no pass and no copy of its own.
+ */
+public class ReverseStage implements PcmStage {
+
+    @Override
+    public void prepare(PeakIndex statistics, PassPlan plan) {
+        plan.reverse();
+    }
+
+    @Override
+    public void process(ShortBuffer samples, long frame, boolean backwards) {
+    }
+}
@@ -0,0 +1,39 @@
+package com.dmitryerikin.android.blacklodge.Dsp;
+
+import com.dmitryerikin.android.blacklodge.Waveform.PeakIndex;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Drops the silence before the first and after the last sound of the recording. The
+ * bounds come from the peak index, so the silence is never read.
+ */
+public class SilenceTrimStage implements PcmStage {
+
+    private final int mThreshold;
+    private final long mPaddingFrames;
+
+    /**
+     *
+     * @param threshold - magnitude a sample must exceed to count as sound
+     * @param paddingFrames - frames of silence kept before and after the sound
+     */
+    public SilenceTrimStage(int threshold, long paddingFrames) {
+        mThreshold = threshold;
+        mPaddingFrames = paddingFrames;
+    }
+
+    @Override
+    public void prepare(PeakIndex statistics, PassPlan plan) {
+        long start = statistics.getSoundStartFrame(mThreshold);
+        if (start < 0L) {
+            plan.narrow(plan.getStartFrame(), plan.getStartFrame());
+            return;
+        }
+        plan.narrow(start - mPaddingFrames, statistics.getSoundEndFrame(mThreshold) + mPaddingFrames);
+    }
+
+    @Override
+    public void process(ShortBuffer samples, long frame, boolean backwards) {
+    }
+}
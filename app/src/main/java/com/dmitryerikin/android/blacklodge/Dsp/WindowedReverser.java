@@ -0,0 +1,121 @@
+package com.dmitryerikin.android.blacklodge.Dsp;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Streaming reverse effect for live monitoring: audio is cut into windows of
+ * windowFrames, every window is played backwards as soon as its last frame has arrived.
+ * Consecutive windows overlap by crossfadeFrames and are crossfaded linearly there,
+ * so window boundaries don't click. Output runs at the input rate and starts one window
+ * after the input, the added delay never exceeds windowFrames.
+ *
+ * All buffers are allocated up front, process() allocates nothing and takes no locks,
+ * so it can run on the capture thread. Samples are 16-bit, channels interleaved.
+ */
+public class WindowedReverser {
+
+    private final int mChannelCount;
+    private final int mWindowFrames;
+    private final int mCrossfadeFrames;
+    private final int mHopFrames;
+
+    // the last windowFrames frames of input, circular
+    private final short[] mHistory;
+    // reversed frames of the previous window which overlap the next one
+    private final short[] mTail;
+    private final float[] mFadeIn;
+
+    private long mFramesIn;
+    private int mFramesSinceHop;
+
+    /**
+     *
+     * @param channelCount - number of interleaved channels
+     * @param windowFrames - length of a reversed window in frames
+     * @param crossfadeFrames - overlap of neighbouring windows, at most half a window
+     */
+    public WindowedReverser(int channelCount, int windowFrames, int crossfadeFrames) {
+        if (channelCount <= 0 || windowFrames <= 0)
+            throw new IllegalArgumentException("channelCount and windowFrames must be positive");
+        if (crossfadeFrames < 0 || crossfadeFrames > windowFrames / 2)
+            throw new IllegalArgumentException("crossfadeFrames must be within half a window: " + crossfadeFrames);
+        mChannelCount = channelCount;
+        mWindowFrames = windowFrames;
+        mCrossfadeFrames = crossfadeFrames;
+        mHopFrames = windowFrames - crossfadeFrames;
+        mHistory = new short[windowFrames * channelCount];
+        mTail = new short[crossfadeFrames * channelCount];
+        mFadeIn = new float[crossfadeFrames];
+        for (int i = 0; i < crossfadeFrames; i++)
+            mFadeIn[i] = (i + 0.5f) / crossfadeFrames;
+    }
+
+    /**
+     * @return delay in frames between a window's first input frame and the start of its output
+     */
+    public int getLatencyFrames() {
+        return mWindowFrames;
+    }
+
+    /**
+     * @return room dst needs in process() for inputSamples samples of input
+     */
+    public int getMaxOutputSamples(int inputSamples) {
+        return inputSamples + mHopFrames * mChannelCount;
+    }
+
+    /**
+     * Consumes all whole frames of src and appends the output that became ready to dst.
+     *
+     * @return number of samples appended to dst
+     * @throws java.nio.BufferOverflowException - if dst has less room than getMaxOutputSamples()
+     */
+    public int process(ShortBuffer src, ShortBuffer dst) {
+        int start = dst.position();
+        int frames = src.remaining() / mChannelCount;
+        for (int frame = 0; frame < frames; frame++) {
+            int offset = (int) (mFramesIn % mWindowFrames) * mChannelCount;
+            src.get(mHistory, offset, mChannelCount);
+            mFramesIn++;
+            mFramesSinceHop++;
+            if (mFramesIn >= mWindowFrames && (mFramesIn == mWindowFrames || mFramesSinceHop == mHopFrames))
+                emitHop(dst);
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * Forgets all input, the next output starts with a fade-in again.
+     */
+    public void reset() {
+        mFramesIn = 0L;
+        mFramesSinceHop = 0;
+        Arrays.fill(mTail, (short) 0);
+    }
+
+    /**
+     * Writes the first hopFrames frames of the reversed window, crossfading its start with
+     * the tail of the previous window, and keeps the rest as the new tail.
+     */
+    private void emitHop(ShortBuffer dst) {
+        mFramesSinceHop = 0;
+        int last = (int) ((mFramesIn - 1) % mWindowFrames);
+        for (int i = 0; i < mWindowFrames; i++) {
+            int frame = last - i;
+            if (frame < 0)
+                frame += mWindowFrames;
+            int source = frame * mChannelCount;
+            if (i < mCrossfadeFrames) {
+                float fadeIn = mFadeIn[i];
+                int tail = i * mChannelCount;
+                for (int c = 0; c < mChannelCount; c++)
+                    dst.put((short) Math.round(mHistory[source + c] * fadeIn + mTail[tail + c] * (1f - fadeIn)));
+            } else if (i < mHopFrames) {
+                dst.put(mHistory, source, mChannelCount);
+            } else {
+                System.arraycopy(mHistory, source, mTail, (i - mHopFrames) * mChannelCount, mChannelCount);
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.dmitryerikin.android.blacklodge.Exceptions;
+
+import java.io.IOException;
+
+public class ReversalCancelledException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ReversalCancelledException() {
+        super();
+    }
+
+    public ReversalCancelledException(String message) {
+        super(message);
+    }
+
+    public ReversalCancelledException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public ReversalCancelledException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,93 @@
+package com.dmitryerikin.android.blacklodge;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.util.Log;
+
+import com.dmitryerikin.android.blacklodge.Dsp.WindowedReverser;
+import com.dmitryerikin.android.blacklodge.Exceptions.AudioRecordException;
+import com.dmitryerikin.android.blacklodge.Metrics.AudioMetrics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Plays captured audio back in reversed windows while the take is being recorded.
+ * Created by the capture job of AudioRecorder for one take and fed every chunk it reads,
+ * on the capture thread.
+ *
+ * Nothing is allocated per chunk. AudioTrack is written without blocking, so a full track
+ * never delays capture, output it has no room for is dropped and counted.
+ */
+class LiveReverseMonitor {
+
+    private static final String TAG = LiveReverseMonitor.class.getSimpleName();
+
+    private static final int CROSSFADE_DIVIDER = 8;
+    private static final int TRACK_BUFFER_WINDOWS = 2;
+
+    private final AudioMetrics mMetrics;
+    private final WindowedReverser mReverser;
+    private final ShortBuffer mInput;
+    private final ByteBuffer mOutputBytes;
+    private final ShortBuffer mOutput;
+    private final AudioTrack mAudioTrack;
+
+    /**
+     *
+     * @param config - format of the take, 16-bit PCM
+     * @param windowMillis - length of a reversed window in milliseconds
+     * @param captureBuffer - native order buffer the capture job reads into
+     * @throws AudioRecordException - if AudioTrack can't be initialized
+     */
+    LiveReverseMonitor(AudioConfig config, int windowMillis, ByteBuffer captureBuffer)
+            throws AudioRecordException {
+        int channelCount = config.getChannelCount();
+        int windowFrames = Math.max(config.getSampleRate() * windowMillis / 1000, 2);
+        mReverser = new WindowedReverser(channelCount, windowFrames, windowFrames / CROSSFADE_DIVIDER);
+        mInput = captureBuffer.asShortBuffer();
+        mOutputBytes = ByteBuffer.allocateDirect(mReverser.getMaxOutputSamples(mInput.capacity()) * 2)
+                .order(ByteOrder.nativeOrder());
+        mOutput = mOutputBytes.asShortBuffer();
+        mMetrics = AudioMetrics.getShared();
+
+        int channelConfig = channelCount == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+        int bufferSize = AudioTrack.getMinBufferSize(config.getSampleRate(), channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT);
+        bufferSize = Math.max(bufferSize, windowFrames * config.getFrameSize() * TRACK_BUFFER_WINDOWS);
+        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, config.getSampleRate(), channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT, bufferSize, AudioTrack.MODE_STREAM);
+        if (mAudioTrack.getState() == AudioTrack.STATE_UNINITIALIZED) {
+            mAudioTrack.release();
+            throw new AudioRecordException("AudioTrack for live reverse has not been initialized");
+        }
+        Log.d(TAG, "LiveReverseMonitor: window frames: " + windowFrames
+                + ", latency frames: " + mReverser.getLatencyFrames());
+    }
+
+    void start() {
+        mAudioTrack.play();
+    }
+
+    /**
+     * Reverses the first bytesRead bytes of the capture buffer, the buffer is not moved.
+     */
+    void write(int bytesRead) {
+        mInput.clear().limit(bytesRead / 2);
+        mOutput.clear();
+        int bytes = mReverser.process(mInput, mOutput) * 2;
+        if (bytes == 0)
+            return;
+        mOutputBytes.clear();
+        int written = mAudioTrack.write(mOutputBytes, bytes, AudioTrack.WRITE_NON_BLOCKING);
+        if (written >= 0 && written < bytes)
+            mMetrics.add(AudioMetrics.Counter.MONITOR_DROPPED_BYTES, bytes - written);
+    }
+
+    void release() {
+        mAudioTrack.stop();
+        mAudioTrack.release();
+    }
+}
@@ -9,7 +9,10 @@ import android.widget.EditText
 import android.os.Bundle
 import com.dmitryerikin.android.blacklodge.R
 import com.dmitryerikin.android.blacklodge.MainActivity
+import com.dmitryerikin.android.blacklodge.Buffers.BufferSizeStore
+import com.dmitryerikin.android.blacklodge.Cache.ReversalCache
 import com.dmitryerikin.android.blacklodge.Exceptions.AudioRecordException
+import com.dmitryerikin.android.blacklodge.Scheduling.SessionState
 import android.media.AudioRecord
 import android.view.View.OnLongClickListener
 import android.widget.Toast
@@ -86,8 +89,10 @@ class MainActivity : AppCompatActivity() {
     private fun initAudioTools() {
         mAudioRecorderConfig = AudioRecorder.getDefaultAudioConfig()
         mAudioPlayerConfig = AudioPlayer.getDefaultAudioConfig()
+        val bufferSizeStore = BufferSizeStore(File(filesDir, BUFFER_SIZES_FILENAME))
         try {
-            mAudioRecorder = AudioRecorder(mAudioRecorderConfig, mOriginalAudioFile)
+            mAudioRecorder = AudioRecorder(mAudioRecorderConfig, mOriginalAudioFile, bufferSizeStore)
+            mAudioRecorder!!.isJournaled = true
         } catch (are: AudioRecordException) {
             showAppClosingDialog("Initialization error, app will be closed")
         } catch (fnfe: FileNotFoundException) {
@@ -97,7 +102,8 @@ class MainActivity : AppCompatActivity() {
         try {
             mAudioPlayer = AudioPlayer(
                 mAudioPlayerConfig,
-                mAppDirectory!!.path + "/" + ORIGINAL_AUDIO_FILENAME
+                mAppDirectory!!.path + "/" + ORIGINAL_AUDIO_FILENAME,
+                bufferSizeStore
             )
         } catch (are: AudioRecordException) {
             showAppClosingDialog("Initialization error, app will be closed")
@@ -109,6 +115,14 @@ class MainActivity : AppCompatActivity() {
             mOriginalAudioFile, mReversedAudioFile,
             mAudioRecorderConfig
         )
+        try {
+            mAudioReverser!!.cache = ReversalCache(
+                File(cacheDir, REVERSAL_CACHE_DIRECTORY_NAME),
+                REVERSAL_CACHE_BUDGET_BYTES
+            )
+        } catch (ioe: IOException) {
+            Log.e(TAG, "initAudioTools: reversals won't be cached", ioe)
+        }
     }
 
     private fun initViews() {
@@ -119,6 +133,13 @@ class MainActivity : AppCompatActivity() {
         mRecordButton.setOnClickListener(View.OnClickListener { v: View? ->
             if (mAudioPlayer!!.state != AudioTrack.PLAYSTATE_PLAYING) {
                 if (mAudioRecorder!!.state == AudioRecord.RECORDSTATE_STOPPED) {
+                    // the take may not have started capturing yet, or still be saving
+                    val session = mAudioRecorder!!.sessionState
+                    if (session != SessionState.State.IDLE && session != SessionState.State.STOPPED) {
+                        if (session == SessionState.State.DRAINING)
+                            shortToast("Previous record is still being saved")
+                        return@OnClickListener
+                    }
                     mRecordButton.setImageResource(R.drawable.ic_button_stop)
                     mPlayButton.setEnabled(!mPlayButton.isEnabled())
                     mReverseButton.setEnabled(!mReverseButton.isEnabled())
@@ -136,7 +157,11 @@ class MainActivity : AppCompatActivity() {
         mPlayButton.setOnClickListener(View.OnClickListener { v: View? ->
             if (mAudioRecorder!!.state != AudioRecord.RECORDSTATE_RECORDING) {
                 if (mAudioPlayer!!.state == AudioTrack.PLAYSTATE_STOPPED) {
-                    if (mReversed) mAudioPlayer!!.setFile(mReversedAudioFile) else mAudioPlayer!!.setFile(
+                    val session = mAudioPlayer!!.sessionState
+                    if (session != SessionState.State.IDLE && session != SessionState.State.STOPPED) {
+                        return@OnClickListener
+                    }
+                    if (mReversed) mAudioPlayer!!.setFile(mAudioReverser!!.reversedOutput) else mAudioPlayer!!.setFile(
                         mOriginalAudioFile
                     )
                     shortToast("Playing has been started")
@@ -197,6 +222,7 @@ class MainActivity : AppCompatActivity() {
         super.onDestroy()
         mAudioRecorder!!.destroy()
         mAudioPlayer!!.destroy()
+        mAudioReverser!!.destroy()
     }
 
     companion object {
@@ -204,5 +230,8 @@ class MainActivity : AppCompatActivity() {
         private const val APP_DIRECTORY_NAME = "BlackLodge"
         private const val ORIGINAL_AUDIO_FILENAME = "original_audio"
         private const val REVERSED_AUDIO_FILENAME = "reversed_audio"
+        private const val REVERSAL_CACHE_DIRECTORY_NAME = "reversals"
+        private const val REVERSAL_CACHE_BUDGET_BYTES = 256L * 1024L * 1024L
+        private const val BUFFER_SIZES_FILENAME = "buffer_sizes.properties"
     }
 }
\ No newline at end of file
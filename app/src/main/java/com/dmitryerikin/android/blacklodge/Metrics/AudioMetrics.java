@@ -0,0 +1,186 @@
+package com.dmitryerikin.android.blacklodge.Metrics;
+
+/**
+ * Runtime metrics of the audio engine. AudioRecorder, AudioPlayer and AudioReverser feed
+ * the shared instance from their loops, updates are a few atomic adds on striped cells,
+ * they never allocate and never lock. snapshot() copies everything at once for display
+ * or logging, rates are computed between two snapshots.
+ */
+public class AudioMetrics {
+
+    public enum Counter {
+        /** bytes delivered by AudioRecord */
+        CAPTURED_BYTES,
+        /** bytes of a take written to disk */
+        WRITTEN_BYTES,
+        /** bytes handed to AudioTrack */
+        PLAYED_BYTES,
+        /** bytes of files reversed */
+        REVERSED_BYTES,
+        /** time spent reversing files */
+        REVERSE_NANOS,
+        /** captured chunks dropped because the writer fell behind */
+        OVERRUNS,
+        /** times AudioTrack ran out of data, counted from Android 7.0 on */
+        UNDERRUNS,
+        /** times playback waited for the file to be read */
+        PREFETCH_STALLS,
+        /** bytes of live reverse monitoring AudioTrack had no room for */
+        MONITOR_DROPPED_BYTES
+    }
+
+    public enum Distribution {
+        /** duration of AudioRecord.read() in nanoseconds */
+        CAPTURE_READ_NANOS(Histogram.exponentialBounds(1000L, 24)),
+        /** duration of a write of the take to disk in nanoseconds */
+        DISK_WRITE_NANOS(Histogram.exponentialBounds(1000L, 24)),
+        /** duration of AudioTrack.write() in nanoseconds */
+        TRACK_WRITE_NANOS(Histogram.exponentialBounds(1000L, 24)),
+        /** throughput of every finished reversal in kilobytes per second */
+        REVERSE_KILOBYTES_PER_SECOND(Histogram.exponentialBounds(64L, 20)),
+        /** fill level of the capture ring in percent, sampled after every read */
+        RING_FILL_PERCENT(Histogram.linearBounds(10L, 10)),
+        /** fill level of the playback prefetcher in percent, sampled before every write */
+        PREFETCH_FILL_PERCENT(Histogram.linearBounds(10L, 10));
+
+        private final long[] mUpperBounds;
+
+        Distribution(long[] upperBounds) {
+            mUpperBounds = upperBounds;
+        }
+    }
+
+    private static final Counter[] COUNTERS = Counter.values();
+    private static final Distribution[] DISTRIBUTIONS = Distribution.values();
+
+    private final StripedCounter[] mCounters;
+    private final Histogram[] mHistograms;
+    private volatile long mStartNanos;
+
+    public static AudioMetrics getShared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    public AudioMetrics() {
+        mCounters = new StripedCounter[COUNTERS.length];
+        for (int i = 0; i < mCounters.length; i++)
+            mCounters[i] = new StripedCounter();
+        mHistograms = new Histogram[DISTRIBUTIONS.length];
+        for (int i = 0; i < mHistograms.length; i++)
+            mHistograms[i] = new Histogram(DISTRIBUTIONS[i].mUpperBounds);
+        mStartNanos = System.nanoTime();
+    }
+
+    public void increment(Counter counter) {
+        mCounters[counter.ordinal()].add(1L);
+    }
+
+    public void add(Counter counter, long delta) {
+        mCounters[counter.ordinal()].add(delta);
+    }
+
+    public void record(Distribution distribution, long value) {
+        mHistograms[distribution.ordinal()].record(value);
+    }
+
+    /**
+     * Records the time elapsed since startNanos, taken with System.nanoTime().
+     */
+    public void recordSince(Distribution distribution, long startNanos) {
+        mHistograms[distribution.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[mCounters.length];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = mCounters[i].sum();
+        Histogram.Snapshot[] histograms = new Histogram.Snapshot[mHistograms.length];
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = mHistograms[i].snapshot();
+        return new Snapshot(mStartNanos, System.nanoTime(), counts, histograms);
+    }
+
+    /**
+     * Zeroes all metrics, updates racing with the reset may survive it.
+     */
+    public void reset() {
+        for (StripedCounter counter : mCounters)
+            counter.reset();
+        for (Histogram histogram : mHistograms)
+            histogram.reset();
+        mStartNanos = System.nanoTime();
+    }
+
+    private static class SharedHolder {
+        static final AudioMetrics INSTANCE = new AudioMetrics();
+    }
+
+    /**
+     * Copy of all metrics at one point in time.
+     */
+    public static class Snapshot {
+
+        private final long mStartNanos;
+        private final long mTakenNanos;
+        private final long[] mCounts;
+        private final Histogram.Snapshot[] mHistograms;
+
+        Snapshot(long startNanos, long takenNanos, long[] counts, Histogram.Snapshot[] histograms) {
+            mStartNanos = startNanos;
+            mTakenNanos = takenNanos;
+            mCounts = counts;
+            mHistograms = histograms;
+        }
+
+        /**
+         * @return System.nanoTime() when the snapshot was taken
+         */
+        public long getTakenNanos() {
+            return mTakenNanos;
+        }
+
+        public long getCount(Counter counter) {
+            return mCounts[counter.ordinal()];
+        }
+
+        public Histogram.Snapshot getHistogram(Distribution distribution) {
+            return mHistograms[distribution.ordinal()];
+        }
+
+        /**
+         * @return average growth per second of counter since the metrics were created or reset
+         */
+        public double getRate(Counter counter) {
+            return perSecond(getCount(counter), mTakenNanos - mStartNanos);
+        }
+
+        /**
+         * @param earlier - snapshot taken before this one
+         * @return average growth per second of counter between the two snapshots
+         */
+        public double getRate(Counter counter, Snapshot earlier) {
+            return perSecond(getCount(counter) - earlier.getCount(counter), mTakenNanos - earlier.mTakenNanos);
+        }
+
+        /**
+         * @return average reversal throughput in bytes per second over the reversals so far
+         */
+        public double getReverseBytesPerSecond() {
+            return perSecond(getCount(Counter.REVERSED_BYTES), getCount(Counter.REVERSE_NANOS));
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (Counter counter : COUNTERS)
+                builder.append(counter.name()).append(": ").append(getCount(counter)).append('\n');
+            for (Distribution distribution : DISTRIBUTIONS)
+                builder.append(distribution.name()).append(": ").append(getHistogram(distribution)).append('\n');
+            return builder.toString();
+        }
+
+        private static double perSecond(long delta, long nanos) {
+            return nanos <= 0L ? 0.0 : delta * 1e9 / nanos;
+        }
+    }
+}
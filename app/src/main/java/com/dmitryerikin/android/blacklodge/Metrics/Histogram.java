@@ -0,0 +1,162 @@
+package com.dmitryerikin.android.blacklodge.Metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram with fixed bucket bounds chosen on creation. A value falls into the first
+ * bucket whose upper bound is not less than it, values above the last bound are counted
+ * in an overflow bucket. Recording is a binary search over the bounds and a few atomic
+ * adds, it never allocates and never locks.
+ */
+public class Histogram {
+
+    private final long[] mUpperBounds;
+    private final AtomicLongArray mCounts;
+    private final StripedCounter mSum = new StripedCounter();
+    private final AtomicLong mMax = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @return bounds first, first * 2, first * 4 and so on
+     */
+    public static long[] exponentialBounds(long first, int bucketCount) {
+        long[] bounds = new long[bucketCount];
+        for (int i = 0; i < bucketCount; i++)
+            bounds[i] = first << i;
+        return bounds;
+    }
+
+    /**
+     * @return bounds step, step * 2, step * 3 and so on
+     */
+    public static long[] linearBounds(long step, int bucketCount) {
+        long[] bounds = new long[bucketCount];
+        for (int i = 0; i < bucketCount; i++)
+            bounds[i] = step * (i + 1);
+        return bounds;
+    }
+
+    /**
+     *
+     * @param upperBounds - inclusive upper bounds of the buckets in ascending order
+     */
+    public Histogram(long[] upperBounds) {
+        for (int i = 1; i < upperBounds.length; i++)
+            if (upperBounds[i] <= upperBounds[i - 1])
+                throw new IllegalArgumentException("Bounds must ascend: " + Arrays.toString(upperBounds));
+        mUpperBounds = upperBounds.clone();
+        mCounts = new AtomicLongArray(upperBounds.length + 1);
+    }
+
+    public void record(long value) {
+        mCounts.incrementAndGet(bucketOf(value));
+        mSum.add(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value))
+            max = mMax.get();
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[mCounts.length()];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = mCounts.get(i);
+        return new Snapshot(mUpperBounds, counts, mSum.sum(), mMax.get());
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++)
+            mCounts.set(i, 0L);
+        mSum.reset();
+        mMax.set(Long.MIN_VALUE);
+    }
+
+    private int bucketOf(long value) {
+        int low = 0;
+        int high = mUpperBounds.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mUpperBounds[middle] < value)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Copy of a histogram at one point in time.
+     */
+    public static class Snapshot {
+
+        private final long[] mUpperBounds;
+        private final long[] mCounts;
+        private final long mSum;
+        private final long mMax;
+        private final long mCount;
+
+        Snapshot(long[] upperBounds, long[] counts, long sum, long max) {
+            mUpperBounds = upperBounds;
+            mCounts = counts;
+            mSum = sum;
+            mMax = max;
+            long count = 0L;
+            for (long bucketCount : counts)
+                count += bucketCount;
+            mCount = count;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getSum() {
+            return mSum;
+        }
+
+        public double getMean() {
+            return mCount == 0L ? 0.0 : (double) mSum / mCount;
+        }
+
+        /**
+         * @return largest recorded value, 0 if nothing was recorded
+         */
+        public long getMax() {
+            return mCount == 0L ? 0L : mMax;
+        }
+
+        /**
+         * @return upper bound of the bucket holding the given percentile, or the maximum
+         *         if it falls into the overflow bucket
+         */
+        public long getPercentile(double percentile) {
+            if (mCount == 0L)
+                return 0L;
+            long rank = (long) Math.ceil(percentile / 100.0 * mCount);
+            long seen = 0L;
+            for (int i = 0; i < mUpperBounds.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank && seen > 0L)
+                    return Math.min(mUpperBounds[i], getMax());
+            }
+            return getMax();
+        }
+
+        /**
+         * @param bucket - index of the bucket, getUpperBounds().length for the overflow bucket
+         */
+        public long getBucketCount(int bucket) {
+            return mCounts[bucket];
+        }
+
+        public long[] getUpperBounds() {
+            return mUpperBounds.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "count " + mCount + ", mean " + Math.round(getMean()) + ", p50 " + getPercentile(50)
+                    + ", p99 " + getPercentile(99) + ", max " + getMax();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.dmitryerikin.android.blacklodge.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Channel which times every write to the wrapped channel and counts the bytes written.
+ * Closing it closes the wrapped channel.
+ */
+public class MeteredByteChannel implements WritableByteChannel {
+
+    private final WritableByteChannel mChannel;
+    private final AudioMetrics mMetrics;
+    private final AudioMetrics.Distribution mLatency;
+    private final AudioMetrics.Counter mBytes;
+
+    /**
+     *
+     * @param channel - channel to write to
+     * @param metrics - metrics to feed
+     * @param latency - distribution receiving the duration of every write in nanoseconds
+     * @param bytes - counter receiving the bytes written
+     */
+    public MeteredByteChannel(WritableByteChannel channel, AudioMetrics metrics,
+                              AudioMetrics.Distribution latency, AudioMetrics.Counter bytes) {
+        mChannel = channel;
+        mMetrics = metrics;
+        mLatency = latency;
+        mBytes = bytes;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        long start = System.nanoTime();
+        int written = mChannel.write(src);
+        mMetrics.recordSince(mLatency, start);
+        mMetrics.add(mBytes, written);
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mChannel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+}
@@ -0,0 +1,57 @@
+package com.dmitryerikin.android.blacklodge.Metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter which spreads concurrent updates over padded cells picked by thread id, so threads
+ * adding at the same time rarely hit the same cache line. Adding never allocates and never
+ * locks, reading sums all cells and is not atomic with respect to concurrent adds.
+ * LongAdder does the same but needs API 24.
+ */
+public class StripedCounter {
+
+    // 16 longs keep every cell on a cache line of its own
+    private static final int CELL_STRIDE = 16;
+
+    private final AtomicLongArray mCells;
+    private final int mMask;
+
+    public StripedCounter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     *
+     * @param parallelism - expected number of concurrently adding threads
+     */
+    public StripedCounter(int parallelism) {
+        int stripes = Integer.highestOneBit(Math.max(1, parallelism - 1) << 1);
+        mCells = new AtomicLongArray(stripes * CELL_STRIDE);
+        mMask = stripes - 1;
+    }
+
+    public void increment() {
+        add(1L);
+    }
+
+    public void add(long delta) {
+        mCells.getAndAdd(cellOf(Thread.currentThread().getId()), delta);
+    }
+
+    public long sum() {
+        long sum = 0L;
+        for (int i = 0; i < mCells.length(); i += CELL_STRIDE)
+            sum += mCells.get(i);
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCells.length(); i += CELL_STRIDE)
+            mCells.set(i, 0L);
+    }
+
+    private int cellOf(long threadId) {
+        int hash = (int) ((threadId * 0x9e3779b97f4a7c15L) >>> 32);
+        return (hash & mMask) * CELL_STRIDE;
+    }
+}
@@ -0,0 +1,21 @@
+package com.dmitryerikin.android.blacklodge.Reversal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reverses the order of whole frames inside a region of a buffer. Bytes inside a frame keep
+ * their order, so channels and sample endianness are preserved. Implementations are
+ * stateless and can be shared between threads.
+ */
+public interface FrameReversalKernel {
+
+    int getFrameSize();
+
+    /**
+     *
+     * @param buffer - buffer to reverse, its position and limit are not used or changed
+     * @param offset - absolute index of the first byte of the region
+     * @param length - region length in bytes, must be a multiple of the frame size
+     */
+    void reverse(ByteBuffer buffer, int offset, int length);
+}
@@ -0,0 +1,186 @@
+package com.dmitryerikin.android.blacklodge.Reversal;
+
+import com.dmitryerikin.android.blacklodge.AudioConfig;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Frame reversal kernels for every encoding and channel count. Frames of 1, 2, 4 and 8 bytes
+ * are swapped as a single primitive through a byte, short, int or long view, any other frame
+ * width falls back to a byte-by-byte swap.
+ *
+ * 16-bit mono, 8-bit stereo            - short kernel
+ * 16-bit stereo, float and 32-bit mono - int kernel
+ * float and 32-bit stereo, 16-bit quad - long kernel
+ */
+public class FrameReversalKernels {
+
+    private static final FrameReversalKernel BYTE_KERNEL = new ByteKernel();
+    private static final FrameReversalKernel SHORT_KERNEL = new ShortKernel();
+    private static final FrameReversalKernel INT_KERNEL = new IntKernel();
+    private static final FrameReversalKernel LONG_KERNEL = new LongKernel();
+
+    private FrameReversalKernels() {
+    }
+
+    public static FrameReversalKernel forConfig(AudioConfig config) {
+        return forFrameSize(config.getFrameSize());
+    }
+
+    public static FrameReversalKernel forFrameSize(int frameSize) {
+        switch (frameSize) {
+            case 1:
+                return BYTE_KERNEL;
+            case 2:
+                return SHORT_KERNEL;
+            case 4:
+                return INT_KERNEL;
+            case 8:
+                return LONG_KERNEL;
+            default:
+                return new GenericKernel(frameSize);
+        }
+    }
+
+    private static ByteBuffer region(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer region = buffer.duplicate();
+        region.limit(offset + length).position(offset);
+        return region.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Heap buffers are swapped in their backing array, which keeps the view loops of the
+     * kernels specialised for direct buffers.
+     */
+    private static void reverseArray(byte[] array, int offset, int length, int frameSize) {
+        byte temp;
+        for (int head = offset, tail = offset + length - frameSize; head < tail;
+             head += frameSize, tail -= frameSize) {
+            for (int i = 0; i < frameSize; i++) {
+                temp = array[head + i];
+                array[head + i] = array[tail + i];
+                array[tail + i] = temp;
+            }
+        }
+    }
+
+    private static class ByteKernel implements FrameReversalKernel {
+
+        @Override
+        public int getFrameSize() {
+            return 1;
+        }
+
+        @Override
+        public void reverse(ByteBuffer buffer, int offset, int length) {
+            byte temp;
+            for (int head = offset, tail = offset + length - 1; head < tail; head++, tail--) {
+                temp = buffer.get(head);
+                buffer.put(head, buffer.get(tail));
+                buffer.put(tail, temp);
+            }
+        }
+    }
+
+    private static class ShortKernel implements FrameReversalKernel {
+
+        @Override
+        public int getFrameSize() {
+            return 2;
+        }
+
+        @Override
+        public void reverse(ByteBuffer buffer, int offset, int length) {
+            if (buffer.hasArray()) {
+                reverseArray(buffer.array(), buffer.arrayOffset() + offset, length, 2);
+                return;
+            }
+            ShortBuffer frames = region(buffer, offset, length).asShortBuffer();
+            short temp;
+            for (int head = 0, tail = frames.limit() - 1; head < tail; head++, tail--) {
+                temp = frames.get(head);
+                frames.put(head, frames.get(tail));
+                frames.put(tail, temp);
+            }
+        }
+    }
+
+    private static class IntKernel implements FrameReversalKernel {
+
+        @Override
+        public int getFrameSize() {
+            return 4;
+        }
+
+        @Override
+        public void reverse(ByteBuffer buffer, int offset, int length) {
+            if (buffer.hasArray()) {
+                reverseArray(buffer.array(), buffer.arrayOffset() + offset, length, 4);
+                return;
+            }
+            IntBuffer frames = region(buffer, offset, length).asIntBuffer();
+            int temp;
+            for (int head = 0, tail = frames.limit() - 1; head < tail; head++, tail--) {
+                temp = frames.get(head);
+                frames.put(head, frames.get(tail));
+                frames.put(tail, temp);
+            }
+        }
+    }
+
+    private static class LongKernel implements FrameReversalKernel {
+
+        @Override
+        public int getFrameSize() {
+            return 8;
+        }
+
+        @Override
+        public void reverse(ByteBuffer buffer, int offset, int length) {
+            if (buffer.hasArray()) {
+                reverseArray(buffer.array(), buffer.arrayOffset() + offset, length, 8);
+                return;
+            }
+            LongBuffer frames = region(buffer, offset, length).asLongBuffer();
+            long temp;
+            for (int head = 0, tail = frames.limit() - 1; head < tail; head++, tail--) {
+                temp = frames.get(head);
+                frames.put(head, frames.get(tail));
+                frames.put(tail, temp);
+            }
+        }
+    }
+
+    private static class GenericKernel implements FrameReversalKernel {
+
+        private final int mFrameSize;
+
+        GenericKernel(int frameSize) {
+            if (frameSize <= 0)
+                throw new IllegalArgumentException("frameSize must be positive: " + frameSize);
+            mFrameSize = frameSize;
+        }
+
+        @Override
+        public int getFrameSize() {
+            return mFrameSize;
+        }
+
+        @Override
+        public void reverse(ByteBuffer buffer, int offset, int length) {
+            byte temp;
+            for (int head = offset, tail = offset + length - mFrameSize; head < tail;
+                 head += mFrameSize, tail -= mFrameSize) {
+                for (int i = 0; i < mFrameSize; i++) {
+                    temp = buffer.get(head + i);
+                    buffer.put(head + i, buffer.get(tail + i));
+                    buffer.put(tail + i, temp);
+                }
+            }
+        }
+    }
+}
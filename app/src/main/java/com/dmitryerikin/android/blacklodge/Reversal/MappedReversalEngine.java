@@ -0,0 +1,110 @@
+package com.dmitryerikin.android.blacklodge.Reversal;
+
+import com.dmitryerikin.android.blacklodge.Exceptions.ReversalCancelledException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reverses a raw PCM file frame by frame through memory-mapped windows.
+ * Each window of the original file is copied into the mirrored window of the reversed file
+ * and reversed there in place, so no buffers are allocated per chunk. Positions are long
+ * and a window never exceeds Integer.MAX_VALUE bytes, so files larger than 2 GB are handled
+ * as a sequence of windows.
+ */
+public class MappedReversalEngine {
+
+    public static final long DEFAULT_WINDOW_SIZE = 16L * 1024L * 1024L;
+
+    private final FrameReversalKernel mKernel;
+    private final int mFrameSize;
+    private final long mWindowSize;
+
+    public MappedReversalEngine(int frameSize) {
+        this(frameSize, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedReversalEngine(int frameSize, long windowSize) {
+        this(FrameReversalKernels.forFrameSize(frameSize), windowSize);
+    }
+
+    /**
+     *
+     * @param kernel - kernel reversing frames of the file format
+     * @param windowSize - maximal size of a mapped window in bytes, rounded down to whole frames
+     */
+    public MappedReversalEngine(FrameReversalKernel kernel, long windowSize) {
+        int frameSize = kernel.getFrameSize();
+        long maxWindowSize = Integer.MAX_VALUE - Integer.MAX_VALUE % frameSize;
+        windowSize = Math.min(windowSize, maxWindowSize);
+        windowSize -= windowSize % frameSize;
+        mKernel = kernel;
+        mFrameSize = frameSize;
+        mWindowSize = Math.max(windowSize, frameSize);
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    public long getWindowSize() {
+        return mWindowSize;
+    }
+
+    /**
+     * Writes frames of originalFile into reversedFile in reverse order. A trailing incomplete
+     * frame of the original file is dropped.
+     *
+     * @return number of bytes written to reversedFile
+     * @throws IOException - if one of the files can't be opened, mapped or resized
+     */
+    public long reverse(File originalFile, File reversedFile) throws IOException {
+        return reverse(originalFile, reversedFile, new ReversalProgress());
+    }
+
+    /**
+     * Same as reverse(File, File), reports every window to progress and checks for
+     * cancellation before mapping the next one.
+     *
+     * @throws ReversalCancelledException - if progress was cancelled, reversedFile is deleted
+     */
+    public long reverse(File originalFile, File reversedFile, ReversalProgress progress) throws IOException {
+        try {
+            return reverseWindows(originalFile, reversedFile, progress);
+        } catch (ReversalCancelledException rce) {
+            reversedFile.delete();
+            throw rce;
+        }
+    }
+
+    private long reverseWindows(File originalFile, File reversedFile, ReversalProgress progress)
+            throws IOException {
+        try (RandomAccessFile original = new RandomAccessFile(originalFile, "r");
+             RandomAccessFile reversed = new RandomAccessFile(reversedFile, "rw")) {
+            FileChannel source = original.getChannel();
+            FileChannel target = reversed.getChannel();
+            long length = source.size() - source.size() % mFrameSize;
+            reversed.setLength(length);
+            progress.start(length);
+
+            long written = 0L;
+            while (written < length) {
+                progress.checkCancelled();
+                int windowLength = (int) Math.min(mWindowSize, length - written);
+                MappedByteBuffer sourceWindow = source.map(FileChannel.MapMode.READ_ONLY,
+                        length - written - windowLength, windowLength);
+                MappedByteBuffer targetWindow = target.map(FileChannel.MapMode.READ_WRITE,
+                        written, windowLength);
+                targetWindow.put(sourceWindow);
+                mKernel.reverse(targetWindow, 0, windowLength);
+                written += windowLength;
+                progress.advance(windowLength);
+            }
+            progress.finish();
+            return length;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.dmitryerikin.android.blacklodge.Reversal;
+
+import com.dmitryerikin.android.blacklodge.Buffers.DirectBufferPool;
+import com.dmitryerikin.android.blacklodge.Exceptions.ReversalCancelledException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reverses a raw PCM file by splitting it into frame-aligned segments which are reversed
+ * on a ForkJoinPool. Every segment is read with a positional read, reversed in place and
+ * written with a positional write at its mirrored offset, so the result is byte-identical
+ * to MappedReversalEngine. Files smaller than the sequential threshold are handed to
+ * MappedReversalEngine directly.
+ *
+ * An engine with a parallelism above 1 owns a ForkJoinPool, close() shuts it down. A reversal
+ * running at the close still finishes, later ones are done sequentially.
+ */
+public class ParallelReversalEngine implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    public static final long DEFAULT_SEQUENTIAL_THRESHOLD = 16L * 1024L * 1024L;
+
+    private final FrameReversalKernel mKernel;
+    private final int mFrameSize;
+    private final int mParallelism;
+    private final int mSegmentSize;
+    private final long mSequentialThreshold;
+
+    private final MappedReversalEngine mSequentialEngine;
+    private final ForkJoinPool mPool;
+    private final DirectBufferPool mBufferPool;
+
+    public ParallelReversalEngine(int frameSize, int parallelism) {
+        this(frameSize, parallelism, DEFAULT_SEGMENT_SIZE, DEFAULT_SEQUENTIAL_THRESHOLD);
+    }
+
+    public ParallelReversalEngine(FrameReversalKernel kernel, int parallelism) {
+        this(kernel, parallelism, DEFAULT_SEGMENT_SIZE, DEFAULT_SEQUENTIAL_THRESHOLD);
+    }
+
+    public ParallelReversalEngine(int frameSize, int parallelism, int segmentSize, long sequentialThreshold) {
+        this(FrameReversalKernels.forFrameSize(frameSize), parallelism, segmentSize, sequentialThreshold);
+    }
+
+    /**
+     *
+     * @param kernel - kernel reversing frames of the file format
+     * @param parallelism - number of worker threads, 1 always reverses sequentially
+     * @param segmentSize - size of one segment in bytes, rounded down to whole frames
+     * @param sequentialThreshold - files shorter than this are reversed sequentially
+     */
+    public ParallelReversalEngine(FrameReversalKernel kernel, int parallelism, int segmentSize,
+                                  long sequentialThreshold) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        int frameSize = kernel.getFrameSize();
+        mKernel = kernel;
+        mFrameSize = frameSize;
+        mParallelism = parallelism;
+        mSegmentSize = Math.max(segmentSize - segmentSize % frameSize, frameSize);
+        mSequentialThreshold = sequentialThreshold;
+        mSequentialEngine = new MappedReversalEngine(kernel, MappedReversalEngine.DEFAULT_WINDOW_SIZE);
+        mPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        mBufferPool = DirectBufferPool.getShared();
+    }
+
+    public int getParallelism() {
+        return mParallelism;
+    }
+
+    public int getSegmentSize() {
+        return mSegmentSize;
+    }
+
+    /**
+     * Writes frames of originalFile into reversedFile in reverse order. A trailing incomplete
+     * frame of the original file is dropped.
+     *
+     * @return number of bytes written to reversedFile
+     * @throws IOException - if one of the files can't be read, written or resized
+     */
+    public long reverse(File originalFile, File reversedFile) throws IOException {
+        return reverse(originalFile, reversedFile, new ReversalProgress());
+    }
+
+    /**
+     * Same as reverse(File, File), reports every segment to progress and checks for
+     * cancellation before starting the next one.
+     *
+     * @throws ReversalCancelledException - if progress was cancelled, reversedFile is deleted
+     */
+    public long reverse(File originalFile, File reversedFile, ReversalProgress progress) throws IOException {
+        long length = originalFile.length() - originalFile.length() % mFrameSize;
+        if (!shouldRunInParallel(length))
+            return mSequentialEngine.reverse(originalFile, reversedFile, progress);
+        try {
+            return reverseSegments(originalFile, reversedFile, progress);
+        } catch (RejectedExecutionException ree) {
+            // closed since the check, the sequential engine overwrites whatever was written
+            return mSequentialEngine.reverse(originalFile, reversedFile, progress);
+        } catch (ReversalCancelledException rce) {
+            reversedFile.delete();
+            throw rce;
+        }
+    }
+
+    /**
+     * Shuts the pool down, lets segments already submitted finish.
+     */
+    @Override
+    public void close() {
+        if (mPool != null)
+            mPool.shutdown();
+    }
+
+    private long reverseSegments(File originalFile, File reversedFile, ReversalProgress progress)
+            throws IOException {
+        try (RandomAccessFile original = new RandomAccessFile(originalFile, "r");
+             RandomAccessFile reversed = new RandomAccessFile(reversedFile, "rw")) {
+            FileChannel source = original.getChannel();
+            long length = source.size() - source.size() % mFrameSize;
+            reversed.setLength(length);
+            progress.start(length);
+
+            AtomicReference<IOException> failure = new AtomicReference<>();
+            long segmentCount = (length + mSegmentSize - 1) / mSegmentSize;
+            mPool.invoke(new SegmentTask(source, reversed.getChannel(), length, 0L, segmentCount,
+                    progress, failure));
+            if (failure.get() != null)
+                throw failure.get();
+            progress.finish();
+            return length;
+        }
+    }
+
+    boolean shouldRunInParallel(long length) {
+        return mPool != null && !mPool.isShutdown() && length >= mSequentialThreshold && length > mSegmentSize;
+    }
+
+    private int reverseSegment(FileChannel source, FileChannel target, long length, long segment)
+            throws IOException {
+        long start = segment * mSegmentSize;
+        int segmentLength = (int) Math.min(mSegmentSize, length - start);
+        ByteBuffer buffer = mBufferPool.acquire(segmentLength);
+        try {
+            while (buffer.hasRemaining()) {
+                if (source.read(buffer, start + buffer.position()) == -1)
+                    throw new IOException("Unexpected end of file at " + (start + buffer.position()));
+            }
+            mKernel.reverse(buffer, 0, segmentLength);
+
+            long mirroredStart = length - start - segmentLength;
+            buffer.flip();
+            while (buffer.hasRemaining())
+                target.write(buffer, mirroredStart + buffer.position());
+            return segmentLength;
+        } finally {
+            mBufferPool.release(buffer);
+        }
+    }
+
+    private class SegmentTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel mSource;
+        private final FileChannel mTarget;
+        private final long mLength;
+        private final long mFirstSegment;
+        private final long mLastSegment;
+        private final ReversalProgress mProgress;
+        private final AtomicReference<IOException> mFailure;
+
+        SegmentTask(FileChannel source, FileChannel target, long length, long firstSegment,
+                    long lastSegment, ReversalProgress progress, AtomicReference<IOException> failure) {
+            mSource = source;
+            mTarget = target;
+            mLength = length;
+            mFirstSegment = firstSegment;
+            mLastSegment = lastSegment;
+            mProgress = progress;
+            mFailure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            if (mLastSegment - mFirstSegment > 1) {
+                long middle = (mFirstSegment + mLastSegment) >>> 1;
+                invokeAll(new SegmentTask(mSource, mTarget, mLength, mFirstSegment, middle, mProgress, mFailure),
+                        new SegmentTask(mSource, mTarget, mLength, middle, mLastSegment, mProgress, mFailure));
+                return;
+            }
+            if (mFailure.get() != null)
+                return;
+            try {
+                mProgress.checkCancelled();
+                mProgress.advance(reverseSegment(mSource, mTarget, mLength, mFirstSegment));
+            } catch (IOException ioe) {
+                mFailure.compareAndSet(null, ioe);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.dmitryerikin.android.blacklodge.Reversal;
+
+import com.dmitryerikin.android.blacklodge.Exceptions.ReversalCancelledException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress and cancellation of one reversal. Engines report every reversed block with
+ * advance() and call checkCancelled() before starting the next one, so a cancelled
+ * reversal stops within one block.
+ *
+ * The listener is called at most once per report interval no matter how small the blocks
+ * are, plus once more when the reversal is finished. It may be called from any worker
+ * thread of the engine, but never from two threads at once.
+ */
+public class ReversalProgress {
+
+    public static final long DEFAULT_REPORT_INTERVAL_MILLIS = 100L;
+
+    private final Listener mListener;
+    private final long mReportIntervalNanos;
+
+    private final AtomicLong mBytesProcessed = new AtomicLong();
+    private final AtomicLong mLastReportNanos = new AtomicLong();
+    private volatile long mTotalBytes;
+    private volatile long mStartNanos;
+    private volatile boolean mCancelled;
+
+    /**
+     * Progress which is not reported, used for cancellation only.
+     */
+    public ReversalProgress() {
+        this(null, DEFAULT_REPORT_INTERVAL_MILLIS);
+    }
+
+    /**
+     *
+     * @param listener - listener of progress, may be null
+     * @param reportIntervalMillis - minimal time between two reports
+     */
+    public ReversalProgress(Listener listener, long reportIntervalMillis) {
+        mListener = listener;
+        mReportIntervalNanos = TimeUnit.MILLISECONDS.toNanos(reportIntervalMillis);
+    }
+
+    /**
+     * Asks the running engine to stop. The engine deletes the partial output and
+     * throws ReversalCancelledException.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    public long getBytesProcessed() {
+        return mBytesProcessed.get();
+    }
+
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * @throws ReversalCancelledException - if cancel() has been called
+     */
+    public void checkCancelled() throws ReversalCancelledException {
+        if (mCancelled)
+            throw new ReversalCancelledException("Reversal cancelled after "
+                    + mBytesProcessed.get() + " of " + mTotalBytes + " bytes");
+    }
+
+    /**
+     * Called by the engine before the first block.
+     */
+    public void start(long totalBytes) {
+        mTotalBytes = totalBytes;
+        mBytesProcessed.set(0L);
+        mStartNanos = System.nanoTime();
+        mLastReportNanos.set(mStartNanos);
+    }
+
+    /**
+     * Called by the engine after every reversed block, safe to call from several threads.
+     */
+    public void advance(long bytes) {
+        long bytesProcessed = mBytesProcessed.addAndGet(bytes);
+        if (mListener == null)
+            return;
+        long now = System.nanoTime();
+        long lastReport = mLastReportNanos.get();
+        if (now - lastReport >= mReportIntervalNanos && mLastReportNanos.compareAndSet(lastReport, now))
+            report(bytesProcessed, now);
+    }
+
+    /**
+     * Called by the engine once all blocks are reversed, reports the final state.
+     */
+    public void finish() {
+        if (mListener != null)
+            report(mBytesProcessed.get(), System.nanoTime());
+    }
+
+    private synchronized void report(long bytesProcessed, long now) {
+        long elapsedNanos = Math.max(now - mStartNanos, 1L);
+        long bytesPerSecond = (long) (bytesProcessed * 1e9 / elapsedNanos);
+        mListener.onProgress(bytesProcessed, mTotalBytes, bytesPerSecond);
+    }
+
+    public interface Listener {
+        void onProgress(long bytesProcessed, long totalBytes, long bytesPerSecond);
+    }
+}
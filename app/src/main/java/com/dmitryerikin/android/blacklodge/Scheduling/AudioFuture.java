@@ -0,0 +1,49 @@
+package com.dmitryerikin.android.blacklodge.Scheduling;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Handle of a job run by AudioScheduler. Besides waiting and cancelling like any Future,
+ * it calls listeners once the job is done, whether it completed, failed or was cancelled.
+ */
+public class AudioFuture<T> extends FutureTask<T> {
+
+    private final ArrayList<Listener<T>> mListeners = new ArrayList<>();
+    private boolean mListenersCalled;
+
+    public AudioFuture(Callable<T> callable) {
+        super(callable);
+    }
+
+    /**
+     * Listeners added after the job is done are called right away on the calling thread,
+     * otherwise they are called on the thread which finished the job.
+     */
+    public void addListener(Listener<T> listener) {
+        synchronized (mListeners) {
+            if (!mListenersCalled) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.onDone(this);
+    }
+
+    @Override
+    protected void done() {
+        ArrayList<Listener<T>> listeners;
+        synchronized (mListeners) {
+            mListenersCalled = true;
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+        }
+        for (Listener<T> listener : listeners)
+            listener.onDone(this);
+    }
+
+    public interface Listener<T> {
+        void onDone(AudioFuture<T> future);
+    }
+}
@@ -0,0 +1,139 @@
+package com.dmitryerikin.android.blacklodge.Scheduling;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs all audio jobs on two lanes of reusable threads.
+ *
+ * The audio lane is for capture, disk writes of a take and playback. These jobs run for
+ * as long as the recording or playback lasts and wait on each other, so every job gets a
+ * thread right away and is never queued. Its threads run at the highest Java priority.
+ *
+ * The background lane is for reversal and other processing. It has a fixed number of low
+ * priority threads and a bounded queue, so background work can neither take threads from
+ * the audio lane nor pile up without limit. A job submitted to a full lane is rejected.
+ */
+public class AudioScheduler {
+
+    public static final int MAX_AUDIO_THREADS = 16;
+    public static final int DEFAULT_BACKGROUND_QUEUE_CAPACITY = 16;
+
+    private static final long KEEP_ALIVE_SECONDS = 30L;
+
+    private final ThreadPoolExecutor mAudioExecutor;
+    private final ThreadPoolExecutor mBackgroundExecutor;
+
+    /**
+     * @return scheduler shared by AudioRecorder, AudioPlayer and AudioReverser
+     */
+    public static AudioScheduler getShared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    /**
+     *
+     * @param backgroundThreads - number of threads of the background lane
+     * @param backgroundQueueCapacity - number of background jobs which may wait for a thread
+     */
+    public AudioScheduler(int backgroundThreads, int backgroundQueueCapacity) {
+        mAudioExecutor = new ThreadPoolExecutor(0, MAX_AUDIO_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new LaneThreadFactory("audio", Thread.MAX_PRIORITY));
+        mBackgroundExecutor = new ThreadPoolExecutor(backgroundThreads, backgroundThreads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(backgroundQueueCapacity),
+                new LaneThreadFactory("background", Thread.MIN_PRIORITY));
+        mBackgroundExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @throws RejectedExecutionException - if all audio threads are busy
+     */
+    public <T> AudioFuture<T> submitAudio(String name, Callable<T> job) {
+        return submit(mAudioExecutor, name, job);
+    }
+
+    /**
+     * @throws RejectedExecutionException - if the background queue is full
+     */
+    public <T> AudioFuture<T> submitBackground(String name, Callable<T> job) {
+        return submit(mBackgroundExecutor, name, job);
+    }
+
+    /**
+     * @return executor running plain tasks on the audio lane, for helpers such as PcmPrefetcher
+     */
+    public Executor getAudioExecutor() {
+        return mAudioExecutor;
+    }
+
+    public int getActiveAudioCount() {
+        return mAudioExecutor.getActiveCount();
+    }
+
+    public int getActiveBackgroundCount() {
+        return mBackgroundExecutor.getActiveCount();
+    }
+
+    public int getQueuedBackgroundCount() {
+        return mBackgroundExecutor.getQueue().size();
+    }
+
+    /**
+     * Lets running jobs finish, rejects new ones.
+     */
+    public void shutdown() {
+        mAudioExecutor.shutdown();
+        mBackgroundExecutor.shutdown();
+    }
+
+    private static <T> AudioFuture<T> submit(Executor executor, final String name, final Callable<T> job) {
+        AudioFuture<T> future = new AudioFuture<>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                Thread thread = Thread.currentThread();
+                String laneName = thread.getName();
+                thread.setName(laneName + "-" + name);
+                try {
+                    return job.call();
+                } finally {
+                    thread.setName(laneName);
+                }
+            }
+        });
+        executor.execute(future);
+        return future;
+    }
+
+    // loaded on the first getShared(), so the lazy init needs no lock
+    private static class SharedHolder {
+        static final AudioScheduler INSTANCE = new AudioScheduler(
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2), DEFAULT_BACKGROUND_QUEUE_CAPACITY);
+    }
+
+    private static class LaneThreadFactory implements ThreadFactory {
+
+        private final String mLane;
+        private final int mPriority;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        LaneThreadFactory(String lane, int priority) {
+            mLane = lane;
+            mPriority = priority;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, mLane + "-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(mPriority);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.dmitryerikin.android.blacklodge.Scheduling;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lifecycle of the sessions of one engine instance, such as the takes of an AudioRecorder.
+ * Every transition is a compare-and-set, so start and stop may race from any threads
+ * without locks and an instance never runs two sessions at once:
+ *
+ * IDLE or STOPPED -> STARTING when a session is submitted,
+ * STARTING -> RUNNING when its job begins,
+ * STARTING or RUNNING -> DRAINING when it is asked to stop or its input is exhausted,
+ * any state -> STOPPED when its last job is done.
+ *
+ * The next session can start only once the previous one is STOPPED, so everything
+ * the previous session wrote is visible to the next one.
+ */
+public class SessionState {
+
+    public enum State {
+        IDLE,
+        STARTING,
+        RUNNING,
+        DRAINING,
+        STOPPED
+    }
+
+    private final String mName;
+    private final AtomicReference<State> mState = new AtomicReference<>(State.IDLE);
+
+    /**
+     *
+     * @param name - name of the engine used in error messages
+     */
+    public SessionState(String name) {
+        mName = name;
+    }
+
+    public State get() {
+        return mState.get();
+    }
+
+    /**
+     * Claims the instance for a new session.
+     *
+     * @throws IllegalStateException - if the previous session has not stopped yet
+     */
+    public void start() {
+        State state = mState.get();
+        while (state == State.IDLE || state == State.STOPPED) {
+            if (mState.compareAndSet(state, State.STARTING))
+                return;
+            state = mState.get();
+        }
+        throw new IllegalStateException(mName + " is busy: " + state);
+    }
+
+    /**
+     * Called by the job of the session once it runs.
+     *
+     * @return false if the session was stopped before its job began
+     */
+    public boolean markRunning() {
+        return mState.compareAndSet(State.STARTING, State.RUNNING);
+    }
+
+    /**
+     * Asks the session to stop taking new input and finish what it has.
+     *
+     * @return true if this call moved the session to DRAINING
+     */
+    public boolean requestStop() {
+        State state = mState.get();
+        while (state == State.STARTING || state == State.RUNNING) {
+            if (mState.compareAndSet(state, State.DRAINING))
+                return true;
+            state = mState.get();
+        }
+        return false;
+    }
+
+    /**
+     * Checked by the loops of a session on every iteration, a single volatile read.
+     */
+    public boolean isRunning() {
+        return mState.get() == State.RUNNING;
+    }
+
+    /**
+     * @return true from start() until the session has stopped
+     */
+    public boolean isActive() {
+        State state = mState.get();
+        return state == State.STARTING || state == State.RUNNING || state == State.DRAINING;
+    }
+
+    /**
+     * Called once the last job of the session is done, frees the instance for the next one.
+     */
+    public void finish() {
+        mState.set(State.STOPPED);
+    }
+}
@@ -0,0 +1,68 @@
+package com.dmitryerikin.android.blacklodge.Streams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a raw PCM file, or a range of its frames, from its start towards its end in whole
+ * frames. Reads are positional, so starting anywhere in the file costs nothing extra.
+ * A trailing incomplete frame of the file is skipped.
+ */
+public class ForwardPcmSource implements PcmSource {
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mFrameSize;
+    private final long mLength;
+    private long mPosition;
+
+    public ForwardPcmSource(File file, int frameSize) throws IOException {
+        this(file, frameSize, 0L, Long.MAX_VALUE);
+    }
+
+    /**
+     *
+     * @param startFrame - first frame read
+     * @param endFrame - frame after the last one read, clamped to the end of the file
+     */
+    public ForwardPcmSource(File file, int frameSize, long startFrame, long endFrame) throws IOException {
+        if (frameSize <= 0)
+            throw new IllegalArgumentException("frameSize must be positive: " + frameSize);
+        if (startFrame < 0L || endFrame < startFrame)
+            throw new IllegalArgumentException("Invalid frame range " + startFrame + ".." + endFrame);
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+        mFrameSize = frameSize;
+        long fileFrames = mChannel.size() / frameSize;
+        mLength = Math.min(endFrame, fileFrames) * frameSize;
+        mPosition = Math.min(startFrame * frameSize, mLength);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (mPosition == mLength)
+            return -1;
+        int blockLength = (int) Math.min(dst.remaining() - dst.remaining() % mFrameSize, mLength - mPosition);
+        if (blockLength == 0)
+            return 0;
+
+        int start = dst.position();
+        int limit = dst.limit();
+        dst.limit(start + blockLength);
+        while (dst.hasRemaining()) {
+            if (mChannel.read(dst, mPosition + dst.position() - start) == -1)
+                throw new IOException("Unexpected end of file at " + (mPosition + dst.position() - start));
+        }
+        dst.limit(limit);
+        mPosition += blockLength;
+        return blockLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
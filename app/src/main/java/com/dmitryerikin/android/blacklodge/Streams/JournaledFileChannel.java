@@ -0,0 +1,243 @@
+package com.dmitryerikin.android.blacklodge.Streams;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Channel writing a take to a file so that a crash loses at most the last commit interval.
+ * Writes go to the file without syncing. Once commitBytes have been written or commitNanos
+ * have passed since the last commit, the file is forced to disk and then a checkpoint with
+ * the length forced is forced to the journal next to it, two syncs for a whole batch of
+ * writes. A clean close commits everything and deletes the journal.
+ *
+ * A journal found on the next start means the take was cut short, recover() truncates the
+ * file to the length of the last checkpoint. Checkpoints alternate between two slots, so a
+ * checkpoint torn by the crash leaves the one before it.
+ *
+ * <pre>
+ * slot    magic int, version short, reserved short, sequence long, length long, crc int,
+ *         reserved up to SLOT_SIZE, all little-endian, the crc covers the bytes before it
+ * </pre>
+ *
+ * Written by one thread.
+ */
+public class JournaledFileChannel implements WritableByteChannel {
+
+    public static final long DEFAULT_COMMIT_BYTES = 1024L * 1024L;
+    public static final long DEFAULT_COMMIT_MILLIS = 1000L;
+
+    private static final String SUFFIX = ".journal";
+    private static final int MAGIC = 0x4c4e524a;
+    private static final int VERSION = 1;
+    private static final int SLOT_SIZE = 32;
+    private static final int CHECKSUMMED_SIZE = 24;
+
+    private final File mFile;
+    private final File mJournalFile;
+    private final FileChannel mChannel;
+    private final FileChannel mJournal;
+    private final long mCommitBytes;
+    private final long mCommitNanos;
+    private final ByteBuffer mSlot = ByteBuffer.allocate(SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 mCrc = new CRC32();
+
+    private long mLength;
+    private long mCommittedLength;
+    private long mLastCommitNanos;
+    private long mSequence;
+    private volatile long mCommitCount;
+    private boolean mOpen = true;
+
+    public JournaledFileChannel(File file) throws IOException {
+        this(file, DEFAULT_COMMIT_BYTES, TimeUnit.MILLISECONDS.toNanos(DEFAULT_COMMIT_MILLIS));
+    }
+
+    /**
+     *
+     * @param file - file which is overwritten
+     * @param commitBytes - bytes written after which a commit is due
+     * @param commitNanos - time after the last commit after which a commit is due
+     */
+    public JournaledFileChannel(File file, long commitBytes, long commitNanos) throws IOException {
+        mFile = file;
+        mJournalFile = journalFor(file);
+        mCommitBytes = commitBytes;
+        mCommitNanos = commitNanos;
+        // the journal goes first, a crash while the file is created is recovered to nothing
+        mJournal = new RandomAccessFile(mJournalFile, "rw").getChannel();
+        try {
+            mJournal.truncate(0L);
+            writeCheckpoint(0L);
+            mChannel = new FileOutputStream(file).getChannel();
+        } catch (IOException ioe) {
+            mJournal.close();
+            mJournalFile.delete();
+            throw ioe;
+        }
+        mLastCommitNanos = System.nanoTime();
+    }
+
+    /**
+     * @return journal of file, it only exists while a take is written or after a crash
+     */
+    public static File journalFor(File file) {
+        return new File(file.getPath() + SUFFIX);
+    }
+
+    /**
+     * Truncates file to its last checkpoint if a journal shows the take was cut short,
+     * and deletes the journal.
+     *
+     * @return length file was truncated to, or -1 if there was nothing to recover
+     */
+    public static long recover(File file) throws IOException {
+        File journalFile = journalFor(file);
+        if (!journalFile.isFile())
+            return -1L;
+        long length = 0L;
+        try (RandomAccessFile journal = new RandomAccessFile(journalFile, "r")) {
+            FileChannel channel = journal.getChannel();
+            ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 crc = new CRC32();
+            long newest = -1L;
+            for (int i = 0; i < 2; i++) {
+                if (!readSlot(channel, i, slot) || slot.getInt(0) != MAGIC || slot.getShort(4) != VERSION)
+                    continue;
+                crc.reset();
+                crc.update(slot.array(), 0, CHECKSUMMED_SIZE);
+                if ((int) crc.getValue() != slot.getInt(CHECKSUMMED_SIZE))
+                    continue;
+                long sequence = slot.getLong(8);
+                if (sequence > newest) {
+                    newest = sequence;
+                    length = slot.getLong(16);
+                }
+            }
+        }
+        if (file.isFile()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                if (raf.length() > length)
+                    raf.setLength(length);
+                length = Math.min(length, raf.length());
+                raf.getFD().sync();
+            }
+        } else {
+            length = 0L;
+        }
+        if (!journalFile.delete())
+            throw new IOException("Can't delete " + journalFile);
+        return length;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!mOpen)
+            throw new ClosedChannelException();
+        int length = src.remaining();
+        while (src.hasRemaining())
+            mChannel.write(src);
+        mLength += length;
+        long now = System.nanoTime();
+        if (mLength - mCommittedLength >= mCommitBytes || now - mLastCommitNanos >= mCommitNanos)
+            commit();
+        return length;
+    }
+
+    /**
+     * Forces everything written to disk and checkpoints its length.
+     */
+    public void commit() throws IOException {
+        if (!mOpen)
+            throw new ClosedChannelException();
+        mLastCommitNanos = System.nanoTime();
+        if (mLength == mCommittedLength)
+            return;
+        mChannel.force(false);
+        writeCheckpoint(mLength);
+        mCommittedLength = mLength;
+        mCommitCount++;
+    }
+
+    /**
+     * @return bytes written so far
+     */
+    public long getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return bytes which survive a crash
+     */
+    public long getCommittedLength() {
+        return mCommittedLength;
+    }
+
+    public long getCommitCount() {
+        return mCommitCount;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    /**
+     * Commits and deletes the journal, a journal left by a failed close still recovers the take.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!mOpen)
+            return;
+        try {
+            commit();
+        } finally {
+            mOpen = false;
+            try {
+                mChannel.close();
+            } finally {
+                mJournal.close();
+            }
+        }
+        mJournalFile.delete();
+    }
+
+    /**
+     * @return false if the journal ends before the slot does
+     */
+    private static boolean readSlot(FileChannel channel, int index, ByteBuffer slot) throws IOException {
+        slot.clear();
+        long position = (long) index * SLOT_SIZE;
+        while (slot.hasRemaining()) {
+            if (channel.read(slot, position + slot.position()) == -1)
+                return false;
+        }
+        return true;
+    }
+
+    private void writeCheckpoint(long length) throws IOException {
+        mSequence++;
+        mSlot.clear();
+        mSlot.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0).putLong(mSequence).putLong(length);
+        mCrc.reset();
+        mCrc.update(mSlot.array(), 0, CHECKSUMMED_SIZE);
+        mSlot.putInt((int) mCrc.getValue());
+        mSlot.clear();
+        long position = (mSequence % 2L) * SLOT_SIZE;
+        while (mSlot.hasRemaining())
+            position += mJournal.write(mSlot, position);
+        mJournal.force(false);
+    }
+}
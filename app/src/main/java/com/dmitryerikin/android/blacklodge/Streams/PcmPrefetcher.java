@@ -0,0 +1,202 @@
+package com.dmitryerikin.android.blacklodge.Streams;
+
+import com.dmitryerikin.android.blacklodge.Buffers.DirectBufferPool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-ahead stage between a PcmSource and a consumer with real-time deadlines. A reader
+ * keeps up to blockCount direct buffers filled ahead of the consumer, so a slow read only
+ * eats into the prefetched audio instead of stalling the consumer right away.
+ *
+ * The consumer takes filled blocks with take() and hands them back with recycle(), blocks
+ * are never copied. The prefetcher owns the source and closes it.
+ */
+public class PcmPrefetcher implements Closeable {
+
+    private static final ByteBuffer END_OF_SOURCE = ByteBuffer.allocate(0);
+
+    private final PcmSource mSource;
+    private final int mBlockSize;
+    private final ByteBuffer[] mBuffers;
+    private final ArrayBlockingQueue<ByteBuffer> mFree;
+    private final ArrayBlockingQueue<ByteBuffer> mFilled;
+    private final CountDownLatch mFinished = new CountDownLatch(1);
+    private final AtomicLong mStallCount = new AtomicLong();
+    private final AtomicInteger mReadyCount = new AtomicInteger();
+    private final Object mReaderLock = new Object();
+
+    private volatile boolean mClosed;
+    private Thread mReaderThread;
+    private volatile IOException mFailure;
+    private boolean mStarted;
+    private boolean mEnded;
+
+    /**
+     * Starts reading on a thread of its own.
+     */
+    public PcmPrefetcher(PcmSource source, int blockSize, int blockCount) {
+        this(source, blockSize, blockCount, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                Thread thread = new Thread(command, "PcmPrefetcher");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        });
+    }
+
+    /**
+     *
+     * @param source - source to read ahead, closed together with the prefetcher
+     * @param blockSize - size in bytes of every block, at least one frame
+     * @param blockCount - number of blocks kept ahead of the consumer, at least 2
+     * @param executor - executor which runs the reader
+     */
+    public PcmPrefetcher(PcmSource source, int blockSize, int blockCount, Executor executor) {
+        if (blockCount < 2)
+            throw new IllegalArgumentException("At least two blocks are needed: " + blockCount);
+        mSource = source;
+        mBlockSize = blockSize;
+        mBuffers = new ByteBuffer[blockCount];
+        mFree = new ArrayBlockingQueue<>(blockCount);
+        mFilled = new ArrayBlockingQueue<>(blockCount + 1);
+        DirectBufferPool pool = DirectBufferPool.getShared();
+        for (int i = 0; i < blockCount; i++) {
+            mBuffers[i] = pool.acquire(blockSize);
+            mFree.add(mBuffers[i]);
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                prefetch();
+            }
+        });
+    }
+
+    /**
+     * Waits for the next filled block. The block is positioned at its first byte and
+     * limited to the bytes read, it has to be given back with recycle().
+     *
+     * @return next block or null when the source is exhausted
+     * @throws IOException - if reading the source failed
+     */
+    public ByteBuffer take() throws IOException {
+        if (mEnded)
+            return null;
+        ByteBuffer block = mFilled.poll();
+        if (block == null) {
+            if (mStarted)
+                mStallCount.incrementAndGet();
+            try {
+                block = mFilled.take();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a block");
+            }
+        }
+        if (block == END_OF_SOURCE) {
+            mEnded = true;
+            if (mFailure != null)
+                throw mFailure;
+            return null;
+        }
+        mStarted = true;
+        mReadyCount.decrementAndGet();
+        return block;
+    }
+
+    public void recycle(ByteBuffer block) {
+        mFree.offer(block);
+    }
+
+    public int getBlockCount() {
+        return mBuffers.length;
+    }
+
+    /**
+     * @return number of filled blocks waiting for take(), read without locking the queue
+     */
+    public int getReadyCount() {
+        return mReadyCount.get();
+    }
+
+    /**
+     * @return number of times take() found no block ready and had to wait for the reader,
+     *         the wait for the first block does not count
+     */
+    public long getStallCount() {
+        return mStallCount.get();
+    }
+
+    /**
+     * Stops the reader, closes the source and releases the blocks. Blocks taken and not
+     * recycled must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (mClosed)
+            return;
+        mClosed = true;
+        synchronized (mReaderLock) {
+            if (mReaderThread != null)
+                mReaderThread.interrupt();
+        }
+        boolean finished = false;
+        try {
+            finished = mFinished.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        if (!finished)
+            return;
+        DirectBufferPool pool = DirectBufferPool.getShared();
+        for (ByteBuffer buffer : mBuffers)
+            pool.release(buffer);
+    }
+
+    private void prefetch() {
+        synchronized (mReaderLock) {
+            mReaderThread = Thread.currentThread();
+        }
+        try {
+            while (!mClosed) {
+                ByteBuffer block = mFree.take();
+                block.clear().limit(mBlockSize);
+                int bytesRead = mSource.read(block);
+                if (bytesRead == -1)
+                    break;
+                block.flip();
+                mReadyCount.incrementAndGet();
+                mFilled.put(block);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ioe) {
+            if (!mClosed)
+                mFailure = ioe;
+        } finally {
+            mFilled.offer(END_OF_SOURCE);
+            try {
+                mSource.close();
+            } catch (IOException ioe) {
+                if (mFailure == null)
+                    mFailure = ioe;
+            }
+            synchronized (mReaderLock) {
+                mReaderThread = null;
+                Thread.interrupted();
+            }
+            mFinished.countDown();
+        }
+    }
+}
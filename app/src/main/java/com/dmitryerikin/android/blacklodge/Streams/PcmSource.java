@@ -0,0 +1,18 @@
+package com.dmitryerikin.android.blacklodge.Streams;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sequential source of raw PCM data which always hands out whole frames.
+ */
+public interface PcmSource extends Closeable {
+
+    /**
+     * Reads whole frames into dst starting at its position and advances the position.
+     *
+     * @return number of bytes read or -1 when the source is exhausted
+     */
+    int read(ByteBuffer dst) throws IOException;
+}
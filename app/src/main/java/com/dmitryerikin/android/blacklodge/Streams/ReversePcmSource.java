@@ -0,0 +1,87 @@
+package com.dmitryerikin.android.blacklodge.Streams;
+
+import com.dmitryerikin.android.blacklodge.Reversal.FrameReversalKernel;
+import com.dmitryerikin.android.blacklodge.Reversal.FrameReversalKernels;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a raw PCM file, or a range of its frames, from its end towards its start and hands
+ * out the frames in reverse order, so a reversed take can be played without writing
+ * a reversed file first. A trailing incomplete frame of the file is skipped.
+ */
+public class ReversePcmSource implements PcmSource {
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final FrameReversalKernel mKernel;
+    private final int mFrameSize;
+    private final long mStart;
+    private long mPosition;
+
+    public ReversePcmSource(File file, int frameSize) throws IOException {
+        this(file, FrameReversalKernels.forFrameSize(frameSize));
+    }
+
+    public ReversePcmSource(File file, FrameReversalKernel kernel) throws IOException {
+        this(file, kernel, 0L, Long.MAX_VALUE);
+    }
+
+    /**
+     *
+     * @param startFrame - first frame of the range in the file, the last one read
+     * @param endFrame - frame after the range in the file, clamped to the end of the file
+     */
+    public ReversePcmSource(File file, FrameReversalKernel kernel, long startFrame, long endFrame)
+            throws IOException {
+        if (startFrame < 0L || endFrame < startFrame)
+            throw new IllegalArgumentException("Invalid frame range " + startFrame + ".." + endFrame);
+        int frameSize = kernel.getFrameSize();
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+        mKernel = kernel;
+        mFrameSize = frameSize;
+        long fileFrames = mChannel.size() / frameSize;
+        mPosition = Math.min(endFrame, fileFrames) * frameSize;
+        mStart = Math.min(startFrame * frameSize, mPosition);
+    }
+
+    /**
+     * Reads the block of frames that precedes the previously read one and reverses it
+     * in place inside dst.
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (mPosition == mStart)
+            return -1;
+        int blockLength = (int) Math.min(dst.remaining() - dst.remaining() % mFrameSize, mPosition - mStart);
+        if (blockLength == 0)
+            return 0;
+
+        int start = dst.position();
+        int limit = dst.limit();
+        long blockPosition = mPosition - blockLength;
+        // reads straight into dst, narrowed to the block, no view per read
+        dst.limit(start + blockLength);
+        try {
+            while (dst.hasRemaining()) {
+                if (mChannel.read(dst, blockPosition + dst.position() - start) == -1)
+                    throw new IOException("Unexpected end of file at " + (blockPosition + dst.position() - start));
+            }
+        } finally {
+            dst.limit(limit);
+        }
+        mKernel.reverse(dst, start, blockLength);
+        mPosition = blockPosition;
+        return blockLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
@@ -0,0 +1,286 @@
+package com.dmitryerikin.android.blacklodge.Streams;
+
+import com.dmitryerikin.android.blacklodge.Buffers.DirectBufferPool;
+import com.dmitryerikin.android.blacklodge.Reversal.FrameReversalKernel;
+import com.dmitryerikin.android.blacklodge.Reversal.ReversalProgress;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+
+/**
+ * Raw PCM take kept in memory, in a chain of pooled direct segments, so a short take can
+ * be recorded, reversed and played without touching the disk. Once the take grows past
+ * the spill threshold all segments are written to the spill file, released, and the rest
+ * of the take is appended to the file. Sources read either one transparently.
+ *
+ * Data is written through the channel interface by one thread. Sources may be opened
+ * once the channel is closed, any number of them and from any thread.
+ */
+public class SegmentedPcmBuffer implements WritableByteChannel {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+
+    private final int mFrameSize;
+    private final int mSegmentSize;
+    private final long mSpillThreshold;
+    private final File mSpillFile;
+    private final DirectBufferPool mPool;
+    private final ArrayList<ByteBuffer> mSegments = new ArrayList<>();
+
+    private FileChannel mSpillChannel;
+    private volatile long mLength;
+    private volatile boolean mSpilled;
+    private volatile boolean mOpen = true;
+    private volatile boolean mReleased;
+
+    public SegmentedPcmBuffer(int frameSize, long spillThreshold, File spillFile) {
+        this(frameSize, DEFAULT_SEGMENT_SIZE, spillThreshold, spillFile);
+    }
+
+    /**
+     *
+     * @param frameSize - size of one frame in bytes
+     * @param segmentSize - size of one segment in bytes, rounded down to whole frames
+     * @param spillThreshold - size in bytes above which the take moves to spillFile
+     * @param spillFile - file which is overwritten when the take spills
+     */
+    public SegmentedPcmBuffer(int frameSize, int segmentSize, long spillThreshold, File spillFile) {
+        if (frameSize <= 0)
+            throw new IllegalArgumentException("frameSize must be positive: " + frameSize);
+        mFrameSize = frameSize;
+        // whole frames per segment, so no frame is ever split between two segments
+        mSegmentSize = Math.max(segmentSize - segmentSize % frameSize, frameSize);
+        mSpillThreshold = spillThreshold;
+        mSpillFile = spillFile;
+        mPool = DirectBufferPool.getShared();
+    }
+
+    /**
+     * Appends all remaining bytes of src.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!mOpen)
+            throw new ClosedChannelException();
+        int length = src.remaining();
+        if (!mSpilled && mLength + length > mSpillThreshold)
+            spill();
+        if (mSpilled) {
+            while (src.hasRemaining())
+                mSpillChannel.write(src);
+        } else {
+            append(src);
+        }
+        mLength += length;
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    /**
+     * Ends the take, the data stays readable until release().
+     */
+    @Override
+    public void close() throws IOException {
+        if (!mOpen)
+            return;
+        mOpen = false;
+        if (mSpillChannel != null)
+            mSpillChannel.close();
+    }
+
+    /**
+     * Gives the segments back to the pool. The spill file is kept.
+     */
+    public void release() {
+        if (mReleased)
+            return;
+        mReleased = true;
+        for (ByteBuffer segment : mSegments)
+            mPool.release(segment);
+        mSegments.clear();
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    public long getSpillThreshold() {
+        return mSpillThreshold;
+    }
+
+    /**
+     * @return bytes written so far
+     */
+    public long getLength() {
+        return mLength;
+    }
+
+    public boolean isSpilled() {
+        return mSpilled;
+    }
+
+    public File getSpillFile() {
+        return mSpillFile;
+    }
+
+    /**
+     * @param reversed - if true the frames are read from the last one to the first one
+     * @param kernel - kernel reversing frames of the take, only used if reversed
+     * @return source over the whole frames of the take
+     * @throws IllegalStateException - if the take is still being written or was released
+     */
+    public PcmSource openSource(boolean reversed, FrameReversalKernel kernel) throws IOException {
+        return openSource(reversed, kernel, 0L, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param startFrame - first frame of the range in the take
+     * @param endFrame - frame after the range in the take, clamped to the end of the take
+     * @return source over the frames of the range, reading starts at the segment holding
+     *         the first frame read
+     */
+    public PcmSource openSource(boolean reversed, FrameReversalKernel kernel, long startFrame, long endFrame)
+            throws IOException {
+        if (mOpen)
+            throw new IllegalStateException("Take is still being written");
+        if (mReleased)
+            throw new IllegalStateException("Take has been released");
+        if (startFrame < 0L || endFrame < startFrame)
+            throw new IllegalArgumentException("Invalid frame range " + startFrame + ".." + endFrame);
+        if (mSpilled)
+            return reversed ? new ReversePcmSource(mSpillFile, kernel, startFrame, endFrame)
+                    : new ForwardPcmSource(mSpillFile, mFrameSize, startFrame, endFrame);
+        long end = Math.min(endFrame, mLength / mFrameSize) * mFrameSize;
+        return new MemorySource(reversed ? kernel : null, Math.min(startFrame * mFrameSize, end), end);
+    }
+
+    /**
+     * Appends everything source hands out, reporting every block to progress and checking
+     * for cancellation before reading the next one. The source is not closed.
+     *
+     * @param totalBytes - number of bytes source is expected to hand out
+     * @return number of bytes appended
+     */
+    public long transferFrom(PcmSource source, long totalBytes, ReversalProgress progress) throws IOException {
+        ByteBuffer block = mPool.acquire(mSegmentSize);
+        long transferred = 0L;
+        int bytesRead;
+        try {
+            progress.start(totalBytes);
+            while (true) {
+                progress.checkCancelled();
+                block.clear().limit(mSegmentSize);
+                if ((bytesRead = source.read(block)) == -1)
+                    break;
+                block.flip();
+                write(block);
+                transferred += bytesRead;
+                progress.advance(bytesRead);
+            }
+            progress.finish();
+            return transferred;
+        } finally {
+            mPool.release(block);
+        }
+    }
+
+    private void append(ByteBuffer src) {
+        while (src.hasRemaining()) {
+            ByteBuffer segment = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+            if (segment == null || !segment.hasRemaining()) {
+                segment = mPool.acquire(mSegmentSize);
+                mSegments.add(segment);
+            }
+            int length = Math.min(src.remaining(), segment.remaining());
+            int srcLimit = src.limit();
+            src.limit(src.position() + length);
+            segment.put(src);
+            src.limit(srcLimit);
+        }
+    }
+
+    private void spill() throws IOException {
+        mSpillChannel = new FileOutputStream(mSpillFile).getChannel();
+        for (ByteBuffer segment : mSegments) {
+            ByteBuffer data = segment.duplicate();
+            data.flip();
+            while (data.hasRemaining())
+                mSpillChannel.write(data);
+        }
+        mSpilled = true;
+        for (ByteBuffer segment : mSegments)
+            mPool.release(segment);
+        mSegments.clear();
+    }
+
+    /**
+     * Reads the segments through views made when the source is opened, so reading
+     * allocates nothing.
+     */
+    private class MemorySource implements PcmSource {
+
+        private final ByteBuffer[] mViews;
+        private final FrameReversalKernel mKernel;
+        private final long mStart;
+        private final long mEnd;
+        private long mPosition;
+
+        MemorySource(FrameReversalKernel kernel, long start, long end) {
+            mViews = new ByteBuffer[mSegments.size()];
+            for (int i = 0; i < mViews.length; i++)
+                mViews[i] = mSegments.get(i).duplicate();
+            mKernel = kernel;
+            mStart = start;
+            mEnd = end;
+            mPosition = kernel != null ? mEnd : mStart;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            long available = mKernel != null ? mPosition - mStart : mEnd - mPosition;
+            if (available == 0L)
+                return -1;
+            int blockLength = (int) Math.min(dst.remaining() - dst.remaining() % mFrameSize, available);
+            if (blockLength == 0)
+                return 0;
+            int start = dst.position();
+            if (mKernel != null) {
+                mPosition -= blockLength;
+                copy(mPosition, dst, blockLength);
+                mKernel.reverse(dst, start, blockLength);
+            } else {
+                copy(mPosition, dst, blockLength);
+                mPosition += blockLength;
+            }
+            return blockLength;
+        }
+
+        private void copy(long position, ByteBuffer dst, int length) {
+            int segment = (int) (position / mSegmentSize);
+            int offset = (int) (position % mSegmentSize);
+            while (length > 0) {
+                int chunk = Math.min(length, mSegmentSize - offset);
+                ByteBuffer view = mViews[segment];
+                view.limit(offset + chunk).position(offset);
+                dst.put(view);
+                length -= chunk;
+                segment++;
+                offset = 0;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
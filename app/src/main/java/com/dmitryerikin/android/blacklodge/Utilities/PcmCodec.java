@@ -0,0 +1,186 @@
+package com.dmitryerikin.android.blacklodge.Utilities;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Bulk conversions between raw PCM bytes, 16-bit samples and float samples.
+ *
+ * 16-bit PCM is signed and stored in the given byte order, 8-bit PCM is unsigned with
+ * silence at 128, as AudioRecord and AudioTrack use it. Floats are in [-1, 1): a 16-bit
+ * sample s maps to s / 32768 and an 8-bit sample u to (u - 128) / 128, so every sample
+ * survives a round trip through float unchanged. Floats outside the range are clamped.
+ *
+ * 16-bit data is always accessed through a ShortBuffer view in the requested byte order,
+ * whose bulk transfers the runtime turns into memory copies with optional byte swaps.
+ * Such a view costs two small objects per call, never a copy of the samples. Float
+ * conversions of 16-bit data copy a chunk of samples into a per-thread short[] and run
+ * plain counted array loops over it, which the JIT can unroll or vectorize.
+ * The ByteBuffer methods advance the buffer position by the number of bytes consumed or
+ * produced.
+ */
+public class PcmCodec {
+
+    private static final float SHORT_SCALE = 32768f;
+    private static final float SHORT_UNIT = 1f / SHORT_SCALE;
+    private static final float BYTE_SCALE = 128f;
+    private static final float BYTE_UNIT = 1f / BYTE_SCALE;
+    private static final int CHUNK_SAMPLES = 1024;
+
+    private static final ThreadLocal<short[]> CHUNK = new ThreadLocal<short[]>() {
+        @Override
+        protected short[] initialValue() {
+            return new short[CHUNK_SAMPLES];
+        }
+    };
+
+    private PcmCodec() {
+    }
+
+    public static short[] bytesToShorts(byte[] src, ByteOrder order) {
+        short[] dst = new short[src.length / 2];
+        bytesToShorts(src, 0, dst, 0, dst.length, order);
+        return dst;
+    }
+
+    public static byte[] shortsToBytes(short[] src, ByteOrder order) {
+        byte[] dst = new byte[src.length * 2];
+        shortsToBytes(src, 0, dst, 0, src.length, order);
+        return dst;
+    }
+
+    public static void bytesToShorts(byte[] src, int srcOffset, short[] dst, int dstOffset,
+                                     int samples, ByteOrder order) {
+        view(src, srcOffset, samples, order).get(dst, dstOffset, samples);
+    }
+
+    public static void shortsToBytes(short[] src, int srcOffset, byte[] dst, int dstOffset,
+                                     int samples, ByteOrder order) {
+        view(dst, dstOffset, samples, order).put(src, srcOffset, samples);
+    }
+
+    public static void bytesToShorts(ByteBuffer src, short[] dst, int dstOffset, int samples, ByteOrder order) {
+        view(src, samples, order).get(dst, dstOffset, samples);
+        src.position(src.position() + samples * 2);
+    }
+
+    public static void shortsToBytes(short[] src, int srcOffset, ByteBuffer dst, int samples, ByteOrder order) {
+        view(dst, samples, order).put(src, srcOffset, samples);
+        dst.position(dst.position() + samples * 2);
+    }
+
+    public static void pcm16ToFloats(byte[] src, int srcOffset, float[] dst, int dstOffset,
+                                     int samples, ByteOrder order) {
+        toFloats(view(src, srcOffset, samples, order), dst, dstOffset, samples);
+    }
+
+    public static void floatsToPcm16(float[] src, int srcOffset, byte[] dst, int dstOffset,
+                                     int samples, ByteOrder order) {
+        fromFloats(src, srcOffset, view(dst, dstOffset, samples, order), samples);
+    }
+
+    public static void pcm16ToFloats(ByteBuffer src, float[] dst, int dstOffset, int samples, ByteOrder order) {
+        toFloats(view(src, samples, order), dst, dstOffset, samples);
+        src.position(src.position() + samples * 2);
+    }
+
+    public static void floatsToPcm16(float[] src, int srcOffset, ByteBuffer dst, int samples, ByteOrder order) {
+        fromFloats(src, srcOffset, view(dst, samples, order), samples);
+        dst.position(dst.position() + samples * 2);
+    }
+
+    public static void shortsToFloats(short[] src, int srcOffset, float[] dst, int dstOffset, int samples) {
+        checkRange(src.length, srcOffset, samples);
+        checkRange(dst.length, dstOffset, samples);
+        for (int i = 0; i < samples; i++)
+            dst[dstOffset + i] = src[srcOffset + i] * SHORT_UNIT;
+    }
+
+    public static void floatsToShorts(float[] src, int srcOffset, short[] dst, int dstOffset, int samples) {
+        checkRange(src.length, srcOffset, samples);
+        checkRange(dst.length, dstOffset, samples);
+        for (int i = 0; i < samples; i++)
+            dst[dstOffset + i] = toShort(src[srcOffset + i]);
+    }
+
+    public static void pcm8ToShorts(byte[] src, int srcOffset, short[] dst, int dstOffset, int samples) {
+        checkRange(src.length, srcOffset, samples);
+        checkRange(dst.length, dstOffset, samples);
+        for (int i = 0; i < samples; i++)
+            dst[dstOffset + i] = (short) (((src[srcOffset + i] & 0xff) - 128) << 8);
+    }
+
+    /**
+     * Keeps the high byte of every sample, the low byte is truncated.
+     */
+    public static void shortsToPcm8(short[] src, int srcOffset, byte[] dst, int dstOffset, int samples) {
+        checkRange(src.length, srcOffset, samples);
+        checkRange(dst.length, dstOffset, samples);
+        for (int i = 0; i < samples; i++)
+            dst[dstOffset + i] = (byte) ((src[srcOffset + i] >> 8) + 128);
+    }
+
+    public static void pcm8ToFloats(byte[] src, int srcOffset, float[] dst, int dstOffset, int samples) {
+        checkRange(src.length, srcOffset, samples);
+        checkRange(dst.length, dstOffset, samples);
+        for (int i = 0; i < samples; i++)
+            dst[dstOffset + i] = ((src[srcOffset + i] & 0xff) - 128) * BYTE_UNIT;
+    }
+
+    public static void floatsToPcm8(float[] src, int srcOffset, byte[] dst, int dstOffset, int samples) {
+        checkRange(src.length, srcOffset, samples);
+        checkRange(dst.length, dstOffset, samples);
+        for (int i = 0; i < samples; i++)
+            dst[dstOffset + i] = (byte) (round(src[srcOffset + i] * BYTE_SCALE, -128f, 127f) + 128);
+    }
+
+    private static void toFloats(ShortBuffer src, float[] dst, int dstOffset, int samples) {
+        checkRange(dst.length, dstOffset, samples);
+        short[] chunk = CHUNK.get();
+        for (int done = 0; done < samples; done += CHUNK_SAMPLES) {
+            int count = Math.min(CHUNK_SAMPLES, samples - done);
+            src.get(chunk, 0, count);
+            shortsToFloats(chunk, 0, dst, dstOffset + done, count);
+        }
+    }
+
+    private static void fromFloats(float[] src, int srcOffset, ShortBuffer dst, int samples) {
+        checkRange(src.length, srcOffset, samples);
+        short[] chunk = CHUNK.get();
+        for (int done = 0; done < samples; done += CHUNK_SAMPLES) {
+            int count = Math.min(CHUNK_SAMPLES, samples - done);
+            floatsToShorts(src, srcOffset + done, chunk, 0, count);
+            dst.put(chunk, 0, count);
+        }
+    }
+
+    private static short toShort(float sample) {
+        return (short) round(sample * SHORT_SCALE, Short.MIN_VALUE, Short.MAX_VALUE);
+    }
+
+    /**
+     * Clamps and rounds half away from zero, NaN becomes 0.
+     */
+    private static int round(float value, float min, float max) {
+        value = value < min ? min : value > max ? max : value;
+        return (int) (value + (value < 0f ? -0.5f : 0.5f));
+    }
+
+    private static ShortBuffer view(byte[] array, int offset, int samples, ByteOrder order) {
+        checkRange(array.length, offset, samples * 2);
+        // the view starts at the position of the wrap, no slice needed
+        return ByteBuffer.wrap(array, offset, samples * 2).order(order).asShortBuffer();
+    }
+
+    private static ShortBuffer view(ByteBuffer buffer, int samples, ByteOrder order) {
+        if (buffer.remaining() < samples * 2)
+            throw new IndexOutOfBoundsException(samples + " samples, " + buffer.remaining() + " bytes remaining");
+        return buffer.duplicate().order(order).asShortBuffer();
+    }
+
+    private static void checkRange(int arrayLength, int offset, int count) {
+        if (offset < 0 || count < 0 || offset > arrayLength - count)
+            throw new ArrayIndexOutOfBoundsException("offset " + offset + ", count " + count + ", length " + arrayLength);
+    }
+}
@@ -0,0 +1,230 @@
+package com.dmitryerikin.android.blacklodge.Waveform;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Min/max pyramid of a 16-bit recording, the overview waveform rendering and silence
+ * detection work on instead of the samples. Level 0 holds the lowest and the highest
+ * sample of every baseFrames frames over all channels, every level above combines
+ * factor buckets of the level below, up to a single bucket for the whole recording.
+ * The last bucket of a level may be partial.
+ *
+ * The index of a reversed recording is the same buckets in reverse order, reversed()
+ * derives it without touching the recording. Its partial buckets are the first ones.
+ */
+public class PeakIndex {
+
+    private static final int MAGIC = 0x5045414b;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".peaks";
+
+    private final long mFrameCount;
+    private final int mBaseFrames;
+    private final int mFactor;
+    // min and max interleaved, always in the order of the recording the index was built for
+    private final short[][] mLevels;
+    private final boolean mReversed;
+
+    PeakIndex(long frameCount, int baseFrames, int factor, short[][] levels, boolean reversed) {
+        mFrameCount = frameCount;
+        mBaseFrames = baseFrames;
+        mFactor = factor;
+        mLevels = levels;
+        mReversed = reversed;
+    }
+
+    /**
+     * @return file the index of audioFile is kept in
+     */
+    public static File fileFor(File audioFile) {
+        return new File(audioFile.getParentFile(), audioFile.getName() + SUFFIX);
+    }
+
+    /**
+     * @throws IOException - if file is not a peak index
+     */
+    public static PeakIndex read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a peak index: " + file);
+            boolean reversed = in.readBoolean();
+            int baseFrames = in.readInt();
+            int factor = in.readInt();
+            long frameCount = in.readLong();
+            short[][] levels = new short[in.readInt()][];
+            for (int level = 0; level < levels.length; level++) {
+                levels[level] = new short[2 * in.readInt()];
+                for (int i = 0; i < levels[level].length; i++)
+                    levels[level][i] = in.readShort();
+            }
+            return new PeakIndex(frameCount, baseFrames, factor, levels, reversed);
+        }
+    }
+
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeBoolean(mReversed);
+            out.writeInt(mBaseFrames);
+            out.writeInt(mFactor);
+            out.writeLong(mFrameCount);
+            out.writeInt(mLevels.length);
+            for (short[] level : mLevels) {
+                out.writeInt(level.length / 2);
+                for (short value : level)
+                    out.writeShort(value);
+            }
+        }
+    }
+
+    /**
+     * @return index of the recording played backwards, sharing the buckets of this one
+     */
+    public PeakIndex reversed() {
+        return new PeakIndex(mFrameCount, mBaseFrames, mFactor, mLevels, !mReversed);
+    }
+
+    public boolean isReversed() {
+        return mReversed;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getLevelCount() {
+        return mLevels.length;
+    }
+
+    /**
+     * @return frames of a whole bucket of level
+     */
+    public long getBucketFrames(int level) {
+        long frames = mBaseFrames;
+        for (int i = 0; i < level; i++)
+            frames *= mFactor;
+        return frames;
+    }
+
+    public int getBucketCount(int level) {
+        return mLevels[level].length / 2;
+    }
+
+    public short getMin(int level, int bucket) {
+        return mLevels[level][2 * stored(level, bucket)];
+    }
+
+    public short getMax(int level, int bucket) {
+        return mLevels[level][2 * stored(level, bucket) + 1];
+    }
+
+    /**
+     * Fills one min/max pair per pixel for the frames from startFrame to endFrame, each
+     * from the coarsest level whose buckets are not wider than a pixel, so the work is
+     * proportional to the number of pixels whatever the length of the range.
+     *
+     * @param mins - receives the lowest sample of every pixel, its length is the pixel count
+     * @param maxs - receives the highest sample of every pixel, as long as mins
+     */
+    public void getPeaks(long startFrame, long endFrame, short[] mins, short[] maxs) {
+        int pixels = mins.length;
+        long frames = endFrame - startFrame;
+        int level = 0;
+        while (level + 1 < mLevels.length && getBucketFrames(level + 1) <= frames / Math.max(pixels, 1))
+            level++;
+        for (int pixel = 0; pixel < pixels; pixel++) {
+            long from = startFrame + frames * pixel / pixels;
+            long to = Math.max(startFrame + frames * (pixel + 1) / pixels, from + 1);
+            if (mReversed) {
+                long reversedFrom = from;
+                from = mFrameCount - to;
+                to = mFrameCount - reversedFrom;
+            }
+            from = Math.max(from, 0L);
+            to = Math.min(to, mFrameCount);
+            short min = 0;
+            short max = 0;
+            if (from < to) {
+                long bucketFrames = getBucketFrames(level);
+                int first = (int) (from / bucketFrames);
+                int last = (int) ((to - 1) / bucketFrames);
+                min = Short.MAX_VALUE;
+                max = Short.MIN_VALUE;
+                short[] buckets = mLevels[level];
+                for (int bucket = first; bucket <= last; bucket++) {
+                    min = (short) Math.min(min, buckets[2 * bucket]);
+                    max = (short) Math.max(max, buckets[2 * bucket + 1]);
+                }
+            }
+            mins[pixel] = min;
+            maxs[pixel] = max;
+        }
+    }
+
+    /**
+     * @param threshold - magnitude a sample must exceed to count as sound
+     * @return first frame of the first level 0 bucket with sound, -1 if it is all silence
+     */
+    public long getSoundStartFrame(int threshold) {
+        if (mReversed) {
+            int bucket = findLoudBucket(threshold, false);
+            return bucket < 0 ? -1L : mFrameCount - Math.min((bucket + 1L) * mBaseFrames, mFrameCount);
+        }
+        int bucket = findLoudBucket(threshold, true);
+        return bucket < 0 ? -1L : (long) bucket * mBaseFrames;
+    }
+
+    /**
+     * @param threshold - magnitude a sample must exceed to count as sound
+     * @return frame after the last level 0 bucket with sound, -1 if it is all silence
+     */
+    public long getSoundEndFrame(int threshold) {
+        if (mReversed) {
+            int bucket = findLoudBucket(threshold, true);
+            return bucket < 0 ? -1L : mFrameCount - (long) bucket * mBaseFrames;
+        }
+        int bucket = findLoudBucket(threshold, false);
+        return bucket < 0 ? -1L : Math.min((bucket + 1L) * mBaseFrames, mFrameCount);
+    }
+
+    /**
+     * Descends from the top level into the first or last loud bucket only, so a search
+     * looks at no more than factor buckets per level.
+     *
+     * @return index of the first or last loud bucket of level 0 in stored order, or -1
+     */
+    private int findLoudBucket(int threshold, boolean first) {
+        int from = 0;
+        int to = mLevels[mLevels.length - 1].length / 2;
+        for (int level = mLevels.length - 1; level >= 0; level--) {
+            short[] buckets = mLevels[level];
+            int found = -1;
+            for (int i = 0; i < to - from; i++) {
+                int bucket = first ? from + i : to - 1 - i;
+                if (buckets[2 * bucket] < -threshold || buckets[2 * bucket + 1] > threshold) {
+                    found = bucket;
+                    break;
+                }
+            }
+            if (found < 0)
+                return -1;
+            if (level == 0)
+                return found;
+            from = found * mFactor;
+            to = Math.min(from + mFactor, mLevels[level - 1].length / 2);
+        }
+        return -1;
+    }
+
+    private int stored(int level, int bucket) {
+        return mReversed ? mLevels[level].length / 2 - 1 - bucket : bucket;
+    }
+}
@@ -0,0 +1,171 @@
+package com.dmitryerikin.android.blacklodge.Waveform;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Builds a PeakIndex while a recording is written, chunk by chunk, so the index is ready
+ * when the recording is. Every sample is looked at once, a completed bucket of a level is
+ * folded into the open bucket of the level above.
+ *
+ * Level arrays grow by doubling, the only allocations, amortized over many chunks.
+ * Used by one thread.
+ */
+public class PeakIndexBuilder {
+
+    public static final int DEFAULT_BASE_FRAMES = 256;
+    public static final int DEFAULT_FACTOR = 4;
+
+    private static final int INITIAL_BUCKETS = 64;
+
+    private final int mChannelCount;
+    private final int mBaseFrames;
+    private final int mFactor;
+    private final int mBaseSamples;
+
+    private short[][] mLevels = new short[0][];
+    private int[] mBucketCounts = new int[0];
+    // open bucket of every level
+    private short[] mOpenMin = new short[0];
+    private short[] mOpenMax = new short[0];
+    private int[] mOpenParts = new int[0];
+
+    private long mSampleCount;
+    private int mPendingByte = -1;
+
+    public PeakIndexBuilder(int channelCount) {
+        this(channelCount, DEFAULT_BASE_FRAMES, DEFAULT_FACTOR);
+    }
+
+    /**
+     *
+     * @param channelCount - number of interleaved channels
+     * @param baseFrames - frames of a level 0 bucket
+     * @param factor - buckets of a level combined into one bucket of the level above
+     */
+    public PeakIndexBuilder(int channelCount, int baseFrames, int factor) {
+        if (channelCount <= 0 || baseFrames <= 0 || factor < 2)
+            throw new IllegalArgumentException("channelCount and baseFrames must be positive, factor at least 2");
+        mChannelCount = channelCount;
+        mBaseFrames = baseFrames;
+        mFactor = factor;
+        mBaseSamples = baseFrames * channelCount;
+        addLevel();
+    }
+
+    /**
+     * Takes the remaining bytes of src as 16-bit samples in the order of src, src is not
+     * moved. A sample split between two chunks is completed by the next one.
+     */
+    public void update(ByteBuffer src) {
+        int position = src.position();
+        int limit = src.limit();
+        if (mPendingByte >= 0 && position < limit) {
+            int second = src.get(position++) & 0xff;
+            boolean bigEndian = src.order() == ByteOrder.BIG_ENDIAN;
+            add((short) (bigEndian ? (mPendingByte << 8) | second : (second << 8) | mPendingByte));
+            mPendingByte = -1;
+        }
+        for (; position + 1 < limit; position += 2)
+            add(src.getShort(position));
+        if (position < limit)
+            mPendingByte = src.get(position) & 0xff;
+    }
+
+    public long getFrameCount() {
+        return mSampleCount / mChannelCount;
+    }
+
+    /**
+     * Closes the partial buckets into an index of everything added so far. More samples
+     * may be added afterwards, for another index.
+     */
+    public PeakIndex build() {
+        long frameCount = getFrameCount();
+        int levelCount = 1;
+        while (bucketCount(frameCount, levelCount - 1) > 1)
+            levelCount++;
+        short[][] levels = new short[levelCount][];
+        for (int level = 0; level < levelCount; level++) {
+            int closed = level < mLevels.length ? mBucketCounts[level] : 0;
+            int total = (int) bucketCount(frameCount, level);
+            levels[level] = new short[2 * total];
+            if (closed > 0)
+                System.arraycopy(mLevels[level], 0, levels[level], 0, 2 * closed);
+        }
+        // the partial buckets, each the open bucket of its level with all open buckets below
+        short min = Short.MAX_VALUE;
+        short max = Short.MIN_VALUE;
+        boolean open = false;
+        for (int level = 0; level < levelCount; level++) {
+            if (level < mLevels.length && mOpenParts[level] > 0) {
+                min = (short) Math.min(min, mOpenMin[level]);
+                max = (short) Math.max(max, mOpenMax[level]);
+                open = true;
+            }
+            int closed = level < mLevels.length ? mBucketCounts[level] : 0;
+            if (open && closed < levels[level].length / 2) {
+                levels[level][2 * closed] = min;
+                levels[level][2 * closed + 1] = max;
+            }
+        }
+        return new PeakIndex(frameCount, mBaseFrames, mFactor, levels, false);
+    }
+
+    private long bucketCount(long frameCount, int level) {
+        long bucketFrames = mBaseFrames;
+        for (int i = 0; i < level; i++)
+            bucketFrames *= mFactor;
+        return (frameCount + bucketFrames - 1) / bucketFrames;
+    }
+
+    private void add(short sample) {
+        if (mOpenParts[0] == 0) {
+            mOpenMin[0] = sample;
+            mOpenMax[0] = sample;
+        } else if (sample < mOpenMin[0]) {
+            mOpenMin[0] = sample;
+        } else if (sample > mOpenMax[0]) {
+            mOpenMax[0] = sample;
+        }
+        mOpenParts[0]++;
+        mSampleCount++;
+        if (mOpenParts[0] == mBaseSamples)
+            close(0);
+    }
+
+    private void close(int level) {
+        short min = mOpenMin[level];
+        short max = mOpenMax[level];
+        mOpenParts[level] = 0;
+        if (2 * mBucketCounts[level] == mLevels[level].length)
+            mLevels[level] = Arrays.copyOf(mLevels[level], 2 * mLevels[level].length);
+        mLevels[level][2 * mBucketCounts[level]] = min;
+        mLevels[level][2 * mBucketCounts[level] + 1] = max;
+        mBucketCounts[level]++;
+
+        int parent = level + 1;
+        if (parent == mLevels.length)
+            addLevel();
+        if (mOpenParts[parent] == 0) {
+            mOpenMin[parent] = min;
+            mOpenMax[parent] = max;
+        } else {
+            mOpenMin[parent] = (short) Math.min(mOpenMin[parent], min);
+            mOpenMax[parent] = (short) Math.max(mOpenMax[parent], max);
+        }
+        if (++mOpenParts[parent] == mFactor)
+            close(parent);
+    }
+
+    private void addLevel() {
+        int levels = mLevels.length + 1;
+        mLevels = Arrays.copyOf(mLevels, levels);
+        mLevels[levels - 1] = new short[2 * INITIAL_BUCKETS];
+        mBucketCounts = Arrays.copyOf(mBucketCounts, levels);
+        mOpenMin = Arrays.copyOf(mOpenMin, levels);
+        mOpenMax = Arrays.copyOf(mOpenMax, levels);
+        mOpenParts = Arrays.copyOf(mOpenParts, levels);
+    }
+}
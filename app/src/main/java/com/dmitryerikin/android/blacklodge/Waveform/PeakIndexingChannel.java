@@ -0,0 +1,67 @@
+package com.dmitryerikin.android.blacklodge.Waveform;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Channel which feeds 16-bit PCM written to it into a PeakIndexBuilder before passing it
+ * to the wrapped channel. Closing it closes the wrapped channel and writes the index.
+ */
+public class PeakIndexingChannel implements WritableByteChannel {
+
+    private final WritableByteChannel mChannel;
+    private final PeakIndexBuilder mBuilder;
+    private final File mIndexFile;
+    private volatile PeakIndex mIndex;
+
+    /**
+     *
+     * @param channel - channel to write to
+     * @param builder - builder used by this channel only
+     * @param indexFile - file the index is written to on close, null to keep it in memory
+     */
+    public PeakIndexingChannel(WritableByteChannel channel, PeakIndexBuilder builder, File indexFile) {
+        mChannel = channel;
+        mBuilder = builder;
+        mIndexFile = indexFile;
+    }
+
+    /**
+     * @return index of everything written, null until the channel is closed
+     */
+    public PeakIndex getIndex() {
+        return mIndex;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int start = src.position();
+        int limit = src.limit();
+        int written = mChannel.write(src);
+        // only what the wrapped channel took, the rest comes again with the next write
+        src.position(start).limit(start + written);
+        mBuilder.update(src);
+        src.limit(limit).position(start + written);
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mChannel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mIndex != null)
+            return;
+        try {
+            mChannel.close();
+        } finally {
+            mIndex = mBuilder.build();
+            if (mIndexFile != null)
+                mIndex.write(mIndexFile);
+        }
+    }
+}
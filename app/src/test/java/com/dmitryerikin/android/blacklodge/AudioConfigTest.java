@@ -0,0 +1,35 @@
+package com.dmitryerikin.android.blacklodge;
+
+import android.media.AudioFormat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AudioConfigTest {
+
+    @Test
+    public void encodings_matchAudioFormat() {
+        assertEquals(AudioFormat.ENCODING_PCM_16BIT, AudioConfig.ENCODING_PCM_16BIT);
+        assertEquals(AudioFormat.ENCODING_PCM_8BIT, AudioConfig.ENCODING_PCM_8BIT);
+        assertEquals(AudioFormat.ENCODING_PCM_FLOAT, AudioConfig.ENCODING_PCM_FLOAT);
+        assertEquals(AudioFormat.ENCODING_PCM_24BIT_PACKED, AudioConfig.ENCODING_PCM_24BIT_PACKED);
+        assertEquals(AudioFormat.ENCODING_PCM_32BIT, AudioConfig.ENCODING_PCM_32BIT);
+    }
+
+    @Test
+    public void frameSize_coversInputAndOutputMasks() {
+        assertEquals(4, config(AudioFormat.CHANNEL_IN_STEREO, AudioFormat.ENCODING_PCM_16BIT).getFrameSize());
+        assertEquals(2, config(AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT).getFrameSize());
+        assertEquals(4, config(AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT).getFrameSize());
+        assertEquals(1, config(AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_8BIT).getFrameSize());
+        assertEquals(8, config(AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_FLOAT).getFrameSize());
+        assertEquals(24, config(AudioFormat.CHANNEL_OUT_5POINT1, AudioFormat.ENCODING_PCM_FLOAT).getFrameSize());
+        assertEquals(1, config(AudioFormat.CHANNEL_CONFIGURATION_MONO, AudioFormat.ENCODING_PCM_8BIT).getFrameSize());
+        assertEquals(2, config(AudioFormat.CHANNEL_CONFIGURATION_STEREO, AudioFormat.ENCODING_PCM_8BIT).getFrameSize());
+    }
+
+    private static AudioConfig config(int channelConfig, int audioFormat) {
+        return new AudioConfig(0, 44100, channelConfig, audioFormat);
+    }
+}
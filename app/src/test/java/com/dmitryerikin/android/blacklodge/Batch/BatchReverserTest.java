@@ -0,0 +1,145 @@
+package com.dmitryerikin.android.blacklodge.Batch;
+
+import com.dmitryerikin.android.blacklodge.AudioConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BatchReverserTest {
+
+    private static final int FRAME_SIZE = 4;
+
+    private File mInputDirectory;
+    private File mOutputDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mInputDirectory = createDirectory("inputs");
+        mOutputDirectory = createDirectory("outputs");
+    }
+
+    @After
+    public void tearDown() {
+        deleteDirectory(mInputDirectory);
+        deleteDirectory(mOutputDirectory);
+    }
+
+    @Test
+    public void reverse_reversesEveryFileOfDirectory() throws Exception {
+        for (int i = 0; i < 6; i++)
+            writeCounting(new File(mInputDirectory, "take" + i + ".pcm"), 100000 + i * 7919);
+        List<File> inputs = BatchReverser.listInputs(mInputDirectory);
+        assertEquals(6, inputs.size());
+
+        BatchReport report = new BatchReverser(stereo16Bit(), 3, IoBudget.unlimited())
+                .reverse(inputs, mOutputDirectory);
+
+        assertEquals(6, report.getSucceededCount());
+        assertEquals(0, report.getFailedCount());
+        long totalBytes = 0L;
+        for (BatchReport.FileResult result : report.getResults()) {
+            int frames = (int) (result.getInput().length() / FRAME_SIZE);
+            assertEquals(frames * FRAME_SIZE, result.getBytes());
+            assertTrue(result.getBytesPerSecond() > 0.0);
+            assertReversedCounting(result.getOutput(), frames);
+            totalBytes += result.getBytes();
+        }
+        assertEquals(totalBytes, report.getTotalBytes());
+        assertTrue(report.getBytesPerSecond() > 0.0);
+        assertTrue(report.format().contains("6 of 6 files reversed"));
+    }
+
+    @Test
+    public void reverse_reportsFailedFileAndGoesOn() throws Exception {
+        File good = new File(mInputDirectory, "good.pcm");
+        writeCounting(good, 4096);
+        File missing = new File(mInputDirectory, "missing.pcm");
+        List<File> inputs = new ArrayList<>();
+        inputs.add(missing);
+        inputs.add(good);
+
+        BatchReport report = new BatchReverser(stereo16Bit(), 2, IoBudget.unlimited())
+                .reverse(inputs, mOutputDirectory);
+
+        assertEquals(1, report.getFailedCount());
+        assertFalse(report.getResults().get(0).isSucceeded());
+        assertNotNull(report.getResults().get(0).getError());
+        assertFalse(report.getResults().get(0).getOutput().exists());
+        assertTrue(report.getResults().get(1).isSucceeded());
+        assertReversedCounting(report.getResults().get(1).getOutput(), 4096);
+    }
+
+    @Test
+    public void reverse_staysWithinSharedIoBudget() throws Exception {
+        for (int i = 0; i < 4; i++)
+            writeCounting(new File(mInputDirectory, "take" + i + ".pcm"), 256 * 1024);
+        // 4 MB reversed means 8 MB read and written, a second at 8 MB/s
+        IoBudget budget = new IoBudget(8L * 1024 * 1024, 0L);
+
+        BatchReport report = new BatchReverser(stereo16Bit(), 4, budget)
+                .reverse(BatchReverser.listInputs(mInputDirectory), mOutputDirectory);
+
+        assertEquals(4, report.getSucceededCount());
+        assertTrue("took " + report.getWallNanos() / 1000000L + " ms", report.getWallNanos() >= 900000000L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reverse_rejectsOutputOverwritingInput() throws Exception {
+        File input = new File(mInputDirectory, "take.pcm");
+        writeCounting(input, 16);
+        List<File> inputs = new ArrayList<>();
+        inputs.add(input);
+        new BatchReverser(stereo16Bit(), 1, IoBudget.unlimited()).reverse(inputs, mInputDirectory);
+    }
+
+    private static AudioConfig stereo16Bit() {
+        return new AudioConfig(0, 44100, 12, AudioConfig.ENCODING_PCM_16BIT);
+    }
+
+    private static File createDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+        assertTrue(directory.delete() && directory.mkdir());
+        return directory;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        directory.delete();
+    }
+
+    private static void writeCounting(File file, int frames) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate(frames * FRAME_SIZE + 1);
+        for (int frame = 0; frame < frames; frame++)
+            content.putInt(frame);
+        // trailing incomplete frame, dropped by the reversal
+        content.put((byte) 1);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.array());
+        }
+    }
+
+    private static void assertReversedCounting(File file, int frames) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.readFully(content);
+        }
+        assertEquals(frames * FRAME_SIZE, content.length);
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        for (int frame = frames - 1; frame >= 0; frame--)
+            assertEquals(frame, buffer.getInt());
+    }
+}
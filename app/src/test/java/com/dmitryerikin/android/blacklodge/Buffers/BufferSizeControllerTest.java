@@ -0,0 +1,95 @@
+package com.dmitryerikin.android.blacklodge.Buffers;
+
+import com.dmitryerikin.android.blacklodge.AudioConfig;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class BufferSizeControllerTest {
+
+    private static final int FRAME_SIZE = 4;
+    private static final int SAMPLE_RATE = 1000;
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void lateTransfer_growsAndCleanAudio_shrinksAboveGlitchedSize() {
+        BufferSizeController controller = new BufferSizeController(FRAME_SIZE, SAMPLE_RATE, 400, 6400, 400);
+        assertEquals(100, controller.getChunkSize());
+        assertEquals(100L * MILLIS, controller.getBufferNanos());
+        assertFalse(controller.onTransfer(100, 25L * MILLIS));
+        assertTrue(controller.onTransfer(100, 150L * MILLIS));
+        assertEquals(800, controller.getBufferSize());
+        assertEquals(1L, controller.getGlitchCount());
+
+        assertEquals(600, runClean(controller));
+        assertEquals(448, runClean(controller));
+        // a quarter less would be the size which glitched
+        assertEquals(448, runClean(controller));
+        assertEquals(1L, controller.getGlitchCount());
+    }
+
+    @Test
+    public void sizes_stayWithinBoundsInWholeFrames() {
+        BufferSizeController controller = new BufferSizeController(FRAME_SIZE, SAMPLE_RATE, 401, 3000, 99999);
+        assertEquals(400, controller.getMinBufferSize());
+        assertEquals(3000, controller.getMaxBufferSize());
+        assertEquals(3000, controller.getBufferSize());
+        assertEquals(748, controller.getMaxChunkSize());
+        assertFalse(controller.onGlitch());
+        assertEquals(3000, controller.getBufferSize());
+
+        controller = new BufferSizeController(FRAME_SIZE, SAMPLE_RATE, 400, 3000, 0);
+        assertEquals(400, controller.getBufferSize());
+        for (int i = 0; i < 10; i++)
+            controller.onGlitch();
+        assertEquals(3000, controller.getBufferSize());
+        assertEquals(10L, controller.getGlitchCount());
+    }
+
+    @Test
+    public void store_keepsSizesPerKeyAcrossInstances() throws IOException {
+        File file = File.createTempFile("buffer_sizes", ".properties");
+        file.delete();
+        try {
+            AudioConfig config = new AudioConfig(0, 44100, 12, 2);
+            String capture = BufferSizeStore.keyOf("phone 30", BufferSizeStore.CAPTURE, config);
+            String playback = BufferSizeStore.keyOf("phone 30", BufferSizeStore.PLAYBACK, config);
+            assertNotEquals(capture, playback);
+
+            BufferSizeStore store = new BufferSizeStore(file);
+            assertEquals(123, store.get(capture, 123));
+            store.put(capture, 7056);
+            store.put(playback, 3528);
+            assertTrue(file.isFile());
+
+            BufferSizeStore reopened = new BufferSizeStore(file);
+            assertEquals(7056, reopened.get(capture, 123));
+            assertEquals(3528, reopened.get(playback, 123));
+            assertEquals(123, reopened.get(BufferSizeStore.keyOf("tablet 30", BufferSizeStore.CAPTURE, config), 123));
+            assertFalse(new File(file.getPath() + ".tmp").exists());
+
+            BufferSizeStore memory = new BufferSizeStore(null);
+            memory.put(capture, 1);
+            assertEquals(1, memory.get(capture, 123));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * @return buffer size after STABLE_SECONDS of clean audio in chunks
+     */
+    private static int runClean(BufferSizeController controller) {
+        long frames = 0L;
+        while (frames < (long) BufferSizeController.STABLE_SECONDS * SAMPLE_RATE) {
+            int chunk = controller.getChunkSize();
+            controller.onTransfer(chunk, 10L * MILLIS);
+            frames += chunk / FRAME_SIZE;
+        }
+        return controller.getBufferSize();
+    }
+}
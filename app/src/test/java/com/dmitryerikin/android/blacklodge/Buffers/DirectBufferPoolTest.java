@@ -0,0 +1,113 @@
+package com.dmitryerikin.android.blacklodge.Buffers;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class DirectBufferPoolTest {
+
+    @Test
+    public void acquire_roundsUpToSizeClass() {
+        DirectBufferPool pool = new DirectBufferPool(2);
+        ByteBuffer small = pool.acquire(10);
+        ByteBuffer exact = pool.acquire(8192);
+        ByteBuffer odd = pool.acquire(8193);
+        assertEquals(DirectBufferPool.MIN_CLASS_SIZE, small.capacity());
+        assertEquals(10, small.limit());
+        assertEquals(8192, exact.capacity());
+        assertEquals(16384, odd.capacity());
+        assertEquals(8193, odd.limit());
+        assertTrue(odd.isDirect());
+        assertEquals(ByteOrder.nativeOrder(), odd.order());
+    }
+
+    @Test
+    public void steadyStateCycles_reuseBuffers() {
+        DirectBufferPool pool = new DirectBufferPool(2);
+        for (int cycle = 0; cycle < 100; cycle++) {
+            ByteBuffer record = pool.acquire(14336);
+            ByteBuffer play = pool.acquire(3584);
+            record.position(100);
+            pool.release(record);
+            pool.release(play);
+        }
+        assertEquals(2L, pool.getMissCount());
+        assertEquals(198L, pool.getHitCount());
+        assertEquals(0L, pool.getOutstandingCount());
+        assertEquals(16384 + 4096, pool.getPooledBytes());
+        assertEquals(0, pool.acquire(14336).position());
+    }
+
+    @Test
+    public void acquire_resetsOrderOfReusedBuffer() {
+        DirectBufferPool pool = new DirectBufferPool(1);
+        ByteOrder other = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN
+                ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        ByteBuffer first = pool.acquire(100);
+        first.order(other);
+        pool.release(first);
+        ByteBuffer second = pool.acquire(100);
+        assertSame(first, second);
+        assertEquals(ByteOrder.nativeOrder(), second.order());
+    }
+
+    @Test
+    public void release_dropsBuffersOfFullClass() {
+        DirectBufferPool pool = new DirectBufferPool(1);
+        ByteBuffer first = pool.acquire(4096);
+        ByteBuffer second = pool.acquire(4096);
+        pool.release(first);
+        pool.release(second);
+        assertEquals(4096L, pool.getPooledBytes());
+        assertSame(first, pool.acquire(4096));
+        assertNotSame(second, pool.acquire(4096));
+    }
+
+    @Test
+    public void oversizedAndForeignBuffers_areNotPooled() {
+        DirectBufferPool pool = new DirectBufferPool(2);
+        ByteBuffer huge = pool.acquire(DirectBufferPool.MAX_CLASS_SIZE + 1);
+        assertEquals(DirectBufferPool.MAX_CLASS_SIZE + 1, huge.capacity());
+        pool.release(huge);
+        pool.acquire(100);
+        pool.release(ByteBuffer.allocateDirect(5000));
+        pool.release(ByteBuffer.allocate(4096));
+        assertEquals(0L, pool.getPooledBytes());
+        assertEquals(0L, pool.getHitCount());
+    }
+
+    @Test
+    public void concurrentAcquireRelease_neverSharesBuffer() throws InterruptedException {
+        final DirectBufferPool pool = new DirectBufferPool(4);
+        final int threads = 8;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicBoolean shared = new AtomicBoolean();
+        for (int t = 0; t < threads; t++) {
+            final byte marker = (byte) t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        ByteBuffer buffer = pool.acquire(4096);
+                        buffer.put(0, marker);
+                        buffer.put(4095, marker);
+                        Thread.yield();
+                        if (buffer.get(0) != marker || buffer.get(4095) != marker)
+                            shared.set(true);
+                        pool.release(buffer);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertFalse(shared.get());
+        assertEquals(0L, pool.getOutstandingCount());
+        assertEquals(threads * 20000L, pool.getHitCount() + pool.getMissCount());
+    }
+}
@@ -0,0 +1,128 @@
+package com.dmitryerikin.android.blacklodge.Buffers;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import static org.junit.Assert.*;
+
+public class SpscByteRingTest {
+
+    @Test
+    public void capacity_isRoundedUpToPowerOfTwo() {
+        assertEquals(1024, new SpscByteRing(1000).capacity());
+        assertEquals(1024, new SpscByteRing(1024).capacity());
+        assertEquals(1, new SpscByteRing(1).capacity());
+    }
+
+    @Test
+    public void offerAndDrain_keepOrderAcrossWrap() throws IOException {
+        SpscByteRing ring = new SpscByteRing(16);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        byte next = 0;
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int round = 0; round < 100; round++) {
+            byte[] chunk = new byte[1 + round % 11];
+            for (int i = 0; i < chunk.length; i++)
+                chunk[i] = next++;
+            assertTrue(ring.offer(ByteBuffer.wrap(chunk)));
+            expected.write(chunk);
+            ring.drainTo(channel, 1 + round % 7);
+            if (ring.size() > 5)
+                ring.drainTo(channel, Integer.MAX_VALUE);
+        }
+        ring.drainTo(channel, Integer.MAX_VALUE);
+        assertTrue(ring.isEmpty());
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+
+    @Test
+    public void offer_dropsWholeChunkOnOverrun() throws IOException {
+        SpscByteRing ring = new SpscByteRing(16);
+        assertTrue(ring.offer(ByteBuffer.allocate(10)));
+        ByteBuffer chunk = ByteBuffer.allocate(7);
+        assertFalse(ring.offer(chunk));
+        assertEquals(0, chunk.position());
+        assertEquals(10, ring.size());
+        assertEquals(1L, ring.getOverrunCount());
+        assertEquals(7L, ring.getOverrunBytes());
+        assertEquals(10, ring.getHighWaterMark());
+
+        ring.drainTo(Channels.newChannel(new ByteArrayOutputStream()), 4);
+        assertTrue(ring.offer(ByteBuffer.allocate(10)));
+        assertEquals(16, ring.getHighWaterMark());
+
+        ring.reset();
+        assertTrue(ring.isEmpty());
+        assertEquals(0L, ring.getOverrunCount());
+        assertEquals(0, ring.getHighWaterMark());
+    }
+
+    @Test
+    public void producerAndDrainer_transferStreamInOrder() throws Exception {
+        final SpscByteRing ring = new SpscByteRing(64 * 1024);
+        final RingDrainer drainer = new RingDrainer(ring, 16 * 1024, 1_000_000L);
+        final long totalBytes = 32L * 1024L * 1024L;
+        final SequenceCheckingChannel channel = new SequenceCheckingChannel();
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer chunk = ByteBuffer.allocate(3584);
+                byte next = 0;
+                long offered = 0L;
+                while (offered < totalBytes) {
+                    chunk.clear();
+                    while (chunk.hasRemaining())
+                        chunk.put(next++);
+                    chunk.flip();
+                    while (!ring.offer(chunk))
+                        Thread.yield();
+                    offered += chunk.capacity();
+                }
+                drainer.finish();
+            }
+        });
+        producer.start();
+        long drained = drainer.drainUntilFinished(channel);
+        producer.join();
+
+        assertTrue(drained >= totalBytes);
+        assertEquals(0L, drained % 3584);
+        assertEquals(drained, channel.mBytesWritten);
+        assertTrue(channel.mInOrder);
+        assertTrue(ring.getHighWaterMark() <= ring.capacity());
+    }
+
+    private static class SequenceCheckingChannel implements WritableByteChannel {
+
+        private long mBytesWritten;
+        private byte mExpected;
+        private boolean mInOrder = true;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            while (src.hasRemaining()) {
+                if (src.get() != mExpected++)
+                    mInOrder = false;
+            }
+            mBytesWritten += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
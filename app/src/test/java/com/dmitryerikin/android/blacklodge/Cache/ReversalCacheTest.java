@@ -0,0 +1,128 @@
+package com.dmitryerikin.android.blacklodge.Cache;
+
+import com.dmitryerikin.android.blacklodge.AudioConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class ReversalCacheTest {
+
+    private static final AudioConfig CONFIG = new AudioConfig(0, 44100, 12, AudioConfig.ENCODING_PCM_16BIT);
+
+    private File mDirectory;
+    private File mCacheDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("cache", "");
+        mDirectory.delete();
+        mDirectory.mkdirs();
+        mCacheDirectory = new File(mDirectory, "reversals");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(mDirectory);
+    }
+
+    @Test
+    public void fingerprint_changesWithContentConfigAndTime() throws IOException {
+        File original = write("original", 1024 * 1024, (byte) 1);
+        ContentFingerprint fingerprint = ContentFingerprint.of(original, CONFIG);
+        assertEquals(fingerprint, ContentFingerprint.of(original, CONFIG));
+        assertNotEquals(fingerprint, ContentFingerprint.of(original,
+                new AudioConfig(0, 22050, 12, AudioConfig.ENCODING_PCM_16BIT)));
+
+        long modified = original.lastModified();
+        try (RandomAccessFile raf = new RandomAccessFile(original, "rw")) {
+            raf.seek(original.length() - 1);
+            raf.write(7);
+        }
+        original.setLastModified(modified);
+        assertNotEquals(fingerprint, ContentFingerprint.of(original, CONFIG));
+
+        File copy = write("copy", 1024 * 1024, (byte) 1);
+        copy.setLastModified(modified - 10000L);
+        assertNotEquals(fingerprint, ContentFingerprint.of(copy, CONFIG));
+    }
+
+    @Test
+    public void put_movesReversalInAndGetServesIt() throws IOException {
+        ReversalCache cache = new ReversalCache(mCacheDirectory, 1024 * 1024);
+        ContentFingerprint fingerprint = ContentFingerprint.of(write("original", 1000, (byte) 1), CONFIG);
+        assertNull(cache.get(fingerprint));
+
+        File reversed = write("reversed", 1000, (byte) 2);
+        File entry = cache.put(fingerprint, reversed);
+        assertFalse(reversed.exists());
+        assertEquals(entry, cache.get(fingerprint));
+        assertEquals(1000L, entry.length());
+        assertEquals(1000L, cache.getSizeBytes());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedOverBudget() throws IOException {
+        ReversalCache cache = new ReversalCache(mCacheDirectory, 3000);
+        ContentFingerprint[] fingerprints = new ContentFingerprint[4];
+        for (int i = 0; i < 3; i++) {
+            fingerprints[i] = ContentFingerprint.of(write("original" + i, 1000 + i, (byte) i), CONFIG);
+            cache.put(fingerprints[i], write("reversed" + i, 1000, (byte) i));
+        }
+        assertEquals(3, cache.getEntryCount());
+        // makes the first one recent, the second one is the eldest now
+        assertNotNull(cache.get(fingerprints[0]));
+
+        fingerprints[3] = ContentFingerprint.of(write("original3", 1003, (byte) 3), CONFIG);
+        cache.put(fingerprints[3], write("reversed3", 1000, (byte) 3));
+        assertEquals(3, cache.getEntryCount());
+        assertEquals(3000L, cache.getSizeBytes());
+        assertNotNull(cache.get(fingerprints[0]));
+        assertNull(cache.get(fingerprints[1]));
+        assertNotNull(cache.get(fingerprints[2]));
+        assertNotNull(cache.get(fingerprints[3]));
+
+        File tooLarge = write("large", 4000, (byte) 4);
+        assertEquals(tooLarge, cache.put(fingerprints[1], tooLarge));
+        assertEquals(3, cache.getEntryCount());
+    }
+
+    @Test
+    public void newCache_picksUpEntriesOfDirectory() throws IOException {
+        ReversalCache cache = new ReversalCache(mCacheDirectory, 1024 * 1024);
+        ContentFingerprint fingerprint = ContentFingerprint.of(write("original", 1000, (byte) 1), CONFIG);
+        cache.put(fingerprint, write("reversed", 1000, (byte) 2));
+
+        ReversalCache reopened = new ReversalCache(mCacheDirectory, 1024 * 1024);
+        assertEquals(1, reopened.getEntryCount());
+        assertNotNull(reopened.get(fingerprint));
+        reopened.clear();
+        assertEquals(0, new ReversalCache(mCacheDirectory, 1024 * 1024).getEntryCount());
+    }
+
+    private File write(String name, int size, byte value) throws IOException {
+        File file = new File(mDirectory, name);
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++)
+            content[i] = (byte) (value + i);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                deleteRecursively(child);
+        file.delete();
+    }
+}
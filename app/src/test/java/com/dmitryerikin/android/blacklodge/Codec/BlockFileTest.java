@@ -0,0 +1,212 @@
+package com.dmitryerikin.android.blacklodge.Codec;
+
+import com.dmitryerikin.android.blacklodge.Exceptions.ReversalCancelledException;
+import com.dmitryerikin.android.blacklodge.Reversal.ReversalProgress;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class BlockFileTest {
+
+    private static final int CHANNELS = 2;
+    private static final int FRAME_SIZE = CHANNELS * 2;
+    private static final int FRAMES_PER_BLOCK = 441;
+
+    @Test
+    public void writer_buildsIndexAndCompresses() throws IOException {
+        File file = writeSine(10000, 1000);
+        try (BlockFileReader reader = new BlockFileReader(file)) {
+            assertFalse(reader.isRecovered());
+            assertEquals(44100, reader.getSampleRate());
+            assertEquals(CHANNELS, reader.getChannelCount());
+            assertEquals(10000, reader.getFrameCount());
+            assertEquals(23, reader.getBlockCount());
+            assertEquals(10000 - 22 * FRAMES_PER_BLOCK, reader.getBlockFrames(22));
+            assertTrue(file.length() < 10000 * FRAME_SIZE / 3);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void reversedSource_mirrorsForwardSource() throws IOException {
+        File file = writeSine(5000, 333);
+        try {
+            byte[] forward = readAll(file, false, 1000);
+            byte[] reversed = readAll(file, true, 777);
+            assertEquals(5000 * FRAME_SIZE, forward.length);
+            assertArrayEquals(reverseFrames(forward), reversed);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void rangedSource_decodesOnlyItsFramesBothWays() throws IOException {
+        File file = writeSine(5000, 1000);
+        try {
+            byte[] forward = readAll(file, false, 1000);
+            long[][] ranges = {{0, 5000}, {1000, 1300}, {450, 460}, {441, 882}, {4999, 9999}, {2000, 2000}};
+            for (long[] range : ranges) {
+                int from = (int) range[0] * FRAME_SIZE;
+                int to = (int) Math.min(range[1], 5000) * FRAME_SIZE;
+                byte[] slice = java.util.Arrays.copyOfRange(forward, from, to);
+                assertArrayEquals(slice, readRange(file, false, range[0], range[1]));
+                assertArrayEquals(reverseFrames(slice), readRange(file, true, range[0], range[1]));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void reader_recoversIndexOfInterruptedRecording() throws IOException {
+        File file = writeSine(5000, 4096);
+        try {
+            byte[] forward = readAll(file, false, 4096);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(raf.length() - 30);
+            }
+            try (BlockFileReader reader = new BlockFileReader(file)) {
+                assertTrue(reader.isRecovered());
+                assertEquals(12, reader.getBlockCount());
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(raf.length() - 200);
+            }
+            try (BlockFileReader reader = new BlockFileReader(file)) {
+                assertEquals(11, reader.getBlockCount());
+                assertEquals(11 * FRAMES_PER_BLOCK, reader.getFrameCount());
+            }
+            byte[] recovered = readAll(file, false, 4096);
+            assertArrayEquals(java.util.Arrays.copyOf(forward, recovered.length), recovered);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void reverser_writesReversedBlockFile() throws IOException {
+        File file = writeSine(3000, 512);
+        File reversedFile = File.createTempFile("reversed", ".blk");
+        try {
+            long bytesWritten = new BlockFileReverser().reverse(file, reversedFile);
+            assertEquals(3000 * FRAME_SIZE, bytesWritten);
+            assertTrue(BlockFileReader.isBlockFile(reversedFile));
+
+            short[] expected = toShorts(reverseFrames(readAll(file, false, 4096)));
+            short[] actual = toShorts(readAll(reversedFile, false, 4096));
+            assertEquals(expected.length, actual.length);
+            for (int i = 0; i < expected.length; i++)
+                assertEquals(expected[i], actual[i], 1200);
+        } finally {
+            file.delete();
+            reversedFile.delete();
+        }
+    }
+
+    @Test
+    public void reverser_cancelDeletesPartialOutput() throws IOException {
+        File file = writeSine(20000, 4096);
+        File reversedFile = File.createTempFile("reversed", ".blk");
+        final ReversalProgress[] progress = new ReversalProgress[1];
+        progress[0] = new ReversalProgress(new ReversalProgress.Listener() {
+            @Override
+            public void onProgress(long bytesProcessed, long totalBytes, long bytesPerSecond) {
+                if (bytesProcessed >= totalBytes / 2)
+                    progress[0].cancel();
+            }
+        }, 0L);
+        try {
+            new BlockFileReverser().reverse(file, reversedFile, progress[0]);
+            fail();
+        } catch (ReversalCancelledException expected) {
+            assertEquals(20000 * FRAME_SIZE / 2, progress[0].getBytesProcessed(), FRAMES_PER_BLOCK * FRAME_SIZE);
+            assertFalse(reversedFile.exists());
+        } finally {
+            file.delete();
+            reversedFile.delete();
+        }
+    }
+
+    @Test
+    public void isBlockFile_rejectsRawPcm() throws IOException {
+        File file = File.createTempFile("raw", ".pcm");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(4096);
+        }
+        try {
+            assertFalse(BlockFileReader.isBlockFile(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static File writeSine(int frames, int chunkSize) throws IOException {
+        ByteBuffer pcm = ByteBuffer.allocate(frames * FRAME_SIZE).order(ByteOrder.nativeOrder());
+        for (int f = 0; f < frames; f++)
+            for (int c = 0; c < CHANNELS; c++)
+                pcm.putShort((short) (10000 * Math.sin(2 * Math.PI * (300 + 200 * c) * f / 44100.0)));
+        pcm.flip();
+
+        File file = File.createTempFile("original", ".blk");
+        try (BlockFileWriter writer = new BlockFileWriter(file, 44100, CHANNELS, FRAMES_PER_BLOCK,
+                ByteOrder.nativeOrder())) {
+            while (pcm.hasRemaining()) {
+                ByteBuffer chunk = pcm.duplicate();
+                chunk.limit(Math.min(pcm.limit(), pcm.position() + chunkSize));
+                assertEquals(chunk.remaining(), writer.write(chunk));
+                pcm.position(chunk.position());
+            }
+        }
+        assertTrue(BlockFileReader.isBlockFile(file));
+        return file;
+    }
+
+    private static byte[] readAll(File file, boolean reversed, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        try (BlockPcmSource source = new BlockPcmSource(file, reversed)) {
+            int bytesRead;
+            while ((bytesRead = source.read((ByteBuffer) buffer.clear())) != -1) {
+                assertEquals(0, bytesRead % FRAME_SIZE);
+                out.write(buffer.array(), 0, bytesRead);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readRange(File file, boolean reversed, long startFrame, long endFrame)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        try (BlockPcmSource source = new BlockPcmSource(file, reversed, startFrame, endFrame)) {
+            int bytesRead;
+            while ((bytesRead = source.read((ByteBuffer) buffer.clear())) != -1)
+                out.write(buffer.array(), 0, bytesRead);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] reverseFrames(byte[] content) {
+        int frames = content.length / FRAME_SIZE;
+        byte[] reversed = new byte[content.length];
+        for (int i = 0; i < frames; i++)
+            System.arraycopy(content, i * FRAME_SIZE, reversed, (frames - 1 - i) * FRAME_SIZE, FRAME_SIZE);
+        return reversed;
+    }
+
+    private static short[] toShorts(byte[] content) {
+        short[] samples = new short[content.length / 2];
+        ByteBuffer.wrap(content).order(ByteOrder.nativeOrder()).asShortBuffer().get(samples);
+        return samples;
+    }
+}
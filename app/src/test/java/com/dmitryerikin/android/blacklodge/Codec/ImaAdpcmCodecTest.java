@@ -0,0 +1,101 @@
+package com.dmitryerikin.android.blacklodge.Codec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class ImaAdpcmCodecTest {
+
+    @Test
+    public void encodedSize_isAboutAQuarter() {
+        ImaAdpcmCodec codec = new ImaAdpcmCodec(2);
+        assertEquals(0, codec.getEncodedSize(0));
+        assertEquals(8, codec.getEncodedSize(1));
+        assertEquals(8 + 1, codec.getEncodedSize(2));
+        assertEquals(8 + 4409, codec.getEncodedSize(4410));
+        assertEquals(4 + 2, new ImaAdpcmCodec(1).getEncodedSize(4));
+    }
+
+    @Test
+    public void sine_survivesWithHighSnr() {
+        int channels = 2;
+        int frames = 4410;
+        ByteBuffer pcm = sine(frames, channels);
+        ImaAdpcmCodec codec = new ImaAdpcmCodec(channels);
+        ByteBuffer encoded = ByteBuffer.allocate(codec.getEncodedSize(frames));
+        assertEquals(codec.getEncodedSize(frames), codec.encode(pcm.duplicate().order(pcm.order()), frames, encoded));
+        assertFalse(encoded.hasRemaining());
+        encoded.flip();
+
+        ByteBuffer decoded = ByteBuffer.allocate(pcm.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(pcm.capacity(), new ImaAdpcmCodec(channels).decode(encoded, frames, decoded));
+
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i < frames * channels; i++) {
+            int expected = pcm.getShort(i * 2);
+            int actual = decoded.getShort(i * 2);
+            signal += (double) expected * expected;
+            noise += (double) (expected - actual) * (expected - actual);
+        }
+        for (int c = 0; c < channels; c++)
+            assertEquals(pcm.getShort(c * 2), decoded.getShort(c * 2));
+        assertTrue("SNR too low", 10 * Math.log10(signal / noise) > 25);
+    }
+
+    @Test
+    public void blocks_decodeInAnyOrder() {
+        int channels = 1;
+        int frames = 1000;
+        ByteBuffer pcm = sine(frames * 3, channels);
+        ImaAdpcmCodec encoder = new ImaAdpcmCodec(channels);
+        int blockSize = encoder.getEncodedSize(frames);
+        ByteBuffer encoded = ByteBuffer.allocate(blockSize * 3);
+        for (int i = 0; i < 3; i++)
+            encoder.encode(pcm, frames, encoded);
+
+        ImaAdpcmCodec decoder = new ImaAdpcmCodec(channels);
+        byte[][] forward = new byte[3][];
+        for (int i = 0; i < 3; i++)
+            forward[i] = decodeBlock(decoder, encoded, i * blockSize, frames);
+        for (int i = 2; i >= 0; i--)
+            assertArrayEquals(forward[i], decodeBlock(decoder, encoded, i * blockSize, frames));
+    }
+
+    @Test
+    public void extremes_areClamped() {
+        ByteBuffer pcm = ByteBuffer.allocate(8 * 2).order(ByteOrder.LITTLE_ENDIAN);
+        short[] samples = {Short.MIN_VALUE, Short.MAX_VALUE, Short.MIN_VALUE, Short.MAX_VALUE,
+                Short.MAX_VALUE, Short.MAX_VALUE, Short.MIN_VALUE, Short.MIN_VALUE};
+        for (short sample : samples)
+            pcm.putShort(sample);
+        pcm.flip();
+        ImaAdpcmCodec codec = new ImaAdpcmCodec(1);
+        ByteBuffer encoded = ByteBuffer.allocate(codec.getEncodedSize(samples.length));
+        codec.encode(pcm, samples.length, encoded);
+        encoded.flip();
+        ByteBuffer decoded = ByteBuffer.allocate(pcm.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+        codec.decode(encoded, samples.length, decoded);
+        assertEquals(Short.MIN_VALUE, decoded.getShort(0));
+    }
+
+    private static byte[] decodeBlock(ImaAdpcmCodec codec, ByteBuffer encoded, int offset, int frames) {
+        ByteBuffer src = encoded.duplicate();
+        src.position(offset);
+        ByteBuffer pcm = ByteBuffer.allocate(frames * codec.getFrameSize());
+        codec.decode(src, frames, pcm);
+        return pcm.array();
+    }
+
+    private static ByteBuffer sine(int frames, int channels) {
+        ByteBuffer pcm = ByteBuffer.allocate(frames * channels * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int f = 0; f < frames; f++)
+            for (int c = 0; c < channels; c++)
+                pcm.putShort((short) (12000 * Math.sin(2 * Math.PI * (440 + 220 * c) * f / 44100.0)));
+        pcm.flip();
+        return pcm;
+    }
+}
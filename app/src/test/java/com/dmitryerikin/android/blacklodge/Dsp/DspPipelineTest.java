@@ -0,0 +1,175 @@
+package com.dmitryerikin.android.blacklodge.Dsp;
+
+import com.dmitryerikin.android.blacklodge.Reversal.ReversalProgress;
+import com.dmitryerikin.android.blacklodge.Waveform.PeakIndex;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+public class DspPipelineTest {
+
+    private static final int CHANNELS = 2;
+    private static final int FRAME_SIZE = 2 * CHANNELS;
+    private static final int THRESHOLD = 200;
+
+    private File mInput;
+    private File mOutput;
+    private File mScratch;
+
+    @Before
+    public void setUp() throws IOException {
+        mInput = File.createTempFile("input", ".pcm");
+        mOutput = File.createTempFile("output", ".pcm");
+        mScratch = File.createTempFile("scratch", ".pcm");
+        write(mInput, burst(1000, 5000, 1200));
+    }
+
+    @After
+    public void tearDown() {
+        mInput.delete();
+        mOutput.delete();
+        mScratch.delete();
+    }
+
+    @Test
+    public void fusedPass_matchesStagesRunOneByOne() throws IOException {
+        new DspPipeline(CHANNELS, 3000, stages()).run(mInput, DspPipeline.scan(mInput, CHANNELS), mOutput,
+                new ReversalProgress());
+        short[] fused = read(mOutput);
+
+        PcmStage[] stages = stages();
+        File input = mInput;
+        for (PcmStage stage : stages) {
+            new DspPipeline(CHANNELS, 3000, stage).run(input, DspPipeline.scan(input, CHANNELS), mScratch,
+                    new ReversalProgress());
+            copy(mScratch, mOutput);
+            input = mOutput;
+        }
+        short[] separate = read(mOutput);
+
+        assertArrayEquals(separate, fused);
+        int frames = fused.length / CHANNELS;
+        assertTrue(frames >= 5000 && frames < 7200);
+        // reversed, so the faded in start comes last
+        assertEquals(0, fused[fused.length - 1] / 100);
+        assertEquals(16000, peak(fused), 1);
+    }
+
+    @Test
+    public void fusedPass_readsAndWritesTheRangeOnce() throws IOException {
+        PeakIndex statistics = DspPipeline.scan(mInput, CHANNELS);
+        DspPipeline fused = new DspPipeline(CHANNELS, stages());
+        long written = fused.run(mInput, statistics, mOutput, new ReversalProgress());
+        assertEquals(mOutput.length(), written);
+        assertEquals(written, fused.getBytesRead());
+        assertTrue(written < mInput.length());
+
+        long separateRead = 0L;
+        long separateWritten = 0L;
+        File input = mInput;
+        for (PcmStage stage : stages()) {
+            DspPipeline pass = new DspPipeline(CHANNELS, stage);
+            pass.run(input, DspPipeline.scan(input, CHANNELS), mScratch, new ReversalProgress());
+            separateRead += pass.getBytesRead();
+            separateWritten += pass.getBytesWritten();
+            copy(mScratch, mOutput);
+            input = mOutput;
+        }
+        // even the trim pass reads only the trimmed frames, every pass reads and writes them once
+        assertEquals(4L * written, separateRead);
+        assertEquals(4L * written, separateWritten);
+    }
+
+    @Test
+    public void stages_workInPlaceOnTheBlock() {
+        ShortBuffer samples = ByteBuffer.allocateDirect(400 * FRAME_SIZE).order(ByteOrder.nativeOrder())
+                .asShortBuffer();
+        for (int i = 0; i < samples.capacity(); i++)
+            samples.put(i, (short) 1000);
+        PassPlan plan = new PassPlan(CHANNELS, 400);
+        FadeStage fade = new FadeStage(100, 100);
+        fade.prepare(null, plan);
+        fade.process(samples, 399, true);
+        // frame 399 of the stage is the first one of the block
+        assertEquals(5, samples.get(0));
+        assertEquals(1000, samples.get(200 * CHANNELS));
+        assertEquals(5, samples.get(samples.limit() - 1));
+
+        GainStage gain = new GainStage(40f);
+        gain.prepare(null, plan);
+        gain.process(samples, 0, false);
+        assertEquals(200, samples.get(0));
+        assertEquals(Short.MAX_VALUE, samples.get(200 * CHANNELS));
+    }
+
+    @Test
+    public void silence_trimsToNothing() throws IOException {
+        write(mInput, burst(3000, 0, 0));
+        DspPipeline pipeline = new DspPipeline(CHANNELS, new SilenceTrimStage(THRESHOLD, 0), new ReverseStage());
+        assertEquals(0L, pipeline.run(mInput, DspPipeline.scan(mInput, CHANNELS), mOutput, new ReversalProgress()));
+        assertEquals(0L, mOutput.length());
+        assertEquals(0L, pipeline.getBytesRead());
+    }
+
+    private static PcmStage[] stages() {
+        return new PcmStage[]{new SilenceTrimStage(THRESHOLD, 0), GainStage.normalizing(16000),
+                new FadeStage(100, 300), new ReverseStage()};
+    }
+
+    /**
+     * @return quiet noise, a loud tone, quiet noise again, the channels differing
+     */
+    private static short[] burst(int leadFrames, int soundFrames, int tailFrames) {
+        int frames = leadFrames + soundFrames + tailFrames;
+        short[] samples = new short[frames * CHANNELS];
+        for (int frame = 0; frame < frames; frame++) {
+            boolean sound = frame >= leadFrames && frame < leadFrames + soundFrames;
+            for (int channel = 0; channel < CHANNELS; channel++) {
+                double amplitude = sound ? 6000 + 2000 * channel : 50;
+                samples[frame * CHANNELS + channel] = (short) (amplitude * Math.sin(frame * 0.05 + channel));
+            }
+        }
+        return samples;
+    }
+
+    private static int peak(short[] samples) {
+        int peak = 0;
+        for (short sample : samples)
+            peak = Math.max(peak, Math.abs(sample));
+        return peak;
+    }
+
+    private static void write(File file, short[] samples) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.nativeOrder());
+        bytes.asShortBuffer().put(samples);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bytes.array());
+        }
+    }
+
+    private static short[] read(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.readFully(content);
+        }
+        short[] samples = new short[content.length / 2];
+        ByteBuffer.wrap(content).order(ByteOrder.nativeOrder()).asShortBuffer().get(samples);
+        return samples;
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        short[] samples = read(from);
+        write(to, samples);
+    }
+}
@@ -0,0 +1,116 @@
+package com.dmitryerikin.android.blacklodge.Dsp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import static org.junit.Assert.*;
+
+public class PolyphaseResamplerTest {
+
+    @Test
+    public void downmix_keepsLevelAndRatio() {
+        PolyphaseResampler resampler = new PolyphaseResampler(44100, 16000, 2, true);
+        short[] input = new short[44100 * 2];
+        for (int frame = 0; frame < 44100; frame++) {
+            input[2 * frame] = 12000;
+            input[2 * frame + 1] = 4000;
+        }
+        short[] output = resample(resampler, input, 1000);
+        assertEquals(16000, output.length, 1);
+        for (int i = resampler.getLatencyFrames(); i < output.length; i++)
+            assertEquals(8000, output[i], 2);
+    }
+
+    @Test
+    public void passbandTone_keepsAmplitudeAndStopbandToneIsRemoved() {
+        assertEquals(10000.0, peakAfterResampling(1000.0), 150.0);
+        assertEquals(10000.0, peakAfterResampling(6000.0), 300.0);
+        // would alias to 4 kHz without the filter
+        assertTrue(peakAfterResampling(12000.0) < 100.0);
+    }
+
+    @Test
+    public void upsampling_interpolatesBetweenInputFrames() {
+        PolyphaseResampler resampler = new PolyphaseResampler(16000, 48000, 1, false);
+        short[] input = tone(16000, 500.0, 16000);
+        short[] output = resample(resampler, input, 333);
+        assertEquals(48000, output.length, 1);
+        int delay = resampler.getLatencyFrames() * 3;
+        double maxError = 0.0;
+        for (int i = 2 * delay; i < output.length; i++) {
+            double expected = 10000.0 * Math.sin(2.0 * Math.PI * 500.0 * (i - delay + 0.5) / 48000.0);
+            maxError = Math.max(maxError, Math.abs(output[i] - expected));
+        }
+        assertTrue("max error " + maxError, maxError < 400.0);
+    }
+
+    @Test
+    public void channel_givesSameOutputForAnySplitAndAllocatesNothing() throws Exception {
+        short[] input = tone(44100, 440.0, 20000);
+        ByteBuffer bytes = ByteBuffer.allocate(input.length * 2).order(ByteOrder.nativeOrder());
+        bytes.asShortBuffer().put(input);
+
+        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        try (WritableByteChannel channel = new ResamplingByteChannel(Channels.newChannel(whole),
+                new PolyphaseResampler(44100, 16000, 1, false))) {
+            channel.write(bytes.duplicate());
+        }
+
+        ByteArrayOutputStream split = new ByteArrayOutputStream(whole.size());
+        ResamplingByteChannel channel = new ResamplingByteChannel(Channels.newChannel(split),
+                new PolyphaseResampler(44100, 16000, 1, false), 4096);
+        ByteBuffer src = bytes.duplicate();
+        src.limit(0);
+        int[] sizes = {1, 777, 3, 4096, 10000, 2};
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = 0L;
+        for (int i = 0; src.limit() < bytes.capacity(); i++) {
+            src.limit(Math.min(src.limit() + sizes[i % sizes.length], bytes.capacity()));
+            long before = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            channel.write(src);
+            allocated += bean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        }
+        channel.close();
+        // the stream grows on its own, the channel must not allocate beyond that
+        assertTrue("allocated " + allocated, allocated < 4L * whole.size());
+        assertArrayEquals(whole.toByteArray(), split.toByteArray());
+    }
+
+    private static double peakAfterResampling(double frequency) {
+        PolyphaseResampler resampler = new PolyphaseResampler(44100, 16000, 1, false);
+        short[] output = resample(resampler, tone(44100, frequency, 22050), 512);
+        double peak = 0.0;
+        for (int i = 4 * resampler.getLatencyFrames(); i < output.length; i++)
+            peak = Math.max(peak, Math.abs(output[i]));
+        return peak;
+    }
+
+    private static short[] tone(int rate, double frequency, int frames) {
+        short[] samples = new short[frames];
+        for (int i = 0; i < frames; i++)
+            samples[i] = (short) Math.round(10000.0 * Math.sin(2.0 * Math.PI * frequency * i / rate));
+        return samples;
+    }
+
+    private static short[] resample(PolyphaseResampler resampler, short[] input, int chunkSamples) {
+        ShortBuffer dst = ShortBuffer.allocate(resampler.getMaxOutputSamples(input.length) + 16);
+        ShortBuffer src = ShortBuffer.wrap(input);
+        while (src.hasRemaining()) {
+            ShortBuffer chunk = src.slice();
+            chunk.limit(Math.min(chunkSamples, chunk.limit()));
+            src.position(src.position() + chunk.limit());
+            resampler.process(chunk, dst);
+        }
+        short[] output = new short[dst.position()];
+        dst.flip();
+        dst.get(output);
+        return output;
+    }
+}
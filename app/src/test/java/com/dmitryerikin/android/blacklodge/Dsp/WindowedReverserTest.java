@@ -0,0 +1,108 @@
+package com.dmitryerikin.android.blacklodge.Dsp;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class WindowedReverserTest {
+
+    private static final int CHANNELS = 2;
+
+    @Test
+    public void withoutCrossfade_playsEveryWindowBackwards() {
+        WindowedReverser reverser = new WindowedReverser(CHANNELS, 100, 0);
+        short[] output = run(reverser, counting(1000), 37);
+        assertEquals(1000 * CHANNELS, output.length);
+        for (int frame = 0; frame < 1000; frame++) {
+            int window = frame / 100;
+            int expected = window * 100 + 99 - frame % 100;
+            assertEquals(expected, output[frame * CHANNELS]);
+            assertEquals(-expected, output[frame * CHANNELS + 1]);
+        }
+    }
+
+    @Test
+    public void crossfade_keepsSteadySignalSteady() {
+        WindowedReverser reverser = new WindowedReverser(CHANNELS, 160, 40);
+        short[] input = new short[4000 * CHANNELS];
+        Arrays.fill(input, (short) 10000);
+        short[] output = run(reverser, input, 64);
+        // 40 frames of fade-in from silence, after that the overlaps sum to the input
+        // up to the windows reaching into the silence that flushes the stage
+        for (int i = 0; i < 40 * CHANNELS; i += CHANNELS)
+            assertTrue(output[i] < 10000);
+        for (int i = 40 * CHANNELS; i < (4000 - 160) * CHANNELS; i++)
+            assertEquals(10000, output[i], 1);
+    }
+
+    @Test
+    public void output_startsOneWindowAfterInputAndKeepsPace() {
+        WindowedReverser reverser = new WindowedReverser(CHANNELS, 160, 40);
+        ShortBuffer dst = ShortBuffer.allocate(reverser.getMaxOutputSamples(CHANNELS));
+        long framesOut = 0L;
+        for (int frame = 0; frame < 10000; frame++) {
+            dst.clear();
+            framesOut += reverser.process(ShortBuffer.wrap(new short[CHANNELS]), dst) / CHANNELS;
+            long framesIn = frame + 1;
+            assertTrue(framesOut <= framesIn);
+            // output lags by at most one window, the latency of the stage
+            assertTrue(framesIn - framesOut <= reverser.getLatencyFrames());
+            if (framesIn < reverser.getLatencyFrames())
+                assertEquals(0L, framesOut);
+        }
+    }
+
+    @Test
+    public void process_allocatesNothing() {
+        WindowedReverser reverser = new WindowedReverser(CHANNELS, 4410, 551);
+        ShortBuffer src = ShortBuffer.wrap(counting(1024));
+        ShortBuffer dst = ShortBuffer.allocate(reverser.getMaxOutputSamples(src.capacity()));
+        for (int i = 0; i < 1000; i++) {
+            src.clear();
+            dst.clear();
+            reverser.process(src, dst);
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 1000; i++) {
+            src.clear();
+            dst.clear();
+            reverser.process(src, dst);
+        }
+        long allocated = bean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static short[] counting(int frames) {
+        short[] samples = new short[frames * CHANNELS];
+        for (int frame = 0; frame < frames; frame++) {
+            samples[frame * CHANNELS] = (short) frame;
+            samples[frame * CHANNELS + 1] = (short) -frame;
+        }
+        return samples;
+    }
+
+    /**
+     * Feeds input in chunks of chunkFrames and flushes with a window of silence.
+     */
+    private static short[] run(WindowedReverser reverser, short[] input, int chunkFrames) {
+        int flush = reverser.getLatencyFrames() * CHANNELS;
+        ShortBuffer src = ShortBuffer.allocate(input.length + flush);
+        src.put(input).clear();
+        ShortBuffer dst = ShortBuffer.allocate(reverser.getMaxOutputSamples(src.capacity()));
+        while (src.hasRemaining()) {
+            ShortBuffer chunk = src.slice();
+            chunk.limit(Math.min(chunkFrames * CHANNELS, chunk.limit()));
+            src.position(src.position() + chunk.limit());
+            reverser.process(chunk, dst);
+        }
+        short[] output = new short[input.length];
+        dst.flip();
+        dst.get(output);
+        return output;
+    }
+}
@@ -0,0 +1,90 @@
+package com.dmitryerikin.android.blacklodge.Metrics;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class AudioMetricsTest {
+
+    private static final int THREADS = 4;
+    private static final int UPDATES = 200000;
+
+    @Test
+    public void concurrentUpdates_areAllCounted() throws InterruptedException {
+        final AudioMetrics metrics = new AudioMetrics();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    for (int i = 0; i < UPDATES; i++) {
+                        metrics.add(AudioMetrics.Counter.PLAYED_BYTES, 4L);
+                        metrics.record(AudioMetrics.Distribution.PREFETCH_FILL_PERCENT, i % 101);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        AudioMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(4L * THREADS * UPDATES, snapshot.getCount(AudioMetrics.Counter.PLAYED_BYTES));
+        Histogram.Snapshot fill = snapshot.getHistogram(AudioMetrics.Distribution.PREFETCH_FILL_PERCENT);
+        assertEquals((long) THREADS * UPDATES, fill.getCount());
+        assertEquals(100L, fill.getMax());
+    }
+
+    @Test
+    public void snapshot_computesRatesBetweenSnapshots() throws InterruptedException {
+        AudioMetrics metrics = new AudioMetrics();
+        AudioMetrics.Snapshot earlier = metrics.snapshot();
+        metrics.add(AudioMetrics.Counter.CAPTURED_BYTES, 176400L);
+        Thread.sleep(100L);
+        AudioMetrics.Snapshot later = metrics.snapshot();
+
+        double rate = later.getRate(AudioMetrics.Counter.CAPTURED_BYTES, earlier);
+        assertTrue("rate " + rate, rate > 0.0 && rate <= 176400L * 10.0);
+        assertEquals(rate, later.getRate(AudioMetrics.Counter.CAPTURED_BYTES), rate * 0.5);
+
+        metrics.add(AudioMetrics.Counter.REVERSED_BYTES, 2000000L);
+        metrics.add(AudioMetrics.Counter.REVERSE_NANOS, 500000000L);
+        assertEquals(4000000.0, metrics.snapshot().getReverseBytesPerSecond(), 1e-6);
+
+        metrics.reset();
+        assertEquals(0L, metrics.snapshot().getCount(AudioMetrics.Counter.CAPTURED_BYTES));
+    }
+
+    @Test
+    public void updates_allocateNothing() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return;
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        AudioMetrics metrics = new AudioMetrics();
+        long threadId = Thread.currentThread().getId();
+        for (int round = 0; round < 3; round++) {
+            long before = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 100000; i++) {
+                long start = System.nanoTime();
+                metrics.add(AudioMetrics.Counter.CAPTURED_BYTES, i);
+                metrics.increment(AudioMetrics.Counter.OVERRUNS);
+                metrics.recordSince(AudioMetrics.Distribution.CAPTURE_READ_NANOS, start);
+                metrics.record(AudioMetrics.Distribution.RING_FILL_PERCENT, i % 100);
+            }
+            long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+            if (round == 2)
+                assertTrue("allocated " + allocated, allocated < 1024L);
+        }
+    }
+}
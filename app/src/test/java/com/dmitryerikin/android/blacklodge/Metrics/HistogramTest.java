@@ -0,0 +1,52 @@
+package com.dmitryerikin.android.blacklodge.Metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+    @Test
+    public void record_countsValuesIntoBoundedBuckets() {
+        Histogram histogram = new Histogram(Histogram.linearBounds(10L, 10));
+        for (long value = 1L; value <= 100L; value++)
+            histogram.record(value);
+        histogram.record(1000L);
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(101L, snapshot.getCount());
+        assertEquals(10L, snapshot.getBucketCount(0));
+        assertEquals(10L, snapshot.getBucketCount(9));
+        assertEquals(1L, snapshot.getBucketCount(10));
+        assertEquals(1000L, snapshot.getMax());
+        assertEquals(60L, snapshot.getPercentile(50));
+        assertEquals(50L, snapshot.getPercentile(49));
+        assertEquals(1000L, snapshot.getPercentile(100));
+        assertEquals((5050.0 + 1000.0) / 101, snapshot.getMean(), 1e-9);
+    }
+
+    @Test
+    public void exponentialBounds_doubleEveryBucket() {
+        assertArrayEquals(new long[]{1000L, 2000L, 4000L, 8000L}, Histogram.exponentialBounds(1000L, 4));
+        Histogram histogram = new Histogram(Histogram.exponentialBounds(1000L, 4));
+        histogram.record(3000L);
+        assertEquals(1L, histogram.snapshot().getBucketCount(2));
+        assertEquals(3000L, histogram.snapshot().getPercentile(99));
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        Histogram histogram = new Histogram(Histogram.linearBounds(1L, 4));
+        histogram.record(3L);
+        histogram.reset();
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0L, snapshot.getCount());
+        assertEquals(0L, snapshot.getMax());
+        assertEquals(0L, snapshot.getPercentile(50));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsUnorderedBounds() {
+        new Histogram(new long[]{10L, 5L});
+    }
+}
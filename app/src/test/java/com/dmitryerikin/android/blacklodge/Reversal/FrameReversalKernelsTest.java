@@ -0,0 +1,115 @@
+package com.dmitryerikin.android.blacklodge.Reversal;
+
+import com.dmitryerikin.android.blacklodge.AudioConfig;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameReversalKernelsTest {
+
+    private static final int[] FRAME_SIZES = {1, 2, 3, 4, 6, 8, 12};
+
+    @Test
+    public void forConfig_selectsKernelByEncodingAndChannelCount() {
+        assertEquals(1, kernelFor(AudioConfig.ENCODING_PCM_8BIT, 16).getFrameSize());
+        assertEquals(2, kernelFor(AudioConfig.ENCODING_PCM_8BIT, 12).getFrameSize());
+        assertEquals(2, kernelFor(AudioConfig.ENCODING_PCM_16BIT, 16).getFrameSize());
+        assertEquals(4, kernelFor(AudioConfig.ENCODING_PCM_16BIT, 12).getFrameSize());
+        assertEquals(4, kernelFor(AudioConfig.ENCODING_PCM_FLOAT, 4).getFrameSize());
+        assertEquals(8, kernelFor(AudioConfig.ENCODING_PCM_FLOAT, 12).getFrameSize());
+        assertEquals(12, kernelFor(AudioConfig.ENCODING_PCM_16BIT, 252).getFrameSize());
+        assertEquals(6, kernelFor(AudioConfig.ENCODING_PCM_24BIT_PACKED, 12).getFrameSize());
+    }
+
+    @Test
+    public void reverse_matchesReferenceOnHeapBuffers() {
+        for (int frameSize : FRAME_SIZES)
+            for (int frames = 0; frames < 40; frames++)
+                assertMatchesReference(frameSize, frames, false);
+    }
+
+    @Test
+    public void reverse_matchesReferenceOnDirectBuffers() {
+        for (int frameSize : FRAME_SIZES)
+            for (int frames = 0; frames < 40; frames++)
+                assertMatchesReference(frameSize, frames, true);
+    }
+
+    @Test
+    public void reverse_leavesPositionAndLimitUntouched() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.position(5).limit(9);
+        FrameReversalKernels.forFrameSize(4).reverse(buffer, 8, 48);
+        assertEquals(5, buffer.position());
+        assertEquals(9, buffer.limit());
+    }
+
+    @Test
+    public void sixteenBitStereoKernel_matchesByteLoop() {
+        byte[] array = new byte[64 * 1024 + 12];
+        new Random(1L).nextBytes(array);
+        ByteBuffer heap = ByteBuffer.wrap(array.clone());
+        ByteBuffer direct = ByteBuffer.allocateDirect(array.length);
+        direct.put(array).clear();
+        FrameReversalKernel kernel = kernelFor(AudioConfig.ENCODING_PCM_16BIT, 12);
+
+        kernel.reverse(heap, 0, array.length);
+        kernel.reverse(direct, 0, array.length);
+        byteLoopReverse(array);
+        byte[] fromDirect = new byte[array.length];
+        direct.get(fromDirect);
+        assertArrayEquals(array, heap.array());
+        assertArrayEquals(array, fromDirect);
+    }
+
+    private static FrameReversalKernel kernelFor(int encoding, int channelConfig) {
+        return FrameReversalKernels.forConfig(new AudioConfig(0, 44100, channelConfig, encoding));
+    }
+
+    private static void assertMatchesReference(int frameSize, int frames, boolean direct) {
+        int offset = 3;
+        byte[] content = new byte[offset + frames * frameSize + 5];
+        new Random(frameSize * 31 + frames).nextBytes(content);
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(content.length) : ByteBuffer.allocate(content.length);
+        buffer.put(content).clear();
+
+        FrameReversalKernel kernel = FrameReversalKernels.forFrameSize(frameSize);
+        assertEquals(frameSize, kernel.getFrameSize());
+        kernel.reverse(buffer, offset, frames * frameSize);
+
+        byte[] expected = content.clone();
+        referenceReverse(expected, offset, frames * frameSize, frameSize);
+        byte[] actual = new byte[content.length];
+        buffer.get(actual);
+        assertArrayEquals("frameSize " + frameSize + ", frames " + frames, expected, actual);
+    }
+
+    private static void referenceReverse(byte[] array, int offset, int length, int frameSize) {
+        byte[] copy = array.clone();
+        int frames = length / frameSize;
+        for (int i = 0; i < frames; i++)
+            System.arraycopy(copy, offset + i * frameSize, array, offset + (frames - 1 - i) * frameSize, frameSize);
+    }
+
+    /**
+     * The byte loop AudioReverser used for 16-bit stereo before the kernels.
+     */
+    private static void byteLoopReverse(byte[] array) {
+        byte temp;
+        int originalPos;
+        int reversedPos;
+        for (int i = 0; i < array.length / 2; i += 4) {
+            for (int j = 0; j < 4; j++) {
+                originalPos = i + j;
+                reversedPos = array.length - i + j - 4;
+                temp = array[originalPos];
+                array[originalPos] = array[reversedPos];
+                array[reversedPos] = temp;
+            }
+        }
+    }
+}
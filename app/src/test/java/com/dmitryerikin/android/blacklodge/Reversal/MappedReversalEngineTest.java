@@ -0,0 +1,149 @@
+package com.dmitryerikin.android.blacklodge.Reversal;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MappedReversalEngineTest {
+
+    private static final int FRAME_SIZE = 4;
+    // typical AudioRecord.getMinBufferSize() for 44100 Hz stereo 16-bit
+    private static final int LEGACY_BUFFER_SIZE = 3584;
+
+    @Test
+    public void reverse_singleWindow() throws IOException {
+        assertReversedCorrectly(4096 * FRAME_SIZE, MappedReversalEngine.DEFAULT_WINDOW_SIZE);
+    }
+
+    @Test
+    public void reverse_manyWindowsWithShortLastWindow() throws IOException {
+        // 1000 frames through 7-frame windows leaves a 6-frame window at the start of the file
+        assertReversedCorrectly(1000 * FRAME_SIZE, 7 * FRAME_SIZE);
+    }
+
+    @Test
+    public void reverse_dropsTrailingIncompleteFrame() throws IOException {
+        File original = createRandomFile(10 * FRAME_SIZE + 3, 1L);
+        File reversed = File.createTempFile("reversed", ".pcm");
+        try {
+            long written = new MappedReversalEngine(FRAME_SIZE).reverse(original, reversed);
+            assertEquals(10 * FRAME_SIZE, written);
+            assertEquals(10 * FRAME_SIZE, reversed.length());
+        } finally {
+            original.delete();
+            reversed.delete();
+        }
+    }
+
+    @Test
+    public void reverse_emptyFile() throws IOException {
+        File original = createRandomFile(0, 1L);
+        File reversed = File.createTempFile("reversed", ".pcm");
+        try {
+            assertEquals(0L, new MappedReversalEngine(FRAME_SIZE).reverse(original, reversed));
+            assertEquals(0L, reversed.length());
+        } finally {
+            original.delete();
+            reversed.delete();
+        }
+    }
+
+    @Test
+    public void windowSize_isRoundedToWholeFrames() {
+        assertEquals(12L, new MappedReversalEngine(6, 17).getWindowSize());
+        assertEquals(6L, new MappedReversalEngine(6, 1).getWindowSize());
+        assertTrue(new MappedReversalEngine(4, Long.MAX_VALUE).getWindowSize() <= Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void reverse_matchesLegacyPathOverManyWindows() throws IOException {
+        // windows and legacy chunks both end off each other's boundaries and off the file's
+        File original = createRandomFile(300 * 1024 + 12 * FRAME_SIZE, 42L);
+        File legacyReversed = File.createTempFile("legacy", ".pcm");
+        File mappedReversed = File.createTempFile("mapped", ".pcm");
+        try {
+            legacyReverse(original, legacyReversed);
+            long written = new MappedReversalEngine(FRAME_SIZE, 64 * 1024 + FRAME_SIZE)
+                    .reverse(original, mappedReversed);
+            assertEquals(original.length(), written);
+            assertArrayEquals(Files.readAllBytes(legacyReversed.toPath()), Files.readAllBytes(mappedReversed.toPath()));
+        } finally {
+            original.delete();
+            legacyReversed.delete();
+            mappedReversed.delete();
+        }
+    }
+
+    private static void assertReversedCorrectly(int size, long windowSize) throws IOException {
+        File original = createRandomFile(size, size);
+        File reversed = File.createTempFile("reversed", ".pcm");
+        try {
+            new MappedReversalEngine(FRAME_SIZE, windowSize).reverse(original, reversed);
+            byte[] expected = Files.readAllBytes(original.toPath());
+            referenceReverse(expected);
+            assertArrayEquals(expected, Files.readAllBytes(reversed.toPath()));
+        } finally {
+            original.delete();
+            reversed.delete();
+        }
+    }
+
+    private static void referenceReverse(byte[] array) {
+        byte[] copy = array.clone();
+        int frames = array.length / FRAME_SIZE;
+        for (int i = 0; i < frames; i++)
+            System.arraycopy(copy, i * FRAME_SIZE, array, (frames - 1 - i) * FRAME_SIZE, FRAME_SIZE);
+    }
+
+    /**
+     * The chunked RandomAccessFile reversal AudioReverser used before MappedReversalEngine,
+     * with the size of the last chunk corrected.
+     */
+    private static void legacyReverse(File originalFile, File reversedFile) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(originalFile, "r");
+             FileOutputStream fos = new FileOutputStream(reversedFile)) {
+            int bufferSize = LEGACY_BUFFER_SIZE;
+            if ((long) bufferSize > raf.length())
+                bufferSize = (int) raf.length();
+            long rafPosition = raf.length();
+            byte[] buffer = new byte[bufferSize];
+            do {
+                rafPosition -= (long) bufferSize;
+                if (rafPosition < 0) {
+                    buffer = new byte[(int) rafPosition + bufferSize];
+                    rafPosition = 0;
+                }
+                raf.seek(rafPosition);
+                raf.read(buffer);
+                for (int i = 0; i < buffer.length / 2; i += 4) {
+                    for (int j = 0; j < 4; j++) {
+                        byte temp = buffer[i + j];
+                        buffer[i + j] = buffer[buffer.length - i + j - 4];
+                        buffer[buffer.length - i + j - 4] = temp;
+                    }
+                }
+                fos.write(buffer);
+            } while (rafPosition != 0);
+        }
+    }
+
+    private static File createRandomFile(long size, long seed) throws IOException {
+        File file = File.createTempFile("original", ".pcm");
+        Random random = new Random(seed);
+        byte[] chunk = new byte[1024 * 1024];
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            for (long written = 0L; written < size; written += chunk.length) {
+                random.nextBytes(chunk);
+                fos.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+        }
+        return file;
+    }
+}
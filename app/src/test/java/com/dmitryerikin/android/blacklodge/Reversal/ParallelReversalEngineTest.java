@@ -0,0 +1,82 @@
+package com.dmitryerikin.android.blacklodge.Reversal;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ParallelReversalEngineTest {
+
+    private static final int FRAME_SIZE = 4;
+
+    @Test
+    public void reverse_matchesSequentialEngine() throws IOException {
+        // 1000 frames in 64-frame segments, the last segment is short
+        assertMatchesSequential(1000 * FRAME_SIZE + 2, 4, 64 * FRAME_SIZE);
+    }
+
+    @Test
+    public void reverse_matchesSequentialEngineWithOddSegmentSize() throws IOException {
+        assertMatchesSequential(77777 * FRAME_SIZE, 3, 1001);
+    }
+
+    @Test
+    public void reverse_matchesSequentialEngineOnLargeFile() throws IOException {
+        assertMatchesSequential(48 * 1024 * 1024 + 12, 8, ParallelReversalEngine.DEFAULT_SEGMENT_SIZE);
+    }
+
+    @Test
+    public void shouldRunInParallel_fallsBackForSmallFiles() {
+        ParallelReversalEngine engine = new ParallelReversalEngine(FRAME_SIZE, 4, 1024, 4096);
+        assertFalse(engine.shouldRunInParallel(4092));
+        assertTrue(engine.shouldRunInParallel(4096));
+        assertFalse(new ParallelReversalEngine(FRAME_SIZE, 1, 1024, 0).shouldRunInParallel(1 << 20));
+    }
+
+    @Test
+    public void close_fallsBackToSequential() {
+        ParallelReversalEngine engine = new ParallelReversalEngine(FRAME_SIZE, 4, 1024, 4096);
+        engine.close();
+        assertFalse(engine.shouldRunInParallel(1 << 20));
+        engine.close();
+    }
+
+    @Test
+    public void segmentSize_isRoundedToWholeFrames() {
+        assertEquals(1000, new ParallelReversalEngine(FRAME_SIZE, 2, 1001, 0).getSegmentSize());
+        assertEquals(FRAME_SIZE, new ParallelReversalEngine(FRAME_SIZE, 2, 1, 0).getSegmentSize());
+    }
+
+    private static void assertMatchesSequential(int size, int parallelism, int segmentSize) throws IOException {
+        File original = createRandomFile(size, size);
+        File sequential = File.createTempFile("sequential", ".pcm");
+        File parallel = File.createTempFile("parallel", ".pcm");
+        try {
+            ParallelReversalEngine engine = new ParallelReversalEngine(FRAME_SIZE, parallelism, segmentSize, 0L);
+            assertTrue(engine.shouldRunInParallel(size - size % FRAME_SIZE));
+            long written = engine.reverse(original, parallel);
+            new MappedReversalEngine(FRAME_SIZE).reverse(original, sequential);
+            assertEquals(size - size % FRAME_SIZE, written);
+            assertArrayEquals(Files.readAllBytes(sequential.toPath()), Files.readAllBytes(parallel.toPath()));
+        } finally {
+            original.delete();
+            sequential.delete();
+            parallel.delete();
+        }
+    }
+
+    private static File createRandomFile(int size, long seed) throws IOException {
+        File file = File.createTempFile("original", ".pcm");
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(content);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,138 @@
+package com.dmitryerikin.android.blacklodge.Reversal;
+
+import com.dmitryerikin.android.blacklodge.Exceptions.ReversalCancelledException;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReversalProgressTest {
+
+    private static final int FRAME_SIZE = 4;
+    // small blocks, so a few megabytes still take many windows and segments
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final int WINDOW_SIZE = 64 * 1024;
+    private static final int PARALLELISM = 4;
+
+    @Test
+    public void parallelEngine_reportsCoalescedProgress() throws IOException {
+        ParallelReversalEngine engine = new ParallelReversalEngine(FRAME_SIZE, PARALLELISM, SEGMENT_SIZE, 0L);
+        assertProgressReported(engine, null);
+    }
+
+    @Test
+    public void mappedEngine_reportsCoalescedProgress() throws IOException {
+        MappedReversalEngine engine = new MappedReversalEngine(FRAME_SIZE, WINDOW_SIZE);
+        assertProgressReported(null, engine);
+    }
+
+    @Test
+    public void parallelEngine_stopsWithinOneBlockAndDeletesOutput() throws IOException {
+        ParallelReversalEngine engine = new ParallelReversalEngine(FRAME_SIZE, PARALLELISM, SEGMENT_SIZE, 0L);
+        assertCancelled(engine, null, PARALLELISM * SEGMENT_SIZE);
+    }
+
+    @Test
+    public void mappedEngine_stopsWithinOneBlockAndDeletesOutput() throws IOException {
+        MappedReversalEngine engine = new MappedReversalEngine(FRAME_SIZE, WINDOW_SIZE);
+        assertCancelled(null, engine, WINDOW_SIZE);
+    }
+
+    @Test
+    public void checkCancelled_throwsOnlyAfterCancel() throws ReversalCancelledException {
+        ReversalProgress progress = new ReversalProgress();
+        progress.checkCancelled();
+        progress.cancel();
+        assertTrue(progress.isCancelled());
+        try {
+            progress.checkCancelled();
+            fail();
+        } catch (ReversalCancelledException expected) {
+        }
+    }
+
+    private static void assertProgressReported(ParallelReversalEngine parallel, MappedReversalEngine mapped)
+            throws IOException {
+        File original = createSyntheticFile();
+        File reversed = File.createTempFile("reversed", ".pcm");
+        final List<long[]> reports = Collections.synchronizedList(new ArrayList<long[]>());
+        ReversalProgress progress = new ReversalProgress(new ReversalProgress.Listener() {
+            @Override
+            public void onProgress(long bytesProcessed, long totalBytes, long bytesPerSecond) {
+                reports.add(new long[]{bytesProcessed, totalBytes, bytesPerSecond});
+            }
+        }, 20L);
+        try {
+            long start = System.nanoTime();
+            long written = parallel != null ? parallel.reverse(original, reversed, progress)
+                    : mapped.reverse(original, reversed, progress);
+            long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+
+            assertEquals(FILE_SIZE, written);
+            assertFalse(reports.isEmpty());
+            assertTrue("too many reports: " + reports.size(), reports.size() <= elapsedMillis / 20 + 2);
+            long previous = 0L;
+            for (long[] report : reports) {
+                assertTrue(report[0] >= previous);
+                assertEquals(FILE_SIZE, report[1]);
+                assertTrue(report[2] > 0L);
+                previous = report[0];
+            }
+            assertEquals(FILE_SIZE, reports.get(reports.size() - 1)[0]);
+        } finally {
+            original.delete();
+            reversed.delete();
+        }
+    }
+
+    private static void assertCancelled(ParallelReversalEngine parallel, MappedReversalEngine mapped, long blockBound)
+            throws IOException {
+        File original = createSyntheticFile();
+        File reversed = File.createTempFile("reversed", ".pcm");
+        final long[] cancelledAt = new long[1];
+        final ReversalProgress[] holder = new ReversalProgress[1];
+        holder[0] = new ReversalProgress(new ReversalProgress.Listener() {
+            @Override
+            public void onProgress(long bytesProcessed, long totalBytes, long bytesPerSecond) {
+                if (bytesProcessed >= totalBytes / 4 && !holder[0].isCancelled()) {
+                    cancelledAt[0] = bytesProcessed;
+                    holder[0].cancel();
+                }
+            }
+        }, 0L);
+        try {
+            if (parallel != null)
+                parallel.reverse(original, reversed, holder[0]);
+            else
+                mapped.reverse(original, reversed, holder[0]);
+            fail();
+        } catch (ReversalCancelledException expected) {
+            assertTrue(holder[0].getBytesProcessed() - cancelledAt[0] <= blockBound);
+            assertTrue(holder[0].getBytesProcessed() < FILE_SIZE);
+            assertFalse(reversed.exists());
+        } finally {
+            original.delete();
+            reversed.delete();
+        }
+    }
+
+    private static File createSyntheticFile() throws IOException {
+        File file = File.createTempFile("original", ".pcm");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            byte[] chunk = new byte[1024 * 1024];
+            for (int i = 0; i < chunk.length; i++)
+                chunk[i] = (byte) (i * 31);
+            for (int written = 0; written < FILE_SIZE; written += chunk.length)
+                raf.write(chunk);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,135 @@
+package com.dmitryerikin.android.blacklodge.Scheduling;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class AudioSchedulerTest {
+
+    private AudioScheduler mScheduler;
+    private CountDownLatch mRelease;
+
+    @Before
+    public void setUp() {
+        mScheduler = new AudioScheduler(1, 2);
+        mRelease = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        mScheduler.shutdown();
+    }
+
+    @Test
+    public void submit_completesFutureAndCallsListeners() throws Exception {
+        AudioFuture<String> future = mScheduler.submitBackground("job", new Callable<String>() {
+            @Override
+            public String call() {
+                return Thread.currentThread().getName();
+            }
+        });
+        final CountDownLatch called = new CountDownLatch(2);
+        AudioFuture.Listener<String> listener = new AudioFuture.Listener<String>() {
+            @Override
+            public void onDone(AudioFuture<String> done) {
+                called.countDown();
+            }
+        };
+        future.addListener(listener);
+        assertEquals("background-1-job", future.get(5, TimeUnit.SECONDS));
+        future.addListener(listener);
+        assertTrue(called.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void submit_reportsFailure() throws InterruptedException {
+        AudioFuture<Void> future = mScheduler.submitAudio("failing", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                throw new java.io.IOException("broken");
+            }
+        });
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ee) {
+            assertEquals("broken", ee.getCause().getMessage());
+        } catch (java.util.concurrent.TimeoutException te) {
+            fail();
+        }
+    }
+
+    @Test
+    public void backgroundLane_isBounded() {
+        for (int i = 0; i < 3; i++)
+            mScheduler.submitBackground("blocked", blockingJob(null));
+        try {
+            mScheduler.submitBackground("rejected", blockingJob(null));
+            fail();
+        } catch (RejectedExecutionException expected) {
+            assertEquals(2, mScheduler.getQueuedBackgroundCount());
+        }
+    }
+
+    @Test
+    public void audioLane_isNotStarvedByBackgroundWork() throws Exception {
+        for (int i = 0; i < 3; i++)
+            mScheduler.submitBackground("blocked", blockingJob(null));
+        AudioFuture<Integer> audio = mScheduler.submitAudio("capture", new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return Thread.currentThread().getPriority();
+            }
+        });
+        assertEquals(Thread.MAX_PRIORITY, (int) audio.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancel_interruptsRunningJob() throws Exception {
+        final AtomicReference<Boolean> interrupted = new AtomicReference<>();
+        CountDownLatch started = new CountDownLatch(1);
+        AudioFuture<Void> future = mScheduler.submitAudio("playback", blockingJob(started, interrupted));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(future.cancel(true));
+        try {
+            future.get();
+            fail();
+        } catch (CancellationException expected) {
+        }
+        for (int i = 0; i < 100 && interrupted.get() == null; i++)
+            Thread.sleep(10L);
+        assertTrue(interrupted.get());
+    }
+
+    private Callable<Void> blockingJob(CountDownLatch started) {
+        return blockingJob(started, new AtomicReference<Boolean>());
+    }
+
+    private Callable<Void> blockingJob(final CountDownLatch started, final AtomicReference<Boolean> interrupted) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                if (started != null)
+                    started.countDown();
+                try {
+                    mRelease.await();
+                    interrupted.set(false);
+                } catch (InterruptedException ie) {
+                    interrupted.set(true);
+                }
+                return null;
+            }
+        };
+    }
+}
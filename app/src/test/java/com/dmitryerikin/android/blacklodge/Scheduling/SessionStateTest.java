@@ -0,0 +1,270 @@
+package com.dmitryerikin.android.blacklodge.Scheduling;
+
+import com.dmitryerikin.android.blacklodge.Buffers.RingDrainer;
+import com.dmitryerikin.android.blacklodge.Buffers.SpscByteRing;
+import com.dmitryerikin.android.blacklodge.Reversal.ParallelReversalEngine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SessionStateTest {
+
+    private static final int THREADS = 8;
+    private static final int SESSIONS = 6;
+
+    private AudioScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mScheduler = new AudioScheduler(2, 16);
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.shutdown();
+    }
+
+    @Test
+    public void lifecycle_movesThroughAllStates() {
+        SessionState state = new SessionState("engine");
+        assertEquals(SessionState.State.IDLE, state.get());
+        state.start();
+        assertEquals(SessionState.State.STARTING, state.get());
+        assertTrue(state.markRunning());
+        assertTrue(state.isRunning());
+        assertTrue(state.requestStop());
+        assertFalse(state.requestStop());
+        assertEquals(SessionState.State.DRAINING, state.get());
+        try {
+            state.start();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        state.finish();
+        assertFalse(state.isActive());
+        state.start();
+        assertEquals(SessionState.State.STARTING, state.get());
+    }
+
+    @Test
+    public void stopBeforeRun_keepsJobFromRunning() {
+        SessionState state = new SessionState("engine");
+        state.start();
+        assertTrue(state.requestStop());
+        assertFalse(state.markRunning());
+        assertFalse(state.isRunning());
+    }
+
+    @Test
+    public void racingStartsAndStops_neverOverlapSessions() throws InterruptedException {
+        final SessionState state = new SessionState("engine");
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger sessions = new AtomicInteger();
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final boolean stopper = t % 2 == 1;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    for (int i = 0; i < 20000; i++) {
+                        if (stopper) {
+                            state.requestStop();
+                            continue;
+                        }
+                        try {
+                            state.start();
+                        } catch (IllegalStateException busy) {
+                            continue;
+                        }
+                        if (active.incrementAndGet() != 1)
+                            failure.set("two sessions at once");
+                        if (state.markRunning()) {
+                            for (int spins = 0; spins < 1000 && state.isRunning(); spins++) {
+                            }
+                            state.requestStop();
+                            if (state.get() != SessionState.State.DRAINING)
+                                failure.set("left running in " + state.get());
+                        }
+                        sessions.incrementAndGet();
+                        active.decrementAndGet();
+                        state.finish();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        assertNull(failure.get());
+        assertTrue(sessions.get() > 0);
+        assertEquals(0, active.get());
+    }
+
+    @Test
+    public void captureSessions_onSeparateInstancesRunConcurrently() throws Exception {
+        List<CaptureSession> sessions = new ArrayList<>();
+        List<AudioFuture<Long>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < SESSIONS; i++) {
+                CaptureSession session = new CaptureSession((byte) i);
+                sessions.add(session);
+                futures.add(session.record(mScheduler));
+            }
+            Thread.sleep(200L);
+            for (CaptureSession session : sessions)
+                session.mState.requestStop();
+            for (int i = 0; i < SESSIONS; i++) {
+                long written = futures.get(i).get(10, TimeUnit.SECONDS);
+                CaptureSession session = sessions.get(i);
+                assertEquals(SessionState.State.STOPPED, session.mState.get());
+                assertEquals(session.mCaptured.get(), written);
+                assertEquals(written, session.mFile.length());
+                assertFileFilledWith(session.mFile, session.mValue);
+            }
+        } finally {
+            for (CaptureSession session : sessions)
+                session.mFile.delete();
+        }
+    }
+
+    @Test
+    public void reversals_ofDifferentFilesRunConcurrently() throws Exception {
+        List<File> files = new ArrayList<>();
+        List<AudioFuture<Long>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < SESSIONS; i++) {
+                final File original = File.createTempFile("original", ".pcm");
+                final File reversed = File.createTempFile("reversed", ".pcm");
+                files.add(original);
+                files.add(reversed);
+                writeCounting(original, 1024 * 1024 + i * 4);
+                final ParallelReversalEngine engine = new ParallelReversalEngine(4, 2, 64 * 1024, 0L);
+                futures.add(mScheduler.submitBackground("reverse", new Callable<Long>() {
+                    @Override
+                    public Long call() throws IOException {
+                        return engine.reverse(original, reversed);
+                    }
+                }));
+            }
+            for (int i = 0; i < SESSIONS; i++) {
+                assertEquals(1024 * 1024 + i * 4, (long) futures.get(i).get(30, TimeUnit.SECONDS));
+                assertReversedCounting(files.get(2 * i + 1), (1024 * 1024 + i * 4) / 4);
+            }
+        } finally {
+            for (File file : files)
+                file.delete();
+        }
+    }
+
+    /**
+     * Mirror of the capture and writer jobs of AudioRecorder, with a generator for AudioRecord.
+     */
+    private static class CaptureSession {
+
+        final SessionState mState = new SessionState("capture");
+        final SpscByteRing mRing = new SpscByteRing(64 * 1024);
+        final RingDrainer mDrainer = new RingDrainer(mRing, 16 * 1024, TimeUnit.MILLISECONDS.toNanos(5));
+        final AtomicInteger mCaptured = new AtomicInteger();
+        final byte mValue;
+        final File mFile;
+
+        CaptureSession(byte value) throws IOException {
+            mValue = value;
+            mFile = File.createTempFile("take", ".pcm");
+        }
+
+        AudioFuture<Long> record(AudioScheduler scheduler) {
+            mState.start();
+            AudioFuture<Long> writer = scheduler.submitAudio("writer", new Callable<Long>() {
+                @Override
+                public Long call() throws IOException {
+                    try (FileChannel channel = new FileOutputStream(mFile).getChannel()) {
+                        return mDrainer.drainUntilFinished(channel);
+                    } finally {
+                        mState.finish();
+                    }
+                }
+            });
+            scheduler.submitAudio("capture", new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException {
+                    ByteBuffer chunk = ByteBuffer.allocate(1024);
+                    try {
+                        if (!mState.markRunning())
+                            return null;
+                        while (mState.isRunning()) {
+                            chunk.clear();
+                            while (chunk.hasRemaining())
+                                chunk.put(mValue);
+                            chunk.flip();
+                            if (mRing.offer(chunk))
+                                mCaptured.addAndGet(1024);
+                            Thread.sleep(1L);
+                        }
+                        return null;
+                    } finally {
+                        mState.requestStop();
+                        mDrainer.finish();
+                    }
+                }
+            });
+            return writer;
+        }
+    }
+
+    private static void assertFileFilledWith(File file, byte value) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.readFully(content);
+        }
+        for (byte b : content)
+            assertEquals(value, b);
+    }
+
+    private static void writeCounting(File file, int size) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate(size);
+        for (int frame = 0; frame < size / 4; frame++)
+            content.putInt(frame);
+        content.flip();
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            channel.write(content);
+        }
+    }
+
+    private static void assertReversedCounting(File file, int frames) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate((int) file.length());
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            while (content.hasRemaining() && channel.read(content) > 0) {
+            }
+        }
+        content.flip();
+        assertEquals(frames * 4, content.remaining());
+        for (int frame = frames - 1; frame >= 0; frame--)
+            assertEquals(frame, content.getInt());
+    }
+}
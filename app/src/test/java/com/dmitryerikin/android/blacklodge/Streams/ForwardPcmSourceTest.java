@@ -0,0 +1,74 @@
+package com.dmitryerikin.android.blacklodge.Streams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ForwardPcmSourceTest {
+
+    private static final int FRAME_SIZE = 4;
+
+    @Test
+    public void read_returnsWholeFramesInOrder() throws IOException {
+        byte[] content = new byte[1000 * FRAME_SIZE + 3];
+        new Random(1L).nextBytes(content);
+        File file = File.createTempFile("original", ".pcm");
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(content);
+        }
+
+        ByteArrayOutputStream played = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1003);
+        byte[] chunk = new byte[1003];
+        try (ForwardPcmSource source = new ForwardPcmSource(file, FRAME_SIZE)) {
+            int bytesRead;
+            while ((bytesRead = source.read((ByteBuffer) buffer.clear())) != -1) {
+                assertEquals(0, bytesRead % FRAME_SIZE);
+                buffer.flip();
+                buffer.get(chunk, 0, bytesRead);
+                played.write(chunk, 0, bytesRead);
+            }
+        } finally {
+            file.delete();
+        }
+        assertArrayEquals(Arrays.copyOf(content, 1000 * FRAME_SIZE), played.toByteArray());
+    }
+
+    @Test
+    public void read_rangeStartsAtItsFrameAndEndsAtFileEnd() throws IOException {
+        byte[] content = new byte[1000 * FRAME_SIZE + 3];
+        new Random(2L).nextBytes(content);
+        File file = File.createTempFile("original", ".pcm");
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(content);
+        }
+        try {
+            assertArrayEquals(Arrays.copyOfRange(content, 123 * FRAME_SIZE, 456 * FRAME_SIZE),
+                    readRange(file, 123, 456));
+            assertArrayEquals(Arrays.copyOfRange(content, 990 * FRAME_SIZE, 1000 * FRAME_SIZE),
+                    readRange(file, 990, Long.MAX_VALUE));
+            assertEquals(0, readRange(file, 2000, 3000).length);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] readRange(File file, long startFrame, long endFrame) throws IOException {
+        ByteArrayOutputStream played = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        try (ForwardPcmSource source = new ForwardPcmSource(file, FRAME_SIZE, startFrame, endFrame)) {
+            int bytesRead;
+            while ((bytesRead = source.read((ByteBuffer) buffer.clear())) != -1)
+                played.write(buffer.array(), 0, bytesRead);
+        }
+        return played.toByteArray();
+    }
+}
@@ -0,0 +1,143 @@
+package com.dmitryerikin.android.blacklodge.Streams;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class JournaledFileChannelTest {
+
+    private File mFile;
+    private File mCrashedFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("take", ".pcm");
+        mCrashedFile = File.createTempFile("crashed", ".pcm");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        JournaledFileChannel.journalFor(mFile).delete();
+        mCrashedFile.delete();
+        JournaledFileChannel.journalFor(mCrashedFile).delete();
+    }
+
+    @Test
+    public void crash_recoversToLastCheckpoint() throws IOException {
+        byte[] content = counting(10000);
+        JournaledFileChannel channel = new JournaledFileChannel(mFile, 3000L, Long.MAX_VALUE);
+        try {
+            write(channel, content, 0, 7000, 1000);
+            assertEquals(2L, channel.getCommitCount());
+            assertEquals(6000L, channel.getCommittedLength());
+            assertEquals(7000L, channel.getLength());
+            assertTrue(JournaledFileChannel.journalFor(mFile).isFile());
+            crash();
+        } finally {
+            channel.close();
+        }
+
+        assertEquals(6000L, JournaledFileChannel.recover(mCrashedFile));
+        assertArrayEquals(Arrays.copyOf(content, 6000), read(mCrashedFile));
+        assertFalse(JournaledFileChannel.journalFor(mCrashedFile).exists());
+        assertEquals(-1L, JournaledFileChannel.recover(mCrashedFile));
+    }
+
+    @Test
+    public void tornCheckpoint_fallsBackToThePreviousOne() throws IOException {
+        byte[] content = counting(10000);
+        JournaledFileChannel channel = new JournaledFileChannel(mFile, 2000L, Long.MAX_VALUE);
+        try {
+            write(channel, content, 0, 8000, 2000);
+            crash();
+        } finally {
+            channel.close();
+        }
+        // checkpoint 5 with 8000 bytes went to slot 1, checkpoint 4 with 6000 bytes is in slot 0
+        try (RandomAccessFile journal = new RandomAccessFile(JournaledFileChannel.journalFor(mCrashedFile), "rw")) {
+            journal.seek(32L + 20L);
+            journal.write(0x55);
+        }
+        assertEquals(6000L, JournaledFileChannel.recover(mCrashedFile));
+        assertArrayEquals(Arrays.copyOf(content, 6000), read(mCrashedFile));
+    }
+
+    @Test
+    public void cleanClose_commitsAndRemovesJournal() throws IOException {
+        byte[] content = counting(5000);
+        JournaledFileChannel channel = new JournaledFileChannel(mFile, Long.MAX_VALUE, 0L);
+        write(channel, content, 0, content.length, 1000);
+        // every write is past the time cadence
+        assertEquals(5L, channel.getCommitCount());
+        channel.close();
+        assertFalse(JournaledFileChannel.journalFor(mFile).exists());
+        assertEquals(-1L, JournaledFileChannel.recover(mFile));
+        assertArrayEquals(content, read(mFile));
+    }
+
+    @Test
+    public void crashBeforeFirstCommit_recoversToNothing() throws IOException {
+        JournaledFileChannel channel = new JournaledFileChannel(mFile, Long.MAX_VALUE, Long.MAX_VALUE);
+        try {
+            write(channel, counting(4000), 0, 4000, 4000);
+            crash();
+        } finally {
+            channel.close();
+        }
+        assertEquals(0L, JournaledFileChannel.recover(mCrashedFile));
+        assertEquals(0L, mCrashedFile.length());
+    }
+
+    /**
+     * Copies the take and its journal as they are on disk now, as if the process died.
+     */
+    private void crash() throws IOException {
+        copy(mFile, mCrashedFile);
+        copy(JournaledFileChannel.journalFor(mFile), JournaledFileChannel.journalFor(mCrashedFile));
+        // written after the last checkpoint, possibly only partly on disk
+        try (FileOutputStream out = new FileOutputStream(mCrashedFile, true)) {
+            out.write(new byte[123]);
+        }
+    }
+
+    private static void write(JournaledFileChannel channel, byte[] content, int from, int to, int chunkSize)
+            throws IOException {
+        for (int offset = from; offset < to; offset += chunkSize)
+            assertEquals(Math.min(chunkSize, to - offset),
+                    channel.write(ByteBuffer.wrap(content, offset, Math.min(chunkSize, to - offset))));
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(to)) {
+            out.write(read(from));
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            while (offset < content.length)
+                offset += in.read(content, offset, content.length - offset);
+        }
+        return content;
+    }
+
+    private static byte[] counting(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++)
+            content[i] = (byte) (i * 31 + 7);
+        return content;
+    }
+}
@@ -0,0 +1,125 @@
+package com.dmitryerikin.android.blacklodge.Streams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PcmPrefetcherTest {
+
+    private static final int FRAME_SIZE = 4;
+
+    @Test
+    public void take_deliversWholeSourceInOrder() throws IOException {
+        byte[] content = randomContent(100000);
+        TestSource source = new TestSource(content, 0L, -1);
+        ByteArrayOutputStream played = new ByteArrayOutputStream();
+        try (PcmPrefetcher prefetcher = new PcmPrefetcher(source, 4096, 3)) {
+            ByteBuffer block;
+            while ((block = prefetcher.take()) != null) {
+                assertTrue(block.isDirect());
+                byte[] bytes = new byte[block.remaining()];
+                block.get(bytes);
+                played.write(bytes);
+                prefetcher.recycle(block);
+            }
+            assertNull(prefetcher.take());
+        }
+        assertArrayEquals(content, played.toByteArray());
+        assertTrue(source.mClosed);
+    }
+
+    @Test
+    public void take_countsStallsOfSlowSource() throws IOException {
+        TestSource source = new TestSource(randomContent(16 * 1024), 20L, -1);
+        try (PcmPrefetcher prefetcher = new PcmPrefetcher(source, 1024, 2)) {
+            ByteBuffer block;
+            while ((block = prefetcher.take()) != null)
+                prefetcher.recycle(block);
+            assertTrue(prefetcher.getStallCount() > 0);
+        }
+    }
+
+    @Test
+    public void take_isNotStalledByFastSource() throws IOException, InterruptedException {
+        TestSource source = new TestSource(randomContent(4 * 1024), 0L, -1);
+        try (PcmPrefetcher prefetcher = new PcmPrefetcher(source, 1024, 4)) {
+            ByteBuffer block = prefetcher.take();
+            prefetcher.recycle(block);
+            Thread.sleep(100L);
+            for (int i = 0; i < 3; i++)
+                prefetcher.recycle(prefetcher.take());
+            assertEquals(0L, prefetcher.getStallCount());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void take_reportsReadFailure() throws IOException {
+        TestSource source = new TestSource(randomContent(64 * 1024), 0L, 3);
+        try (PcmPrefetcher prefetcher = new PcmPrefetcher(source, 1024, 2)) {
+            ByteBuffer block;
+            while ((block = prefetcher.take()) != null)
+                prefetcher.recycle(block);
+        }
+    }
+
+    @Test
+    public void close_stopsReaderAndClosesSource() throws IOException {
+        TestSource source = new TestSource(randomContent(1024 * 1024), 0L, -1);
+        PcmPrefetcher prefetcher = new PcmPrefetcher(source, 1024, 2);
+        prefetcher.recycle(prefetcher.take());
+        prefetcher.close();
+        assertTrue(source.mClosed);
+        assertTrue(source.mPosition < 1024 * 1024);
+    }
+
+    private static byte[] randomContent(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    private static class TestSource implements PcmSource {
+
+        private final byte[] mContent;
+        private final long mDelayMillis;
+        private final int mFailAtRead;
+        private int mPosition;
+        private int mReads;
+        private volatile boolean mClosed;
+
+        TestSource(byte[] content, long delayMillis, int failAtRead) {
+            mContent = content;
+            mDelayMillis = delayMillis;
+            mFailAtRead = failAtRead;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (mReads++ == mFailAtRead)
+                throw new IOException("Read " + mFailAtRead + " failed");
+            if (mDelayMillis > 0L) {
+                try {
+                    Thread.sleep(mDelayMillis);
+                } catch (InterruptedException ie) {
+                    throw new java.io.InterruptedIOException();
+                }
+            }
+            if (mPosition == mContent.length)
+                return -1;
+            int length = Math.min(dst.remaining() - dst.remaining() % FRAME_SIZE, mContent.length - mPosition);
+            dst.put(mContent, mPosition, length);
+            mPosition += length;
+            return length;
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.dmitryerikin.android.blacklodge.Streams;
+
+import com.dmitryerikin.android.blacklodge.Reversal.FrameReversalKernels;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReversePcmSourceTest {
+
+    private static final int FRAME_SIZE = 4;
+
+    @Test
+    public void read_blocksFormReversedFile() throws IOException {
+        assertReversed(1000 * FRAME_SIZE, 256);
+    }
+
+    @Test
+    public void read_bufferNotMultipleOfFrameSize() throws IOException {
+        assertReversed(999 * FRAME_SIZE, 1003);
+    }
+
+    @Test
+    public void read_bufferLargerThanFile() throws IOException {
+        assertReversed(10 * FRAME_SIZE + 1, 4096);
+    }
+
+    @Test
+    public void read_emptyFile() throws IOException {
+        File file = createRandomFile(new byte[0]);
+        try (ReversePcmSource source = new ReversePcmSource(file, FRAME_SIZE)) {
+            assertEquals(-1, source.read(ByteBuffer.allocate(16)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void read_rangeIsReversedSliceOfFile() throws IOException {
+        byte[] content = new byte[1000 * FRAME_SIZE];
+        new Random(3L).nextBytes(content);
+        File file = createRandomFile(content);
+        ByteArrayOutputStream played = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(96);
+        try (ReversePcmSource source = new ReversePcmSource(file,
+                FrameReversalKernels.forFrameSize(FRAME_SIZE), 300, 701)) {
+            int bytesRead;
+            while ((bytesRead = source.read((ByteBuffer) buffer.clear())) != -1)
+                played.write(buffer.array(), 0, bytesRead);
+        } finally {
+            file.delete();
+        }
+        byte[] reversed = played.toByteArray();
+        assertEquals(401 * FRAME_SIZE, reversed.length);
+        for (int i = 0; i < 401; i++)
+            for (int b = 0; b < FRAME_SIZE; b++)
+                assertEquals(content[(700 - i) * FRAME_SIZE + b], reversed[i * FRAME_SIZE + b]);
+    }
+
+    private static void assertReversed(int size, int bufferSize) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        File file = createRandomFile(content);
+        ByteArrayOutputStream played = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        try (ReversePcmSource source = new ReversePcmSource(file, FRAME_SIZE)) {
+            int bytesRead;
+            while ((bytesRead = source.read((ByteBuffer) buffer.clear())) != -1) {
+                assertEquals(0, bytesRead % FRAME_SIZE);
+                assertEquals(bytesRead, buffer.position());
+                played.write(buffer.array(), 0, bytesRead);
+            }
+        } finally {
+            file.delete();
+        }
+
+        int frames = size / FRAME_SIZE;
+        byte[] expected = new byte[frames * FRAME_SIZE];
+        for (int i = 0; i < frames; i++)
+            System.arraycopy(content, i * FRAME_SIZE, expected, (frames - 1 - i) * FRAME_SIZE, FRAME_SIZE);
+        assertArrayEquals(expected, played.toByteArray());
+    }
+
+    private static File createRandomFile(byte[] content) throws IOException {
+        File file = File.createTempFile("original", ".pcm");
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(content);
+        }
+        return file;
+    }
+}
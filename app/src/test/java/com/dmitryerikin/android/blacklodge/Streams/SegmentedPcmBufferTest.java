@@ -0,0 +1,181 @@
+package com.dmitryerikin.android.blacklodge.Streams;
+
+import com.dmitryerikin.android.blacklodge.Reversal.FrameReversalKernels;
+import com.dmitryerikin.android.blacklodge.Reversal.ReversalProgress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+import static org.junit.Assert.*;
+
+public class SegmentedPcmBufferTest {
+
+    private static final int FRAME_SIZE = 4;
+    private static final int SEGMENT_SIZE = 1000;
+
+    private File mSpillFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mSpillFile = File.createTempFile("take", ".pcm");
+        mSpillFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mSpillFile.delete();
+    }
+
+    @Test
+    public void smallTake_staysInMemoryAndReadsBothWays() throws IOException {
+        byte[] content = counting(3001);
+        SegmentedPcmBuffer take = write(content, Long.MAX_VALUE, 333);
+        try {
+            assertFalse(take.isSpilled());
+            assertFalse(mSpillFile.exists());
+            assertEquals(content.length, take.getLength());
+            byte[] whole = java.util.Arrays.copyOf(content, content.length - content.length % FRAME_SIZE);
+            assertArrayEquals(whole, readAll(take, false, 777));
+            assertArrayEquals(reverseFrames(whole), readAll(take, true, 777));
+        } finally {
+            take.release();
+        }
+    }
+
+    @Test
+    public void rangedSource_readsFramesOfRangeInMemoryAndSpilled() throws IOException {
+        byte[] content = counting(3000);
+        long[] thresholds = {Long.MAX_VALUE, 4000};
+        for (long threshold : thresholds) {
+            SegmentedPcmBuffer take = write(content, threshold, 333);
+            try {
+                byte[] slice = java.util.Arrays.copyOfRange(content, 240 * FRAME_SIZE, 2777 * FRAME_SIZE);
+                assertArrayEquals(slice, readRange(take, false, 240, 2777));
+                assertArrayEquals(reverseFrames(slice), readRange(take, true, 240, 2777));
+                assertEquals(0, readRange(take, true, 5000, 6000).length);
+            } finally {
+                take.release();
+                mSpillFile.delete();
+            }
+        }
+    }
+
+    @Test
+    public void largeTake_spillsToFileTransparently() throws IOException {
+        byte[] content = counting(5000);
+        SegmentedPcmBuffer take = write(content, 8000, 512);
+        try {
+            assertTrue(take.isSpilled());
+            assertEquals(content.length, mSpillFile.length());
+            assertArrayEquals(content, readFile(mSpillFile));
+            assertArrayEquals(content, readAll(take, false, 4096));
+            assertArrayEquals(reverseFrames(content), readAll(take, true, 4096));
+        } finally {
+            take.release();
+        }
+    }
+
+    @Test
+    public void transferFrom_copiesReversedTake() throws IOException {
+        byte[] content = counting(2500);
+        SegmentedPcmBuffer take = write(content, Long.MAX_VALUE, 1024);
+        SegmentedPcmBuffer reversed = new SegmentedPcmBuffer(FRAME_SIZE, SEGMENT_SIZE, Long.MAX_VALUE, mSpillFile);
+        try (PcmSource source = take.openSource(true, FrameReversalKernels.forFrameSize(FRAME_SIZE))) {
+            ReversalProgress progress = new ReversalProgress();
+            assertEquals(content.length, reversed.transferFrom(source, content.length, progress));
+            reversed.close();
+            assertEquals(content.length, progress.getBytesProcessed());
+            assertArrayEquals(reverseFrames(content), readAll(reversed, false, 2048));
+            assertArrayEquals(content, readAll(reversed, true, 2048));
+        } finally {
+            take.release();
+            reversed.release();
+        }
+    }
+
+    @Test
+    public void closedTake_refusesWritesAndOpenTakeRefusesReads() throws IOException {
+        SegmentedPcmBuffer take = new SegmentedPcmBuffer(FRAME_SIZE, SEGMENT_SIZE, Long.MAX_VALUE, mSpillFile);
+        try {
+            take.openSource(false, FrameReversalKernels.forFrameSize(FRAME_SIZE));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        take.close();
+        try {
+            take.write(ByteBuffer.allocate(4));
+            fail();
+        } catch (ClosedChannelException expected) {
+        }
+        take.release();
+    }
+
+    private SegmentedPcmBuffer write(byte[] content, long spillThreshold, int chunkSize) throws IOException {
+        SegmentedPcmBuffer take = new SegmentedPcmBuffer(FRAME_SIZE, SEGMENT_SIZE, spillThreshold, mSpillFile);
+        for (int offset = 0; offset < content.length; offset += chunkSize) {
+            ByteBuffer chunk = ByteBuffer.allocateDirect(Math.min(chunkSize, content.length - offset));
+            chunk.put(content, offset, chunk.remaining()).flip();
+            assertEquals(chunk.remaining(), take.write(chunk));
+        }
+        take.close();
+        return take;
+    }
+
+    private static byte[] readAll(SegmentedPcmBuffer take, boolean reversed, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        try (PcmSource source = take.openSource(reversed, FrameReversalKernels.forFrameSize(FRAME_SIZE))) {
+            int bytesRead;
+            while ((bytesRead = source.read((ByteBuffer) buffer.clear())) != -1)
+                out.write(buffer.array(), 0, bytesRead);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readRange(SegmentedPcmBuffer take, boolean reversed, long startFrame, long endFrame)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(700);
+        try (PcmSource source = take.openSource(reversed, FrameReversalKernels.forFrameSize(FRAME_SIZE),
+                startFrame, endFrame)) {
+            int bytesRead;
+            while ((bytesRead = source.read((ByteBuffer) buffer.clear())) != -1)
+                out.write(buffer.array(), 0, bytesRead);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.readFully(content);
+        }
+        return content;
+    }
+
+    /**
+     * @return frames counting up from 0 plus one stray byte if frames is odd
+     */
+    private static byte[] counting(int frames) {
+        ByteBuffer content = ByteBuffer.allocate(frames * FRAME_SIZE + frames % 2);
+        for (int frame = 0; frame < frames; frame++)
+            content.putInt(frame);
+        return content.array();
+    }
+
+    private static byte[] reverseFrames(byte[] content) {
+        int frames = content.length / FRAME_SIZE;
+        byte[] reversed = new byte[frames * FRAME_SIZE];
+        for (int i = 0; i < frames; i++)
+            System.arraycopy(content, i * FRAME_SIZE, reversed, (frames - 1 - i) * FRAME_SIZE, FRAME_SIZE);
+        return reversed;
+    }
+}
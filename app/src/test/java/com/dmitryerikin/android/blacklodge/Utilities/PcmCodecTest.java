@@ -0,0 +1,137 @@
+package com.dmitryerikin.android.blacklodge.Utilities;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class PcmCodecTest {
+
+    private static final ByteOrder[] ORDERS = {ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN};
+
+    @Test
+    public void sixteenBit_allSamplesRoundTripThroughBytes() {
+        short[] samples = allShorts();
+        for (ByteOrder order : ORDERS) {
+            byte[] bytes = PcmCodec.shortsToBytes(samples, order);
+            ByteBuffer expected = ByteBuffer.allocate(bytes.length).order(order);
+            expected.asShortBuffer().put(samples);
+            assertArrayEquals(order.toString(), expected.array(), bytes);
+            assertArrayEquals(order.toString(), samples, PcmCodec.bytesToShorts(bytes, order));
+        }
+    }
+
+    @Test
+    public void sixteenBit_byteBufferMatchesArrays() {
+        short[] samples = allShorts();
+        for (ByteOrder order : ORDERS) {
+            for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(samples.length * 2 + 3),
+                    ByteBuffer.allocateDirect(samples.length * 2 + 3)}) {
+                buffer.position(3);
+                PcmCodec.shortsToBytes(samples, 0, buffer, samples.length, order);
+                assertEquals(buffer.capacity(), buffer.position());
+
+                byte[] bytes = new byte[samples.length * 2];
+                buffer.position(3);
+                buffer.get(bytes);
+                assertArrayEquals(PcmCodec.shortsToBytes(samples, order), bytes);
+
+                short[] decoded = new short[samples.length];
+                buffer.position(3);
+                PcmCodec.bytesToShorts(buffer, decoded, 0, samples.length, order);
+                assertEquals(buffer.capacity(), buffer.position());
+                assertArrayEquals(samples, decoded);
+            }
+        }
+    }
+
+    @Test
+    public void sixteenBit_allSamplesRoundTripThroughFloats() {
+        short[] samples = allShorts();
+        float[] floats = new float[samples.length];
+        short[] decoded = new short[samples.length];
+        PcmCodec.shortsToFloats(samples, 0, floats, 0, samples.length);
+        PcmCodec.floatsToShorts(floats, 0, decoded, 0, samples.length);
+        assertArrayEquals(samples, decoded);
+        for (float f : floats)
+            assertTrue(f >= -1f && f < 1f);
+
+        for (ByteOrder order : ORDERS) {
+            byte[] bytes = PcmCodec.shortsToBytes(samples, order);
+            float[] fromBytes = new float[samples.length];
+            PcmCodec.pcm16ToFloats(bytes, 0, fromBytes, 0, samples.length, order);
+            assertArrayEquals(floats, fromBytes, 0f);
+
+            byte[] encoded = new byte[bytes.length];
+            PcmCodec.floatsToPcm16(fromBytes, 0, encoded, 0, samples.length, order);
+            assertArrayEquals(bytes, encoded);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+            PcmCodec.floatsToPcm16(floats, 0, buffer, samples.length, order);
+            buffer.flip();
+            float[] fromBuffer = new float[samples.length];
+            PcmCodec.pcm16ToFloats(buffer, fromBuffer, 0, samples.length, order);
+            assertArrayEquals(floats, fromBuffer, 0f);
+            assertFalse(buffer.hasRemaining());
+        }
+    }
+
+    @Test
+    public void eightBit_allSamplesRoundTrip() {
+        byte[] samples = new byte[256];
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = (byte) i;
+
+        short[] shorts = new short[256];
+        byte[] fromShorts = new byte[256];
+        PcmCodec.pcm8ToShorts(samples, 0, shorts, 0, 256);
+        PcmCodec.shortsToPcm8(shorts, 0, fromShorts, 0, 256);
+        assertArrayEquals(samples, fromShorts);
+        assertEquals(0, shorts[128]);
+        assertEquals(Short.MIN_VALUE, shorts[0]);
+
+        float[] floats = new float[256];
+        byte[] fromFloats = new byte[256];
+        PcmCodec.pcm8ToFloats(samples, 0, floats, 0, 256);
+        PcmCodec.floatsToPcm8(floats, 0, fromFloats, 0, 256);
+        assertArrayEquals(samples, fromFloats);
+        assertEquals(-1f, floats[0], 0f);
+        assertEquals(0f, floats[128], 0f);
+    }
+
+    @Test
+    public void floats_areClamped() {
+        float[] floats = {-2f, 1f, 5f, Float.NaN};
+        short[] shorts = new short[4];
+        byte[] bytes = new byte[4];
+        PcmCodec.floatsToShorts(floats, 0, shorts, 0, 4);
+        PcmCodec.floatsToPcm8(floats, 0, bytes, 0, 4);
+        assertArrayEquals(new short[]{Short.MIN_VALUE, Short.MAX_VALUE, Short.MAX_VALUE, 0}, shorts);
+        assertArrayEquals(new byte[]{0, (byte) 255, (byte) 255, (byte) 128}, bytes);
+    }
+
+    @Test
+    public void offsets_areHonoured() {
+        short[] shorts = {1, 2, 3, 4};
+        byte[] bytes = new byte[10];
+        PcmCodec.shortsToBytes(shorts, 1, bytes, 3, 2, ByteOrder.LITTLE_ENDIAN);
+        assertArrayEquals(new byte[]{0, 0, 0, 2, 0, 3, 0, 0, 0, 0}, bytes);
+        short[] decoded = new short[4];
+        PcmCodec.bytesToShorts(bytes, 3, decoded, 2, 2, ByteOrder.LITTLE_ENDIAN);
+        assertArrayEquals(new short[]{0, 0, 2, 3}, decoded);
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void outOfRange_isRejected() {
+        PcmCodec.bytesToShorts(new byte[4], 1, new short[2], 0, 2, ByteOrder.BIG_ENDIAN);
+    }
+
+    private static short[] allShorts() {
+        short[] samples = new short[65536];
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = (short) (i + Short.MIN_VALUE);
+        return samples;
+    }
+}
@@ -0,0 +1,160 @@
+package com.dmitryerikin.android.blacklodge.Waveform;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PeakIndexTest {
+
+    private static final int CHANNELS = 2;
+    private static final int BASE_FRAMES = 16;
+    private static final int FACTOR = 4;
+
+    @Test
+    public void builder_matchesBucketsOfEveryLevel() {
+        short[] samples = noise(10007, 1);
+        PeakIndex index = build(samples, 113);
+        assertEquals(10007, index.getFrameCount());
+        assertEquals(1, index.getBucketCount(index.getLevelCount() - 1));
+        for (int level = 0; level < index.getLevelCount(); level++) {
+            long bucketFrames = index.getBucketFrames(level);
+            assertEquals((10007 + bucketFrames - 1) / bucketFrames, index.getBucketCount(level));
+            for (int bucket = 0; bucket < index.getBucketCount(level); bucket++) {
+                long from = bucket * bucketFrames;
+                long to = Math.min(from + bucketFrames, 10007);
+                assertEquals(min(samples, from, to), index.getMin(level, bucket));
+                assertEquals(max(samples, from, to), index.getMax(level, bucket));
+            }
+        }
+    }
+
+    @Test
+    public void peaks_coverEveryPixelOfBothDirections() {
+        short[] samples = noise(50000, 2);
+        PeakIndex index = build(samples, 4096);
+        short[] reversedSamples = reverseFrames(samples);
+        int[] pixelCounts = {1, 7, 100, 3125, 20000};
+        for (int pixels : pixelCounts) {
+            assertPeaksCover(index, samples, 0, 50000, pixels);
+            assertPeaksCover(index, samples, 12345, 40000, pixels);
+            assertPeaksCover(index.reversed(), reversedSamples, 0, 50000, pixels);
+            assertPeaksCover(index.reversed(), reversedSamples, 999, 25000, pixels);
+        }
+        // one pixel per bucket of level 0 is exact
+        short[] mins = new short[50000 / BASE_FRAMES];
+        short[] maxs = new short[mins.length];
+        index.getPeaks(0, 50000, mins, maxs);
+        for (int pixel = 0; pixel < mins.length; pixel++)
+            assertEquals(min(samples, pixel * BASE_FRAMES, (pixel + 1) * BASE_FRAMES), mins[pixel]);
+    }
+
+    @Test
+    public void soundBounds_findBurstInBothDirections() {
+        short[] samples = new short[30000 * CHANNELS];
+        for (int frame = 11111; frame < 17000; frame++)
+            samples[frame * CHANNELS + 1] = (short) (frame % 2 == 0 ? 3000 : -3000);
+        samples[20000 * CHANNELS] = 50;
+        PeakIndex index = build(samples, 1000);
+
+        assertBounds(index.getSoundStartFrame(100), 11111, true);
+        assertBounds(index.getSoundEndFrame(100), 17000, false);
+        PeakIndex reversed = index.reversed();
+        assertBounds(reversed.getSoundStartFrame(100), 30000 - 17000, true);
+        assertBounds(reversed.getSoundEndFrame(100), 30000 - 11111, false);
+        assertEquals(20001, index.getSoundEndFrame(10), BASE_FRAMES);
+        assertEquals(-1L, index.getSoundStartFrame(5000));
+        assertEquals(-1L, reversed.getSoundEndFrame(5000));
+    }
+
+    @Test
+    public void file_keepsIndexAndDirection() throws IOException {
+        short[] samples = noise(777, 3);
+        PeakIndex index = build(samples, 50).reversed();
+        File file = File.createTempFile("take", ".peaks");
+        try {
+            index.write(file);
+            PeakIndex read = PeakIndex.read(file);
+            assertTrue(read.isReversed());
+            assertEquals(index.getFrameCount(), read.getFrameCount());
+            assertEquals(index.getLevelCount(), read.getLevelCount());
+            for (int bucket = 0; bucket < index.getBucketCount(0); bucket++) {
+                assertEquals(index.getMin(0, bucket), read.getMin(0, bucket));
+                assertEquals(index.getMax(0, bucket), read.getMax(0, bucket));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertBounds(long actual, long expected, boolean start) {
+        if (start)
+            assertTrue(actual + " for " + expected, actual <= expected && actual > expected - BASE_FRAMES);
+        else
+            assertTrue(actual + " for " + expected, actual >= expected && actual < expected + BASE_FRAMES);
+    }
+
+    private static void assertPeaksCover(PeakIndex index, short[] samples, long start, long end, int pixels) {
+        short[] mins = new short[pixels];
+        short[] maxs = new short[pixels];
+        index.getPeaks(start, end, mins, maxs);
+        long frames = end - start;
+        for (int pixel = 0; pixel < pixels; pixel++) {
+            long from = start + frames * pixel / pixels;
+            long to = Math.max(start + frames * (pixel + 1) / pixels, from + 1);
+            assertTrue(mins[pixel] <= min(samples, from, to));
+            assertTrue(maxs[pixel] >= max(samples, from, to));
+            // never wider than the buckets touching the pixel
+            long slack = Math.max(index.getBucketFrames(1), (to - from) * FACTOR);
+            assertTrue(mins[pixel] >= min(samples, from - slack, to + slack));
+            assertTrue(maxs[pixel] <= max(samples, from - slack, to + slack));
+        }
+    }
+
+    private static PeakIndex build(short[] samples, int chunkBytes) {
+        ByteBuffer bytes = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.nativeOrder());
+        bytes.asShortBuffer().put(samples);
+        PeakIndexBuilder builder = new PeakIndexBuilder(CHANNELS, BASE_FRAMES, FACTOR);
+        // odd chunk sizes split samples between chunks
+        for (int position = 0; position < bytes.capacity(); position += chunkBytes) {
+            bytes.limit(Math.min(position + chunkBytes, bytes.capacity())).position(position);
+            builder.update(bytes);
+        }
+        return builder.build();
+    }
+
+    private static short[] noise(int frames, long seed) {
+        Random random = new Random(seed);
+        short[] samples = new short[frames * CHANNELS];
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = (short) (random.nextGaussian() * 3000 * (1 + (i / 997) % 5));
+        return samples;
+    }
+
+    private static short[] reverseFrames(short[] samples) {
+        short[] reversed = new short[samples.length];
+        int frames = samples.length / CHANNELS;
+        for (int frame = 0; frame < frames; frame++)
+            System.arraycopy(samples, frame * CHANNELS, reversed, (frames - 1 - frame) * CHANNELS, CHANNELS);
+        return reversed;
+    }
+
+    private static short min(short[] samples, long from, long to) {
+        short min = Short.MAX_VALUE;
+        for (long i = Math.max(from, 0) * CHANNELS; i < Math.min(to * CHANNELS, samples.length); i++)
+            min = (short) Math.min(min, samples[(int) i]);
+        return min;
+    }
+
+    private static short max(short[] samples, long from, long to) {
+        short max = Short.MIN_VALUE;
+        for (long i = Math.max(from, 0) * CHANNELS; i < Math.min(to * CHANNELS, samples.length); i++)
+            max = (short) Math.max(max, samples[(int) i]);
+        return max;
+    }
+}
@@ -0,0 +1,159 @@
+package com.dmitryerikin.android.blacklodge.Batch;
+
+import com.dmitryerikin.android.blacklodge.AudioConfig;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line entry point of BatchReverser.
+ *
+ * blacklodge-batch -o OUTPUT_DIR [-j THREADS] [--io-limit MB_PER_SECOND] [--rate HZ]
+ *                  [--channels COUNT] [--bits 8|16|24|32] [--report FILE] DIR_OR_FILE...
+ *
+ * Directories are expanded to the files they contain. The report is printed to stdout
+ * and written to FILE if given. Exits with 1 if a file failed and with 2 on bad arguments.
+ */
+public class BatchReverseTool {
+
+    private static final String USAGE = "usage: blacklodge-batch -o OUTPUT_DIR [-j THREADS] "
+            + "[--io-limit MB_PER_SECOND] [--rate HZ] [--channels COUNT] [--bits 8|16|24|32] "
+            + "[--report FILE] DIR_OR_FILE...";
+
+    private static final int DEFAULT_SAMPLE_RATE = 44100;
+    private static final int DEFAULT_CHANNELS = 2;
+    private static final int DEFAULT_BITS = 16;
+    // how long an interrupted run may take to delete its partial outputs
+    private static final long SHUTDOWN_WAIT_SECONDS = 10L;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        File outputDirectory = null;
+        File reportFile = null;
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        long ioLimit = 0L;
+        int sampleRate = DEFAULT_SAMPLE_RATE;
+        int channels = DEFAULT_CHANNELS;
+        int bits = DEFAULT_BITS;
+        List<File> inputs = new ArrayList<>();
+        AudioConfig config;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-o"))
+                    outputDirectory = new File(value(args, ++i));
+                else if (arg.equals("-j"))
+                    concurrency = Integer.parseInt(value(args, ++i));
+                else if (arg.equals("--io-limit"))
+                    ioLimit = (long) (Double.parseDouble(value(args, ++i)) * 1024 * 1024);
+                else if (arg.equals("--rate"))
+                    sampleRate = Integer.parseInt(value(args, ++i));
+                else if (arg.equals("--channels"))
+                    channels = Integer.parseInt(value(args, ++i));
+                else if (arg.equals("--bits"))
+                    bits = Integer.parseInt(value(args, ++i));
+                else if (arg.equals("--report"))
+                    reportFile = new File(value(args, ++i));
+                else if (arg.startsWith("-"))
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                else
+                    addInput(inputs, new File(arg));
+            }
+            if (outputDirectory == null || inputs.isEmpty())
+                throw new IllegalArgumentException("Output directory and inputs are required");
+            if (concurrency < 1)
+                throw new IllegalArgumentException("At least one thread is needed: " + concurrency);
+            config = new AudioConfig(0, sampleRate, channelMask(channels), encodingOf(bits));
+        } catch (IllegalArgumentException | FileNotFoundException e) {
+            exitWithUsage(e);
+            return;
+        }
+
+        IoBudget budget = ioLimit > 0L ? new IoBudget(ioLimit) : IoBudget.unlimited();
+        final BatchReverser reverser = new BatchReverser(config, concurrency, budget);
+        final CountDownLatch finished = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                reverser.cancel();
+                // the JVM halts once the hook returns, let the workers delete their partial outputs
+                try {
+                    finished.await(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }));
+
+        BatchReport report;
+        try {
+            try {
+                report = reverser.reverse(inputs, outputDirectory);
+            } finally {
+                finished.countDown();
+            }
+        } catch (IllegalArgumentException iae) {
+            exitWithUsage(iae);
+            return;
+        }
+        System.out.print(report.format());
+        if (reportFile != null) {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8")) {
+                writer.write(report.format());
+            }
+        }
+        System.exit(report.getFailedCount() == 0 ? 0 : 1);
+    }
+
+    private static void exitWithUsage(Exception e) {
+        System.err.println(e.getMessage());
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length)
+            throw new IllegalArgumentException("Missing value of " + args[index - 1]);
+        return args[index];
+    }
+
+    private static void addInput(List<File> inputs, File file) throws FileNotFoundException {
+        if (file.isDirectory())
+            inputs.addAll(BatchReverser.listInputs(file));
+        else if (file.isFile())
+            inputs.add(file);
+        else
+            throw new FileNotFoundException("No such file: " + file);
+    }
+
+    /**
+     * AudioConfig counts the set bits of a channel mask, so any mask with count bits will do.
+     */
+    private static int channelMask(int count) {
+        if (count < 1 || count > 8)
+            throw new IllegalArgumentException("Unsupported channel count " + count);
+        return ((1 << count) - 1) << 2;
+    }
+
+    private static int encodingOf(int bits) {
+        switch (bits) {
+            case 8:
+                return AudioConfig.ENCODING_PCM_8BIT;
+            case 16:
+                return AudioConfig.ENCODING_PCM_16BIT;
+            case 24:
+                return AudioConfig.ENCODING_PCM_24BIT_PACKED;
+            case 32:
+                return AudioConfig.ENCODING_PCM_32BIT;
+            default:
+                throw new IllegalArgumentException("Unsupported sample size " + bits);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.dmitryerikin.android.blacklodge.Benchmarks;
+
+import com.dmitryerikin.android.blacklodge.Reversal.MappedReversalEngine;
+import com.dmitryerikin.android.blacklodge.Reversal.ParallelReversalEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File to file reversal of a 16-bit stereo take, the path behind AudioReverser.reverse().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FileReversalBenchmark {
+
+    private static final int FRAME_SIZE = 4;
+    // typical AudioRecord.getMinBufferSize() for 44100 Hz stereo 16-bit
+    private static final int LEGACY_BUFFER_SIZE = 3584;
+
+    @Param({"16", "128", "256"})
+    public int fileSizeMb;
+
+    private File mOriginalFile;
+    private File mReversedFile;
+    private MappedReversalEngine mMappedEngine;
+    private ParallelReversalEngine mParallelEngine;
+
+    @Setup
+    public void setUp() throws IOException {
+        mOriginalFile = File.createTempFile("original", ".pcm");
+        mReversedFile = File.createTempFile("reversed", ".pcm");
+        Random random = new Random(1L);
+        byte[] chunk = new byte[1024 * 1024];
+        try (FileOutputStream fos = new FileOutputStream(mOriginalFile)) {
+            for (int i = 0; i < fileSizeMb; i++) {
+                random.nextBytes(chunk);
+                fos.write(chunk);
+            }
+        }
+        mMappedEngine = new MappedReversalEngine(FRAME_SIZE);
+        mParallelEngine = new ParallelReversalEngine(FRAME_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        mParallelEngine.close();
+        mOriginalFile.delete();
+        mReversedFile.delete();
+    }
+
+    /**
+     * The chunked RandomAccessFile reversal AudioReverser used before MappedReversalEngine.
+     */
+    @Benchmark
+    public long legacyChunked() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(mOriginalFile, "r");
+             FileOutputStream fos = new FileOutputStream(mReversedFile)) {
+            long rafPosition = raf.length();
+            byte[] buffer = new byte[LEGACY_BUFFER_SIZE];
+            do {
+                rafPosition -= (long) buffer.length;
+                if (rafPosition < 0) {
+                    buffer = new byte[(int) rafPosition + buffer.length];
+                    rafPosition = 0;
+                }
+                raf.seek(rafPosition);
+                raf.read(buffer);
+                for (int i = 0; i < buffer.length / 2; i += 4) {
+                    for (int j = 0; j < 4; j++) {
+                        byte temp = buffer[i + j];
+                        buffer[i + j] = buffer[buffer.length - i + j - 4];
+                        buffer[buffer.length - i + j - 4] = temp;
+                    }
+                }
+                fos.write(buffer);
+            } while (rafPosition != 0);
+            return raf.length();
+        }
+    }
+
+    @Benchmark
+    public long mapped() throws IOException {
+        return mMappedEngine.reverse(mOriginalFile, mReversedFile);
+    }
+
+    @Benchmark
+    public long parallel() throws IOException {
+        return mParallelEngine.reverse(mOriginalFile, mReversedFile);
+    }
+}
@@ -0,0 +1,75 @@
+package com.dmitryerikin.android.blacklodge.Benchmarks;
+
+import com.dmitryerikin.android.blacklodge.Reversal.FrameReversalKernel;
+import com.dmitryerikin.android.blacklodge.Reversal.FrameReversalKernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory reversal of one buffer of 16-bit stereo frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameReversalBenchmark {
+
+    private static final int FRAME_SIZE = 4;
+
+    @Param({"3584", "65536", "1048576"})
+    public int bufferSize;
+
+    private byte[] mArray;
+    private ByteBuffer mHeapBuffer;
+    private ByteBuffer mDirectBuffer;
+    private FrameReversalKernel mKernel;
+
+    @Setup
+    public void setUp() {
+        mArray = new byte[bufferSize];
+        new Random(1L).nextBytes(mArray);
+        mHeapBuffer = ByteBuffer.wrap(mArray);
+        mDirectBuffer = ByteBuffer.allocateDirect(bufferSize);
+        mDirectBuffer.put(mArray).clear();
+        mKernel = FrameReversalKernels.forFrameSize(FRAME_SIZE);
+    }
+
+    /**
+     * The byte loop AudioReverser used for 16-bit stereo before the kernels.
+     */
+    @Benchmark
+    public byte[] byteLoop() {
+        byte[] array = mArray;
+        byte temp;
+        for (int i = 0; i < array.length / 2; i += 4) {
+            for (int j = 0; j < 4; j++) {
+                temp = array[i + j];
+                array[i + j] = array[array.length - i + j - 4];
+                array[array.length - i + j - 4] = temp;
+            }
+        }
+        return array;
+    }
+
+    @Benchmark
+    public ByteBuffer kernelHeap() {
+        mKernel.reverse(mHeapBuffer, 0, bufferSize);
+        return mHeapBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer kernelDirect() {
+        mKernel.reverse(mDirectBuffer, 0, bufferSize);
+        return mDirectBuffer;
+    }
+}
@@ -0,0 +1,101 @@
+package com.dmitryerikin.android.blacklodge.Benchmarks;
+
+import com.dmitryerikin.android.blacklodge.Utilities.PcmCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PcmCodec against the per-sample ByteBuffer loop the app used before it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PcmCodecBenchmark {
+
+    @Param({"896", "3584", "14336"})
+    public int samples;
+
+    @Param({"LITTLE_ENDIAN", "BIG_ENDIAN"})
+    public String byteOrder;
+
+    private ByteOrder mOrder;
+    private short[] mShorts;
+    private byte[] mBytes;
+    private float[] mFloats;
+    private ByteBuffer mHeapBuffer;
+    private ByteBuffer mDirectBuffer;
+
+    @Setup
+    public void setUp() {
+        mOrder = "BIG_ENDIAN".equals(byteOrder) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        Random random = new Random(1L);
+        mShorts = new short[samples];
+        for (int i = 0; i < samples; i++)
+            mShorts[i] = (short) random.nextInt();
+        mBytes = new byte[samples * 2];
+        random.nextBytes(mBytes);
+        mFloats = new float[samples];
+        mHeapBuffer = ByteBuffer.allocate(samples * 2);
+        mDirectBuffer = ByteBuffer.allocateDirect(samples * 2);
+    }
+
+    @Benchmark
+    public ByteBuffer perSampleShortsToBytes() {
+        mHeapBuffer.clear();
+        mHeapBuffer.order(mOrder);
+        for (short s : mShorts)
+            mHeapBuffer.putShort(s);
+        return mHeapBuffer;
+    }
+
+    @Benchmark
+    public byte[] shortsToBytes() {
+        PcmCodec.shortsToBytes(mShorts, 0, mBytes, 0, samples, mOrder);
+        return mBytes;
+    }
+
+    @Benchmark
+    public ByteBuffer shortsToDirectBuffer() {
+        mDirectBuffer.clear();
+        PcmCodec.shortsToBytes(mShorts, 0, mDirectBuffer, samples, mOrder);
+        return mDirectBuffer;
+    }
+
+    @Benchmark
+    public short[] perSampleBytesToShorts() {
+        ByteBuffer buffer = ByteBuffer.wrap(mBytes).order(mOrder);
+        for (int i = 0; i < samples; i++)
+            mShorts[i] = buffer.getShort();
+        return mShorts;
+    }
+
+    @Benchmark
+    public short[] bytesToShorts() {
+        PcmCodec.bytesToShorts(mBytes, 0, mShorts, 0, samples, mOrder);
+        return mShorts;
+    }
+
+    @Benchmark
+    public float[] bytesToFloats() {
+        PcmCodec.pcm16ToFloats(mBytes, 0, mFloats, 0, samples, mOrder);
+        return mFloats;
+    }
+
+    @Benchmark
+    public byte[] floatsToBytes() {
+        PcmCodec.floatsToPcm16(mFloats, 0, mBytes, 0, samples, mOrder);
+        return mBytes;
+    }
+}
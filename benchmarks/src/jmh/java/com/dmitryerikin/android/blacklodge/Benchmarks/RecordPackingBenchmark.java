@@ -0,0 +1,148 @@
+package com.dmitryerikin.android.blacklodge.Benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.dmitryerikin.android.blacklodge.Buffers.SpscByteRing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of captured buffers in AudioRecorder, without AudioRecord. AudioRecord.read
+ * is replaced by the data it would have produced.
+ *
+ * packBuffer and recordToFile are the per-sample putShort loop of the former
+ * sixteenBitPcmRecording, directBuffer and directRecordToFile are the current pcmRecording
+ * path: a direct buffer copied in bulk into the ring and drained through a FileChannel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecordPackingBenchmark {
+
+    // AudioRecorder reads mMinBufferSize / 4 shorts per call
+    @Param({"896", "3584", "14336"})
+    public int bufferSize;
+
+    private short[] mShortArray;
+    private ByteBuffer mByteBuffer;
+    private ByteBuffer mDirectBuffer;
+    private SpscByteRing mRing;
+
+    @State(Scope.Thread)
+    public static class RecordFile {
+
+        @Param({"1", "16"})
+        public int fileSizeMb;
+
+        private File mFile;
+
+        @Setup
+        public void setUp() throws IOException {
+            mFile = File.createTempFile("record", ".pcm");
+        }
+
+        @TearDown
+        public void tearDown() {
+            mFile.delete();
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1L);
+        mShortArray = new short[bufferSize];
+        for (int i = 0; i < mShortArray.length; i++)
+            mShortArray[i] = (short) random.nextInt();
+        mByteBuffer = ByteBuffer.allocate(mShortArray.length * 2);
+        mDirectBuffer = ByteBuffer.allocateDirect(mShortArray.length * 2).order(ByteOrder.nativeOrder());
+        mDirectBuffer.asShortBuffer().put(mShortArray);
+        mRing = new SpscByteRing(mDirectBuffer.capacity() * 4);
+    }
+
+    @Benchmark
+    public byte[] packBuffer() {
+        mByteBuffer.clear();
+        for (short s : mShortArray) {
+            mByteBuffer.putShort(s);
+        }
+        return mByteBuffer.order(ByteOrder.nativeOrder()).array();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long recordToFile(RecordFile recordFile) throws IOException {
+        long fileSize = recordFile.fileSizeMb * 1024L * 1024L;
+        long written = 0L;
+        try (FileOutputStream fos = new FileOutputStream(recordFile.mFile)) {
+            while (written < fileSize) {
+                mByteBuffer.clear();
+                for (short s : mShortArray) {
+                    mByteBuffer.putShort(s);
+                }
+                fos.write(mByteBuffer.order(ByteOrder.nativeOrder()).array());
+                written += mByteBuffer.capacity();
+            }
+        }
+        return written;
+    }
+
+    @Benchmark
+    public int directBuffer() throws IOException {
+        mDirectBuffer.clear();
+        mRing.offer(mDirectBuffer);
+        return mRing.drainTo(NullChannel.INSTANCE, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long directRecordToFile(RecordFile recordFile) throws IOException {
+        long fileSize = recordFile.fileSizeMb * 1024L * 1024L;
+        long written = 0L;
+        try (FileOutputStream fos = new FileOutputStream(recordFile.mFile)) {
+            FileChannel channel = fos.getChannel();
+            while (written < fileSize) {
+                mDirectBuffer.clear();
+                mRing.offer(mDirectBuffer);
+                written += mRing.drainTo(channel, Integer.MAX_VALUE);
+            }
+        }
+        return written;
+    }
+
+    private static class NullChannel implements WritableByteChannel {
+
+        static final NullChannel INSTANCE = new NullChannel();
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            src.position(src.limit());
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}